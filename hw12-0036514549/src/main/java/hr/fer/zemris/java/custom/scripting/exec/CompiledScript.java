@@ -0,0 +1,26 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Model of a {@code SmartScript} document compiled into a form which can be
+ * executed any number of times, concurrently.
+ * 
+ * @author Matija Frandolić
+ */
+public interface CompiledScript {
+	
+	/**
+	 * Executes the script, writing the output to the given context. Loop
+	 * variables are kept on the given multistack.
+	 * 
+	 * @param  context    request context to which the output is written
+	 * @param  multistack multistack of the variables
+	 * @throws IOException if I/O error occurs
+	 * @throws RuntimeException if the script cannot be executed
+	 */
+	void execute(RequestContext context, ObjectMultistack multistack) throws IOException;
+	
+}
@@ -0,0 +1,75 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Superclass of the classes generated by {@link ScriptClassCompiler}. It gives
+ * the generated code, which is loaded by its own class loader, access to the
+ * operators and functions of the language.
+ * 
+ * @author Matija Frandolić
+ */
+public abstract class GeneratedScript implements CompiledScript {
+	
+	/**
+	 * Returns the sum of the given values.
+	 * 
+	 * @param  first  first operand
+	 * @param  second second operand
+	 * @return        the sum
+	 */
+	protected static Object add(Object first, Object second) {
+		return ScriptProgram.operate(ScriptProgram.ADD, first, second);
+	}
+	
+	/**
+	 * Returns the difference of the given values.
+	 * 
+	 * @param  first  first operand
+	 * @param  second second operand
+	 * @return        the difference
+	 */
+	protected static Object subtract(Object first, Object second) {
+		return ScriptProgram.operate(ScriptProgram.SUBTRACT, first, second);
+	}
+	
+	/**
+	 * Returns the product of the given values.
+	 * 
+	 * @param  first  first operand
+	 * @param  second second operand
+	 * @return        the product
+	 */
+	protected static Object multiply(Object first, Object second) {
+		return ScriptProgram.operate(ScriptProgram.MULTIPLY, first, second);
+	}
+	
+	/**
+	 * Returns the quotient of the given values.
+	 * 
+	 * @param  first  first operand
+	 * @param  second second operand
+	 * @return        the quotient
+	 */
+	protected static Object divide(Object first, Object second) {
+		return ScriptProgram.operate(ScriptProgram.DIVIDE, first, second);
+	}
+	
+	/**
+	 * Fails because an operator or a function has too few operands.
+	 * 
+	 * @throws RuntimeException always
+	 */
+	protected static void underflow() {
+		throw new RuntimeException("Too few operands on the stack.");
+	}
+	
+	/**
+	 * Fails because the function with the given name does not exist.
+	 * 
+	 * @param  name name of the function
+	 * @throws RuntimeException always
+	 */
+	protected static void unknownFunction(String name) {
+		throw new RuntimeException("Unknown function: " + name + ".");
+	}
+	
+}
@@ -1,5 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -9,29 +10,56 @@ import java.util.NoSuchElementException;
  * for each key and provides stack-like abstraction by keeping separate stack of 
  * objects for each key. Keys are instances of {@link String} class and values
  * are instances of {@link ValueWrapper} class.
+ * <p>
+ * Each key is assigned an integer slot the first time it is used, and the stack
+ * of each slot is kept in an array which grows only when needed. Code that
+ * accesses the same keys repeatedly can resolve their slots once by
+ * {@link #slot(String)} and use the methods which take a slot, avoiding the
+ * lookup of the key on every access.
  * 
  * @author Matija Frandolić
  */
 public class ObjectMultistack {
 	
 	/**
-	 * Node of a singly-linked list.
+	 * Initial number of slots and initial capacity of each stack.
 	 */
-	private static class MutltistackEntry {
-		/**
-		 * Value kept by this node.
-		 */
-		private ValueWrapper value;
-		/**
-		 * Reference to the next node.
-		 */
-		private MutltistackEntry next;
-	}
+	private static final int INITIAL_CAPACITY = 4;
+	
+	/**
+	 * Map of the slots of the keys.
+	 */
+	private Map<String, Integer> slots = new HashMap<>();
+	
+	/**
+	 * Stacks of the slots.
+	 */
+	private ValueWrapper[][] stacks = new ValueWrapper[INITIAL_CAPACITY][];
+	
+	/**
+	 * Sizes of the stacks of the slots.
+	 */
+	private int[] sizes = new int[INITIAL_CAPACITY];
 	
 	/**
-	 * Map used for implementation.
+	 * Returns the slot of the given key, assigning a new slot to the key if it
+	 * has none.
+	 * 
+	 * @param  keyName key whose slot is returned
+	 * @return         the slot of the given key
 	 */
-	private Map<String, MutltistackEntry> map = new HashMap<>();
+	public int slot(String keyName) {
+		Integer slot = slots.get(keyName);
+		if (slot == null) {
+			slot = slots.size();
+			if (slot == stacks.length) {
+				stacks = Arrays.copyOf(stacks, 2 * slot);
+				sizes = Arrays.copyOf(sizes, 2 * slot);
+			}
+			slots.put(keyName, slot);
+		}
+		return slot;
+	}
 	
 	/**
 	 * Pushes the given value on the stack that is associated with the given key.
@@ -41,14 +69,28 @@ public class ObjectMultistack {
 	 *                     with the given key
 	 */
 	public void push(String keyName, ValueWrapper valueWrapper) {
-		MutltistackEntry newEntry = new MutltistackEntry();
-		newEntry.value = valueWrapper;
+		push(slot(keyName), valueWrapper);
+	}
+	
+	/**
+	 * Pushes the given value on the stack of the given slot.
+	 * 
+	 * @param  slot         slot returned by {@link #slot(String)}
+	 * @param  valueWrapper value that is pushed to the stack of the given slot
+	 * @throws IndexOutOfBoundsException if the slot is invalid
+	 */
+	public void push(int slot, ValueWrapper valueWrapper) {
+		ValueWrapper[] stack = stacks[slot];
+		int size = sizes[slot];
 		
-		if (!isEmpty(keyName)) {
-			newEntry.next = map.get(keyName);
+		if (stack == null) {
+			stack = stacks[slot] = new ValueWrapper[INITIAL_CAPACITY];
+		} else if (size == stack.length) {
+			stack = stacks[slot] = Arrays.copyOf(stack, 2 * size);
 		}
 		
-		map.put(keyName, newEntry);
+		stack[size] = valueWrapper;
+		sizes[slot] = size + 1;
 	}
 	
 	/**
@@ -60,19 +102,31 @@ public class ObjectMultistack {
 	 * @throws NoSuchElementException if the stack is empty
 	 */
 	public ValueWrapper pop(String keyName) {
-		if (isEmpty(keyName)) {
+		Integer slot = slots.get(keyName);
+		if (slot == null) {
 			throw new NoSuchElementException("Stack for the given key is empty.");
 		}
 		
-		MutltistackEntry topOfStack = map.get(keyName);
-		
-		if (topOfStack.next != null) {
-			map.put(keyName, topOfStack.next);			
-		} else {
-			map.remove(keyName);
+		return pop(slot);
+	}
+	
+	/**
+	 * Pops the value from the stack of the given slot.
+	 * 
+	 * @param  slot slot returned by {@link #slot(String)}
+	 * @return      value that is popped from the stack of the given slot
+	 * @throws NoSuchElementException if the stack is empty
+	 * @throws IndexOutOfBoundsException if the slot is invalid
+	 */
+	public ValueWrapper pop(int slot) {
+		if (isEmpty(slot)) {
+			throw new NoSuchElementException("Stack for the given key is empty.");
 		}
 		
-		return topOfStack.value;
+		int size = --sizes[slot];
+		ValueWrapper value = stacks[slot][size];
+		stacks[slot][size] = null;
+		return value;
 	}
 	
 	/**
@@ -84,11 +138,28 @@ public class ObjectMultistack {
 	 * @throws NoSuchElementException if the stack is empty
 	 */
 	public ValueWrapper peek(String keyName) {
-		if (isEmpty(keyName)) {
+		Integer slot = slots.get(keyName);
+		if (slot == null) {
+			throw new NoSuchElementException("Stack for the given key is empty.");
+		}
+		
+		return peek(slot);
+	}
+	
+	/**
+	 * Peeks the value from the stack of the given slot.
+	 * 
+	 * @param  slot slot returned by {@link #slot(String)}
+	 * @return      value that is peeked from the stack of the given slot
+	 * @throws NoSuchElementException if the stack is empty
+	 * @throws IndexOutOfBoundsException if the slot is invalid
+	 */
+	public ValueWrapper peek(int slot) {
+		if (isEmpty(slot)) {
 			throw new NoSuchElementException("Stack for the given key is empty.");
 		}
 		
-		return map.get(keyName).value;
+		return stacks[slot][sizes[slot] - 1];
 	}
 	
 	/**
@@ -100,7 +171,21 @@ public class ObjectMultistack {
 	 *         is empty, {@code false} otherwise
 	 */
 	public boolean isEmpty(String keyName) {
-		return !map.containsKey(keyName);
+		Integer slot = slots.get(keyName);
+		return slot == null || isEmpty(slot);
+	}
+	
+	/**
+	 * Returns {@code true} if the stack of the given slot is empty and
+	 * {@code false} otherwise.
+	 * 
+	 * @param  slot slot returned by {@link #slot(String)}
+	 * @return      {@code true} if the stack of the given slot is empty,
+	 *              {@code false} otherwise
+	 * @throws IndexOutOfBoundsException if the slot is invalid
+	 */
+	public boolean isEmpty(int slot) {
+		return sizes[slot] == 0;
 	}
 	
 }
@@ -0,0 +1,542 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptProgram.Loop;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptProgram.ScriptFunction;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+/**
+ * Compiler of {@code SmartScript} documents into Java classes. Each document
+ * is translated into the source of a subclass of {@link GeneratedScript}
+ * whose {@code execute} method writes the text nodes, runs the loops as Java
+ * loops and evaluates the echo expressions with stack positions and variables
+ * resolved at compile time, so the whole template is straight-line code which can be
+ * inlined by the JIT compiler. Source is compiled in memory by the system Java
+ * compiler and loaded by a class loader of its own, so the class can be
+ * unloaded once the script is no longer used.
+ * <p>
+ * Generated classes behave exactly as {@link ScriptProgram}, which remains the
+ * reference implementation and which is returned instead if the Java compiler
+ * is not available (when running on a JRE) or if the document cannot be
+ * compiled into a class (for example, because the generated method would be
+ * too large). The latter is reported on the standard error output together
+ * with the errors of the compiler, and counted by {@link #getFallbacks()}.
+ * 
+ * @author Matija Frandolić
+ */
+public class ScriptClassCompiler {
+	
+	/**
+	 * Package of the generated classes.
+	 */
+	private static final String PACKAGE = "hr.fer.zemris.java.custom.scripting.exec.generated";
+	
+	/**
+	 * Number of values each function requires on the stack and the number of
+	 * values it leaves in their place.
+	 */
+	private static final Map<String, int[]> ARITIES = new HashMap<>();
+	
+	static {
+		ARITIES.put("sin", new int[] {1, 1});
+		ARITIES.put("decfmt", new int[] {2, 1});
+		ARITIES.put("dup", new int[] {1, 2});
+		ARITIES.put("swap", new int[] {2, 2});
+		ARITIES.put("setMimeType", new int[] {1, 0});
+		ARITIES.put("paramGet", new int[] {2, 1});
+		ARITIES.put("pparamGet", new int[] {2, 1});
+		ARITIES.put("pparamSet", new int[] {2, 0});
+		ARITIES.put("pparamDel", new int[] {1, 0});
+		ARITIES.put("tparamGet", new int[] {2, 1});
+		ARITIES.put("tparamSet", new int[] {2, 0});
+		ARITIES.put("tparamDel", new int[] {1, 0});
+	}
+	
+	/**
+	 * Counter used for the names of the generated classes.
+	 */
+	private static final AtomicLong COUNTER = new AtomicLong();
+	
+	/**
+	 * System Java compiler, or {@code null} if it is not available.
+	 */
+	private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+	
+	/**
+	 * Number of documents which could not be compiled into a class although
+	 * the Java compiler is available.
+	 */
+	private static final LongAdder FALLBACKS = new LongAdder();
+	
+	/**
+	 * Checks whether documents can be compiled into classes, which requires the
+	 * system Java compiler.
+	 * 
+	 * @return {@code true} if the Java compiler is available, {@code false}
+	 *         otherwise
+	 */
+	public static boolean isAvailable() {
+		return COMPILER != null;
+	}
+	
+	/**
+	 * Returns the number of documents which were compiled into a
+	 * {@link ScriptProgram} because they could not be compiled into a class,
+	 * not counting the ones compiled while the Java compiler is not available.
+	 * 
+	 * @return the number of documents which could not be compiled into a class
+	 */
+	public static long getFallbacks() {
+		return FALLBACKS.sum();
+	}
+	
+	/**
+	 * Compiles the given parsed document into a class and returns its
+	 * instance. If the Java compiler is not available, the document is
+	 * compiled into a {@link ScriptProgram}. The same is done if the document
+	 * cannot be compiled into a class, which is reported.
+	 * 
+	 * @param  documentNode document node of the parsed document
+	 * @return              the compiled script
+	 */
+	public static CompiledScript compile(DocumentNode documentNode) {
+		if (COMPILER == null) {
+			return ScriptProgram.compile(documentNode);
+		}
+		
+		String className = "Script" + COUNTER.incrementAndGet();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try {
+			Generator generator = new Generator(className);
+			documentNode.accept(generator);
+			
+			Class<?> scriptClass = load(PACKAGE + "." + className, generator.build(), diagnostics);
+			if (scriptClass != null) {
+				return (CompiledScript) scriptClass
+					.getConstructor(Object[].class)
+					.newInstance((Object) generator.constants.toArray());
+			}
+			reportFallback(className, formatErrors(diagnostics));
+		} catch (IOException | ReflectiveOperationException | RuntimeException e) {
+			reportFallback(className, e.toString());
+		}
+		return ScriptProgram.compile(documentNode);
+	}
+	
+	/**
+	 * Counts the document which could not be compiled into the class with the
+	 * given name and reports the reason on the standard error output.
+	 * 
+	 * @param className name of the class
+	 * @param reason    reason why the class could not be compiled
+	 */
+	private static void reportFallback(String className, String reason) {
+		FALLBACKS.increment();
+		System.err.println("Script could not be compiled into class " + className
+			+ ", it is interpreted instead: " + reason);
+	}
+	
+	/**
+	 * Formats the errors reported by the Java compiler, one per line, with the
+	 * line of the generated source in which they occurred.
+	 * 
+	 * @param  diagnostics diagnostics reported by the compiler
+	 * @return             the formatted errors
+	 */
+	private static String formatErrors(DiagnosticCollector<JavaFileObject> diagnostics) {
+		StringBuilder sb = new StringBuilder();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				sb.append(System.lineSeparator()).append("  line ").append(diagnostic.getLineNumber())
+					.append(": ").append(diagnostic.getMessage(Locale.ROOT));
+			}
+		}
+		return sb.length() == 0 ? "class was not generated" : sb.toString();
+	}
+	
+	/**
+	 * Compiles the given source of a class and loads the class.
+	 * 
+	 * @param  className   name of the class
+	 * @param  source      source of the class
+	 * @param  diagnostics collector of the diagnostics reported by the compiler
+	 * @return             the loaded class, or {@code null} if the source could
+	 *                     not be compiled
+	 * @throws IOException if I/O error occurs
+	 * @throws ClassNotFoundException if the compiled class cannot be loaded
+	 */
+	private static Class<?> load(String className, String source, DiagnosticCollector<JavaFileObject> diagnostics)
+			throws IOException, ClassNotFoundException {
+		Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+		StandardJavaFileManager standardManager = COMPILER.getStandardFileManager(null, null, null);
+		
+		ForwardingJavaFileManager<StandardJavaFileManager> fileManager =
+			new ForwardingJavaFileManager<>(standardManager) {
+			
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String name,
+					Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + name.replace('.', '/') + kind.extension), kind) {
+					
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream os = new ByteArrayOutputStream();
+						classFiles.put(name, os);
+						return os;
+					}
+					
+				};
+			}
+			
+		};
+		
+		JavaFileObject sourceFile = new SimpleJavaFileObject(
+				URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE) {
+			
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+			
+		};
+		
+		boolean compiled;
+		try (fileManager) {
+			compiled = COMPILER.getTask(
+				null, fileManager, diagnostics, List.of("-proc:none", "-g:source,lines"), null, List.of(sourceFile)
+			).call();
+		}
+		if (!compiled || !classFiles.containsKey(className)) {
+			return null;
+		}
+		
+		return new ClassLoader(GeneratedScript.class.getClassLoader()) {
+			
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream os = classFiles.get(name);
+				if (os == null) {
+					throw new ClassNotFoundException(name);
+				}
+				byte[] bytes = os.toByteArray();
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+			
+		}.loadClass(className);
+	}
+	
+	/**
+	 * Visitor that generates the source of the class from the visited nodes.
+	 * Values which are not written into the source, such as texts, constants
+	 * and functions, are passed to the constructor of the class.
+	 */
+	private static class Generator implements INodeVisitor {
+		
+		/**
+		 * Name of the generated class.
+		 */
+		private String className;
+		
+		/**
+		 * Values passed to the constructor of the class.
+		 */
+		private List<Object> constants = new ArrayList<>();
+		
+		/**
+		 * Declarations of the fields which hold the constants.
+		 */
+		private StringBuilder fields = new StringBuilder();
+		
+		/**
+		 * Statements which resolve the slots of the variables on the multistack.
+		 */
+		private StringBuilder slotResolutions = new StringBuilder();
+		
+		/**
+		 * Body of the {@code execute} method.
+		 */
+		private StringBuilder body = new StringBuilder();
+		
+		/**
+		 * Slots of the variables by their names.
+		 */
+		private Map<String, Integer> slots = new HashMap<>();
+		
+		/**
+		 * Names of the variables of the enclosing loops, innermost first, each
+		 * mapped to the local variable which holds its wrapper.
+		 */
+		private Deque<Map.Entry<String, String>> enclosingLoops = new ArrayDeque<>();
+		
+		/**
+		 * Number of generated loops.
+		 */
+		private int loops;
+		
+		/**
+		 * Current indentation of the body.
+		 */
+		private String indent = "\t\t";
+		
+		/**
+		 * Maximum number of values on the stack.
+		 */
+		private int maxStack = 1;
+		
+		/**
+		 * Constructs a new {@code Generator} of the class with the given name.
+		 * 
+		 * @param className name of the generated class
+		 */
+		public Generator(String className) {
+			this.className = className;
+		}
+		
+		/**
+		 * Returns the generated source of the class.
+		 * 
+		 * @return the source of the class
+		 */
+		public String build() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("package ").append(PACKAGE).append(";\n\n");
+			sb.append("import hr.fer.zemris.java.custom.scripting.exec.*;\n\n");
+			sb.append("public final class ").append(className).append(" extends GeneratedScript {\n\n");
+			sb.append(fields);
+			sb.append("\n\tpublic ").append(className).append("(Object[] c) {\n");
+			for (int i = 0; i < constants.size(); i++) {
+				sb.append("\t\tk").append(i).append(" = (").append(type(constants.get(i)))
+					.append(") c[").append(i).append("];\n");
+			}
+			sb.append("\t}\n\n");
+			sb.append("\t@Override\n");
+			sb.append("\tpublic void execute(hr.fer.zemris.java.webserver.RequestContext context, ")
+				.append("ObjectMultistack multistack) throws java.io.IOException {\n");
+			sb.append("\t\tObject[] stack = new Object[").append(maxStack).append("];\n");
+			sb.append(slotResolutions);
+			sb.append(body);
+			sb.append("\t}\n\n}\n");
+			return sb.toString();
+		}
+		
+		/**
+		 * Adds the given constant and returns the name of the field which
+		 * holds it.
+		 * 
+		 * @param  value value of the constant
+		 * @return       the name of the field
+		 */
+		private String constant(Object value) {
+			String name = "k" + constants.size();
+			fields.append("\tprivate final ").append(type(value)).append(' ').append(name).append(";\n");
+			constants.add(value);
+			return name;
+		}
+		
+		/**
+		 * Returns the declared type of the field which holds the given constant.
+		 * 
+		 * @param  value value of the constant
+		 * @return       the type of the field
+		 */
+		private static String type(Object value) {
+			if (value instanceof String) {
+				return "String";
+			}
+			if (value instanceof ScriptFunction) {
+				return "ScriptProgram.ScriptFunction";
+			}
+			return "Object";
+		}
+		
+		/**
+		 * Appends the given statement to the body.
+		 * 
+		 * @param statement statement to append
+		 */
+		private void line(String statement) {
+			body.append(indent).append(statement).append('\n');
+		}
+		
+		@Override
+		public void visitTextNode(TextNode node) {
+			line("context.write(" + constant(node.getText()) + ");");
+		}
+		
+		@Override
+		public void visitForLoopNode(ForLoopNode node) {
+			String name = node.getVariable().getName();
+			String variable = slot(name);
+			Loop loop = new Loop(node, slots.get(name));
+			String wrapper = "v" + loops++;
+			
+			line("ValueWrapper " + wrapper + " = new ValueWrapper((Object) " + constant(loop.start) + ");");
+			line("multistack.push(" + variable + ", " + wrapper + ");");
+			line("while (" + wrapper + ".numCompare(" + constant(loop.end) + ") <= 0) {");
+			
+			String step = constant(loop.step);
+			String outer = indent;
+			indent += "\t";
+			enclosingLoops.push(Map.entry(loop.variable, wrapper));
+			for (int i = 0, last = node.numberOfChildren(); i < last; i++) {
+				node.getChild(i).accept(this);
+			}
+			enclosingLoops.pop();
+			line(wrapper + ".add(" + step + ");");
+			indent = outer;
+			
+			line("}");
+			line("multistack.pop(" + variable + ");");
+		}
+		
+		@Override
+		public void visitEchoNode(EchoNode node) {
+			int top = 0;
+			
+			for (Element e : node.getElements()) {
+				if (e instanceof ElementConstantDouble) {
+					line("stack[" + top++ + "] = " + constant(((ElementConstantDouble) e).getValue()) + ";");
+				} else if (e instanceof ElementConstantInteger) {
+					line("stack[" + top++ + "] = " + constant(((ElementConstantInteger) e).getValue()) + ";");
+				} else if (e instanceof ElementString) {
+					line("stack[" + top++ + "] = " + constant(((ElementString) e).getValue()) + ";");
+				} else if (e instanceof ElementVariable) {
+					line("stack[" + top++ + "] = " + variable(((ElementVariable) e).getName()) + ".getValue();");
+				} else if (e instanceof ElementFunction) {
+					String name = ((ElementFunction) e).getName();
+					int[] arity = ARITIES.get(name);
+					if (arity == null) {
+						line("unknownFunction(" + constant(name) + ");");
+						return;
+					}
+					if (top < arity[0]) {
+						line("underflow();");
+						return;
+					}
+					line(constant(ScriptProgram.function(name)) + ".apply(stack, " + top + ", context);");
+					top += arity[1] - arity[0];
+				} else if (e instanceof ElementOperator) {
+					if (top < 2) {
+						line("underflow();");
+						return;
+					}
+					String operation = operation(((ElementOperator) e).getSymbol());
+					top--;
+					if (operation != null) {
+						line("stack[" + (top - 1) + "] = " + operation
+							+ "(stack[" + (top - 1) + "], stack[" + top + "]);");
+					}
+				}
+				maxStack = Math.max(maxStack, top);
+			}
+			
+			for (int i = 0; i < top; i++) {
+				line("context.write(stack[" + i + "].toString());");
+			}
+		}
+		
+		@Override
+		public void visitDocumentNode(DocumentNode node) {
+			for (int i = 0, last = node.numberOfChildren(); i < last; i++) {
+				node.getChild(i).accept(this);
+			}
+		}
+		
+		/**
+		 * Returns the expression which evaluates to the wrapper of the variable
+		 * with the given name. Variable of an enclosing loop is resolved to the
+		 * wrapper of that loop, while any other variable is looked up on the
+		 * multistack, which fails because it holds only the loop variables.
+		 * 
+		 * @param  name name of the variable
+		 * @return      the expression of the wrapper
+		 */
+		private String variable(String name) {
+			for (Map.Entry<String, String> loop : enclosingLoops) {
+				if (loop.getKey().equals(name)) {
+					return loop.getValue();
+				}
+			}
+			return "multistack.peek(" + slot(name) + ")";
+		}
+		
+		/**
+		 * Returns the local variable which holds the slot of the variable with
+		 * the given name on the multistack, which is resolved once at the start
+		 * of the {@code execute} method.
+		 * 
+		 * @param  name name of the variable
+		 * @return      the local variable which holds the slot
+		 */
+		private String slot(String name) {
+			Integer slot = slots.get(name);
+			if (slot == null) {
+				slot = slots.size();
+				slots.put(name, slot);
+				slotResolutions.append("\t\tint s").append(slot)
+					.append(" = multistack.slot(").append(constant(name)).append(");\n");
+			}
+			return "s" + slot;
+		}
+		
+		/**
+		 * Returns the name of the method of {@link GeneratedScript} which
+		 * implements the operator with the given symbol, or {@code null} if the
+		 * operator leaves the first operand unchanged.
+		 * 
+		 * @param  symbol symbol of the operator
+		 * @return        the name of the method
+		 */
+		private static String operation(String symbol) {
+			switch (symbol) {
+			case "+":
+				return "add";
+			case "-":
+				return "subtract";
+			case "*":
+				return "multiply";
+			case "/":
+				return "divide";
+			default:
+				return null;
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,627 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Script compiled from the parsed tree of a {@code SmartScript} document into
+ * a flat array of instructions, which is executed by a single loop instead of
+ * visiting the tree. Operators are resolved to opcodes, functions to their
+ * implementations and constants to their values when the script is compiled,
+ * and the values of echo commands are kept on a single array-based stack.
+ * Program is immutable, so it can be compiled once and executed any number of
+ * times, concurrently.
+ * <p>
+ * Executing the program has the same effect as visiting the tree. In
+ * particular, loop variable holds the text of the start expression until it
+ * is incremented for the first time, and errors are reported when the
+ * instruction which causes them is executed, after the preceding output has
+ * been written.
+ * 
+ * @author Matija Frandolić
+ */
+public class ScriptProgram implements CompiledScript {
+	
+	/**
+	 * Writes the text operand.
+	 */
+	static final int TEXT = 0;
+	
+	/**
+	 * Pushes the constant operand on the stack.
+	 */
+	static final int PUSH = 1;
+	
+	/**
+	 * Pushes the value of the variable whose name is the operand and whose slot
+	 * is the argument on the stack.
+	 */
+	static final int LOAD = 2;
+	
+	/**
+	 * Calls the function which is the operand.
+	 */
+	static final int CALL = 3;
+	
+	/**
+	 * Replaces the two values on the top of the stack with their sum.
+	 */
+	static final int ADD = 4;
+	
+	/**
+	 * Replaces the two values on the top of the stack with their difference.
+	 */
+	static final int SUBTRACT = 5;
+	
+	/**
+	 * Replaces the two values on the top of the stack with their product.
+	 */
+	static final int MULTIPLY = 6;
+	
+	/**
+	 * Replaces the two values on the top of the stack with their quotient.
+	 */
+	static final int DIVIDE = 7;
+	
+	/**
+	 * Replaces the two values on the top of the stack with the lower one, which
+	 * is what an unsupported operator does.
+	 */
+	static final int KEEP_FIRST = 8;
+	
+	/**
+	 * Writes the values on the stack, from the bottom to the top, and empties it.
+	 */
+	static final int ECHO = 9;
+	
+	/**
+	 * Pushes the loop variable of the loop which is the operand, set to the
+	 * start value.
+	 */
+	static final int LOOP_START = 10;
+	
+	/**
+	 * Jumps to the target if the loop variable of the loop which is the operand
+	 * is greater than the end value.
+	 */
+	static final int LOOP_TEST = 11;
+	
+	/**
+	 * Increments the loop variable of the loop which is the operand and jumps
+	 * to the target.
+	 */
+	static final int LOOP_NEXT = 12;
+	
+	/**
+	 * Pops the loop variable of the loop which is the operand.
+	 */
+	static final int LOOP_END = 13;
+	
+	/**
+	 * Implementations of the functions by name.
+	 */
+	private static final Map<String, ScriptFunction> FUNCTIONS = new HashMap<>();
+	
+	static {
+		FUNCTIONS.put("sin", (stack, top, context) -> {
+			double x = ((Number) stack[top - 1]).doubleValue();
+			stack[top - 1] = Math.sin(x * Math.PI / 180);
+			return top;
+		});
+		
+		FUNCTIONS.put("decfmt", (stack, top, context) -> {
+			String formatString = (String) stack[--top];
+			Object x = stack[top - 1];
+			stack[top - 1] = new DecimalFormat(formatString).format(x);
+			return top;
+		});
+		
+		FUNCTIONS.put("dup", (stack, top, context) -> {
+			stack[top] = stack[top - 1];
+			return top + 1;
+		});
+		
+		FUNCTIONS.put("swap", (stack, top, context) -> {
+			Object a = stack[top - 1];
+			stack[top - 1] = stack[top - 2];
+			stack[top - 2] = a;
+			return top;
+		});
+		
+		FUNCTIONS.put("setMimeType", (stack, top, context) -> {
+			context.setMimeType((String) stack[--top]);
+			return top;
+		});
+		
+		FUNCTIONS.put("paramGet", (stack, top, context) -> {
+			Object defaultValue = stack[--top];
+			String value = context.getParameter((String) stack[top - 1]);
+			stack[top - 1] = value == null ? defaultValue : value;
+			return top;
+		});
+		
+		FUNCTIONS.put("pparamGet", (stack, top, context) -> {
+			Object defaultValue = stack[--top];
+			String value = context.getPersistentParameter((String) stack[top - 1]);
+			stack[top - 1] = value == null ? defaultValue : value;
+			return top;
+		});
+		
+		FUNCTIONS.put("pparamSet", (stack, top, context) -> {
+			String name = (String) stack[--top];
+			Object value = stack[--top];
+			context.setPersistentParameter(name, value.toString());
+			return top;
+		});
+		
+		FUNCTIONS.put("pparamDel", (stack, top, context) -> {
+			context.removePersistentParameter((String) stack[--top]);
+			return top;
+		});
+		
+		FUNCTIONS.put("tparamGet", (stack, top, context) -> {
+			Object defaultValue = stack[--top];
+			String value = context.getTemporaryParameter((String) stack[top - 1]);
+			stack[top - 1] = value == null ? defaultValue : value;
+			return top;
+		});
+		
+		FUNCTIONS.put("tparamSet", (stack, top, context) -> {
+			String name = (String) stack[--top];
+			Object value = stack[--top];
+			context.setTemporaryParameter(name, value.toString());
+			return top;
+		});
+		
+		FUNCTIONS.put("tparamDel", (stack, top, context) -> {
+			context.removeTemporaryParameter((String) stack[--top]);
+			return top;
+		});
+	}
+	
+	/**
+	 * Opcodes of the instructions.
+	 */
+	private int[] opcodes;
+	
+	/**
+	 * Operands of the instructions, or {@code null} for instructions without one.
+	 */
+	private Object[] operands;
+	
+	/**
+	 * Integer arguments of the instructions, which are the targets of the jump
+	 * instructions and the slots of the variables which are loaded.
+	 */
+	private int[] arguments;
+	
+	/**
+	 * Names of the variables by their slots.
+	 */
+	private String[] variables;
+	
+	/**
+	 * Maximum number of values on the stack.
+	 */
+	private int maxStack;
+	
+	/**
+	 * Constructs a new {@code ScriptProgram} from the given instructions.
+	 * 
+	 * @param opcodes   opcodes of the instructions
+	 * @param operands  operands of the instructions
+	 * @param arguments integer arguments of the instructions
+	 * @param variables names of the variables by their slots
+	 * @param maxStack  maximum number of values on the stack
+	 */
+	private ScriptProgram(int[] opcodes, Object[] operands, int[] arguments, String[] variables, int maxStack) {
+		this.opcodes = opcodes;
+		this.operands = operands;
+		this.arguments = arguments;
+		this.variables = variables;
+		this.maxStack = maxStack;
+	}
+	
+	/**
+	 * Compiles the given parsed document.
+	 * 
+	 * @param  documentNode document node of the parsed document
+	 * @return              the compiled program
+	 */
+	public static ScriptProgram compile(DocumentNode documentNode) {
+		Compiler compiler = new Compiler();
+		documentNode.accept(compiler);
+		return compiler.build();
+	}
+	
+	@Override
+	public void execute(RequestContext context, ObjectMultistack multistack) throws IOException {
+		int[] opcodes = this.opcodes;
+		Object[] operands = this.operands;
+		int[] arguments = this.arguments;
+		Object[] stack = new Object[maxStack];
+		int top = 0;
+		
+		// slots of the program are resolved to the slots of the multistack once
+		int[] slots = new int[variables.length];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = multistack.slot(variables[i]);
+		}
+		
+		for (int pc = 0; pc < opcodes.length; pc++) {
+			switch (opcodes[pc]) {
+			case TEXT:
+				context.write((String) operands[pc]);
+				break;
+			case PUSH:
+				stack[top++] = operands[pc];
+				break;
+			case LOAD:
+				stack[top++] = multistack.peek(slots[arguments[pc]]).getValue();
+				break;
+			case CALL:
+				top = ((ScriptFunction) operands[pc]).apply(stack, top, context);
+				break;
+			case ADD:
+			case SUBTRACT:
+			case MULTIPLY:
+			case DIVIDE:
+			case KEEP_FIRST:
+				top--;
+				stack[top - 1] = operate(opcodes[pc], stack[top - 1], stack[top]);
+				break;
+			case ECHO:
+				for (int i = 0; i < top; i++) {
+					context.write(stack[i].toString());
+					stack[i] = null;
+				}
+				top = 0;
+				break;
+			case LOOP_START: {
+				Loop loop = (Loop) operands[pc];
+				multistack.push(slots[loop.slot], new ValueWrapper(loop.start));
+				break;
+			}
+			case LOOP_TEST: {
+				Loop loop = (Loop) operands[pc];
+				if (multistack.peek(slots[loop.slot]).numCompare(loop.end) > 0) {
+					pc = arguments[pc] - 1;
+				}
+				break;
+			}
+			case LOOP_NEXT: {
+				Loop loop = (Loop) operands[pc];
+				multistack.peek(slots[loop.slot]).add(loop.step);
+				pc = arguments[pc] - 1;
+				break;
+			}
+			case LOOP_END:
+				multistack.pop(slots[((Loop) operands[pc]).slot]);
+				break;
+			default:
+				throw new IllegalStateException("Unknown opcode: " + opcodes[pc] + ".");
+			}
+		}
+	}
+	
+	/**
+	 * Applies the operator with the given opcode to the given values.
+	 * 
+	 * @param  opcode opcode of the operator
+	 * @param  first  first operand
+	 * @param  second second operand
+	 * @return        the result
+	 */
+	static Object operate(int opcode, Object first, Object second) {
+		ValueWrapper result = new ValueWrapper(first);
+		switch (opcode) {
+		case ADD:
+			result.add(second);
+			break;
+		case SUBTRACT:
+			result.subtract(second);
+			break;
+		case MULTIPLY:
+			result.multiply(second);
+			break;
+		case DIVIDE:
+			result.divide(second);
+			break;
+		default:
+			break;
+		}
+		return result.getValue();
+	}
+	
+	/**
+	 * Returns the implementation of the function with the given name, or
+	 * {@code null} if there is no such function.
+	 * 
+	 * @param  name name of the function
+	 * @return      the implementation of the function
+	 */
+	static ScriptFunction function(String name) {
+		return FUNCTIONS.get(name);
+	}
+	
+	/**
+	 * Returns the number of instructions of this program.
+	 * 
+	 * @return the number of instructions
+	 */
+	public int size() {
+		return opcodes.length;
+	}
+	
+	/**
+	 * Model of a function that operates on the values on the top of the stack.
+	 */
+	@FunctionalInterface
+	public interface ScriptFunction {
+		
+		/**
+		 * Applies the function to the stack.
+		 * 
+		 * @param  stack   the stack
+		 * @param  top     number of values on the stack
+		 * @param  context request context of the script
+		 * @return         number of values on the stack after the function
+		 */
+		int apply(Object[] stack, int top, RequestContext context);
+		
+	}
+	
+	/**
+	 * Constant parameters of a loop.
+	 */
+	static class Loop {
+		
+		/**
+		 * Name of the loop variable.
+		 */
+		final String variable;
+		
+		/**
+		 * Slot of the loop variable.
+		 */
+		final int slot;
+		
+		/**
+		 * Start value, which is the text of the start expression.
+		 */
+		final String start;
+		
+		/**
+		 * End value.
+		 */
+		final Object end;
+		
+		/**
+		 * Step by which the loop variable is incremented.
+		 */
+		final Object step;
+		
+		/**
+		 * Constructs a new {@code Loop} from the given loop node.
+		 * 
+		 * @param node loop node
+		 * @param slot slot of the loop variable
+		 */
+		Loop(ForLoopNode node, int slot) {
+			this.slot = slot;
+			variable = node.getVariable().getName();
+			start = node.getStartExpression().asText();
+			end = decode(node.getEndExpression());
+			step = node.getStepExpression() == null ? Integer.valueOf(1) : decode(node.getStepExpression());
+		}
+		
+		/**
+		 * Decodes the value of the given loop expression. Numeric constants are
+		 * decoded into numbers equal to those which their text is parsed into
+		 * when it is used, while other expressions are left as text.
+		 * 
+		 * @param  expression loop expression
+		 * @return            the value of the expression
+		 */
+		private static Object decode(Element expression) {
+			if (expression instanceof ElementConstantInteger) {
+				return ((ElementConstantInteger) expression).getValue();
+			}
+			String text = expression.asText();
+			if (expression instanceof ElementConstantDouble && (text.contains(".") || text.contains("E"))) {
+				return ((ElementConstantDouble) expression).getValue();
+			}
+			return text;
+		}
+		
+	}
+	
+	/**
+	 * Visitor that compiles the visited nodes into instructions.
+	 */
+	private static class Compiler implements INodeVisitor {
+		
+		/**
+		 * Opcodes of the instructions.
+		 */
+		private int[] opcodes = new int[16];
+		
+		/**
+		 * Operands of the instructions.
+		 */
+		private Object[] operands = new Object[16];
+		
+		/**
+		 * Integer arguments of the instructions.
+		 */
+		private int[] arguments = new int[16];
+		
+		/**
+		 * Slots of the variables by their names.
+		 */
+		private Map<String, Integer> slots = new LinkedHashMap<>();
+		
+		/**
+		 * Number of instructions.
+		 */
+		private int size;
+		
+		/**
+		 * Maximum number of values on the stack.
+		 */
+		private int maxStack;
+		
+		/**
+		 * Appends the given instruction.
+		 * 
+		 * @param  opcode  opcode of the instruction
+		 * @param  operand operand of the instruction
+		 * @return         index of the instruction
+		 */
+		private int emit(int opcode, Object operand) {
+			if (size == opcodes.length) {
+				opcodes = Arrays.copyOf(opcodes, 2 * size);
+				operands = Arrays.copyOf(operands, 2 * size);
+				arguments = Arrays.copyOf(arguments, 2 * size);
+			}
+			opcodes[size] = opcode;
+			operands[size] = operand;
+			return size++;
+		}
+		
+		/**
+		 * Returns the program made of the appended instructions.
+		 * 
+		 * @return the compiled program
+		 */
+		public ScriptProgram build() {
+			return new ScriptProgram(
+				Arrays.copyOf(opcodes, size),
+				Arrays.copyOf(operands, size),
+				Arrays.copyOf(arguments, size),
+				slots.keySet().toArray(new String[0]),
+				maxStack
+			);
+		}
+		
+		@Override
+		public void visitTextNode(TextNode node) {
+			emit(TEXT, node.getText());
+		}
+		
+		@Override
+		public void visitForLoopNode(ForLoopNode node) {
+			Loop loop = new Loop(node, slot(node.getVariable().getName()));
+			emit(LOOP_START, loop);
+			int test = emit(LOOP_TEST, loop);
+			for (int i = 0, last = node.numberOfChildren(); i < last; i++) {
+				node.getChild(i).accept(this);
+			}
+			int next = emit(LOOP_NEXT, loop);
+			int end = emit(LOOP_END, loop);
+			arguments[next] = test;
+			arguments[test] = end;
+		}
+		
+		@Override
+		public void visitEchoNode(EchoNode node) {
+			Element[] elements = node.getElements();
+			for (Element e : elements) {
+				if (e instanceof ElementConstantDouble) {
+					emit(PUSH, ((ElementConstantDouble) e).getValue());
+				} else if (e instanceof ElementConstantInteger) {
+					emit(PUSH, ((ElementConstantInteger) e).getValue());
+				} else if (e instanceof ElementString) {
+					emit(PUSH, ((ElementString) e).getValue());
+				} else if (e instanceof ElementVariable) {
+					String name = ((ElementVariable) e).getName();
+					int load = emit(LOAD, name);
+					arguments[load] = slot(name);
+				} else if (e instanceof ElementFunction) {
+					emit(CALL, compileFunction(((ElementFunction) e).getName()));
+				} else if (e instanceof ElementOperator) {
+					emit(compileOperator(((ElementOperator) e).getSymbol()), null);
+				}
+			}
+			emit(ECHO, null);
+			// every element pushes at most one value
+			maxStack = Math.max(maxStack, elements.length);
+		}
+		
+		@Override
+		public void visitDocumentNode(DocumentNode node) {
+			for (int i = 0, last = node.numberOfChildren(); i < last; i++) {
+				node.getChild(i).accept(this);
+			}
+		}
+		
+		/**
+		 * Returns the slot of the variable with the given name, assigning the
+		 * next slot to the variable if it has none.
+		 * 
+		 * @param  name name of the variable
+		 * @return      the slot of the variable
+		 */
+		private int slot(String name) {
+			return slots.computeIfAbsent(name, n -> slots.size());
+		}
+		
+		/**
+		 * Returns the implementation of the function with the given name.
+		 * Unknown function is compiled into one which fails when it is called.
+		 * 
+		 * @param  name name of the function
+		 * @return      the implementation of the function
+		 */
+		private static ScriptFunction compileFunction(String name) {
+			ScriptFunction function = FUNCTIONS.get(name);
+			if (function != null) {
+				return function;
+			}
+			return (stack, top, context) -> {
+				throw new RuntimeException("Unknown function: " + name + ".");
+			};
+		}
+		
+		/**
+		 * Returns the opcode of the given operator.
+		 * 
+		 * @param  symbol symbol of the operator
+		 * @return        the opcode of the operator
+		 */
+		private static int compileOperator(String symbol) {
+			switch (symbol) {
+			case "+":
+				return ADD;
+			case "-":
+				return SUBTRACT;
+			case "*":
+				return MULTIPLY;
+			case "/":
+				return DIVIDE;
+			default:
+				return KEEP_FIRST;
+			}
+		}
+		
+	}
+	
+}
@@ -1,7 +1,5 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BiFunction;
-
 /**
  * Wrapper class for value that is represented by any {@code Object}. Usage of 
  * provided arithmetic and comparison methods is allowed only if the stored value
@@ -9,16 +7,99 @@ import java.util.function.BiFunction;
  * {@link Double} or {@link String} class. If {@code String} is used, it
  * must be parsable to either {@code Integer} or {@code Double}. If either of the 
  * values is {@code null}, it is treated as an integer with value of zero.
+ * <p>
+ * Numeric value is kept as a primitive {@code int} or {@code double}, so
+ * arithmetic operations and comparisons do not box it, and it is boxed only
+ * when it is requested by {@link #getValue()}. Stored string is parsed once,
+ * and so is the last given operand, so the same string (such as the end value
+ * of a loop) is not parsed again on every call.
  * 
  * @author Matija Frandolić
  */
 public class ValueWrapper {
 	
 	/**
-	 * Value that is wrapped.
+	 * Kind of a value whose numeric value is not known yet.
+	 */
+	private static final int UNKNOWN = 0;
+	
+	/**
+	 * Kind of a value whose numeric value is an integer.
+	 */
+	private static final int INTEGER = 1;
+	
+	/**
+	 * Kind of a value whose numeric value is a double.
+	 */
+	private static final int DOUBLE = 2;
+	
+	/**
+	 * Addition.
+	 */
+	private static final int ADD = 0;
+	
+	/**
+	 * Subtraction.
+	 */
+	private static final int SUBTRACT = 1;
+	
+	/**
+	 * Multiplication.
+	 */
+	private static final int MULTIPLY = 2;
+	
+	/**
+	 * Division.
+	 */
+	private static final int DIVIDE = 3;
+	
+	/**
+	 * Value that is wrapped, valid only if it is boxed.
 	 */
 	private Object value;
 	
+	/**
+	 * Flag indicating whether the wrapped value is kept in {@link #value}, or
+	 * only as a primitive.
+	 */
+	private boolean boxed = true;
+	
+	/**
+	 * Kind of the numeric value of the wrapped value.
+	 */
+	private int kind;
+	
+	/**
+	 * Numeric value of the wrapped value if it is an integer.
+	 */
+	private int intValue;
+	
+	/**
+	 * Numeric value of the wrapped value if it is a double.
+	 */
+	private double doubleValue;
+	
+	/**
+	 * Last operand whose numeric value was resolved.
+	 */
+	private Object operand;
+	
+	/**
+	 * Kind of the numeric value of the last operand, or {@link #UNKNOWN} if
+	 * there is no such operand.
+	 */
+	private int operandKind;
+	
+	/**
+	 * Numeric value of the last operand if it is an integer.
+	 */
+	private int operandInt;
+	
+	/**
+	 * Numeric value of the last operand if it is a double.
+	 */
+	private double operandDouble;
+	
 	/**
 	 * Constructs a new {@code ValueWrapper} from the given object.
 	 * 
@@ -34,6 +115,14 @@ public class ValueWrapper {
 	 * @return the value that was wrapped by this wrapper
 	 */
 	public Object getValue() {
+		if (!boxed) {
+			if (kind == INTEGER) {
+				value = Integer.valueOf(intValue);
+			} else {
+				value = Double.valueOf(doubleValue);
+			}
+			boxed = true;
+		}
 		return value;
 	}
 	
@@ -44,6 +133,8 @@ public class ValueWrapper {
 	 */
 	public void setValue(Object value) {
 		this.value = value;
+		boxed = true;
+		kind = UNKNOWN;
 	}
 
 	/**
@@ -57,7 +148,7 @@ public class ValueWrapper {
 	 * @param incValue value that is added to the value kept by this wrapper
 	 */
 	public void add(Object incValue) {
-		value = performOperation(value, incValue, (a, b) -> a + b);
+		perform(ADD, incValue);
 	}
 	
 	/**
@@ -71,7 +162,7 @@ public class ValueWrapper {
 	 * @param decValue value that is subtracted from the value kept by this wrapper
 	 */
 	public void subtract(Object decValue) {
-		value = performOperation(value, decValue, (a, b) -> a - b);
+		perform(SUBTRACT, decValue);
 	}
 	
 	/**
@@ -85,7 +176,7 @@ public class ValueWrapper {
 	 * @param mulValue value that is multiplied with the value kept by this wrapper
 	 */
 	public void multiply(Object mulValue) {
-		value = performOperation(value, mulValue, (a, b) -> a * b);
+		perform(MULTIPLY, mulValue);
 	}
 	
 	/**
@@ -99,7 +190,7 @@ public class ValueWrapper {
 	 * @param divValue value that is used to divide the value kept by this wrapper
 	 */
 	public void divide(Object divValue) {
-		value = performOperation(value, divValue, (a, b) -> a / b);
+		perform(DIVIDE, divValue);
 	}
 	
 	/**
@@ -113,78 +204,212 @@ public class ValueWrapper {
 	 * or {@code Double}. If either of the values is {@code null}, it is treated 
 	 * as an integer with value of zero.
 	 * 
-	 * @param divValue value that is used to divide the value kept by this wrapper
+	 * @param  withValue value that is compared with the value kept by this wrapper
+	 * @return           the result of the comparison
 	 */
 	public int numCompare(Object withValue) {
-		return performOperation(value, withValue, Double::compare).intValue();
+		resolve(withValue);
+		if (kind == INTEGER && operandKind == INTEGER) {
+			return Integer.compare(intValue, operandInt);
+		}
+		return Double.compare(doubleValue(), operandDoubleValue());
 	}
 	
 	/**
-	 * Performs numeric operation defined by the given function on the given 
-	 * arguments and returns {@link Integer} if both arguments were {@code Integer}s,
-	 * or {@link Double} if either one of the argument was {@code Double}. Instances
-	 * of {@link String} class are also allowed, in which case they must be parsable
-	 * into either {@code Integer} or {@code Double}. If either of the given values
-	 * is {@code null}, it is treated as an integer with value of zero.
+	 * Performs the given numeric operation on the wrapped value and the given
+	 * value, storing the result. Result is an integer if both values are
+	 * integers, or a double if either one of them is a double. Integer result
+	 * is the result of the operation on doubles converted to an integer, so it
+	 * saturates on overflow, and division by zero results in
+	 * {@link Integer#MAX_VALUE}, {@link Integer#MIN_VALUE} or zero.
 	 * 
-	 * @param value      value that is used to perform numeric operation
-	 * @param otherValue other value that is used to perform numeric operation
-	 * @param function   numeric operation to be performed on the given values
-	 * @return           result of the operation
+	 * @param  operation  numeric operation to be performed
+	 * @param  otherValue other value that is used to perform numeric operation
 	 * @throws RuntimeException if either of the given values is not an instance of 
 	 *                          allowed classes or if the given string is not parsable
 	 *                          to a number
 	 */
-	private static Number performOperation(Object value, Object otherValue, 
-			BiFunction<Double, Double, Number> function) {
-		
-		Number firstOperand = toNumber(value);
-		Number secondOperand = toNumber(otherValue);
-		Number result = function.apply(firstOperand.doubleValue(), secondOperand.doubleValue());
+	private void perform(int operation, Object otherValue) {
+		resolve(otherValue);
 		
-		if (firstOperand instanceof Integer && secondOperand instanceof Integer) {
-			return result.intValue();
+		if (kind == INTEGER && operandKind == INTEGER) {
+			intValue = integerOperation(operation, intValue, operandInt);
 		} else {
-			return result.doubleValue();
+			doubleValue = doubleOperation(operation, doubleValue(), operandDoubleValue());
+			kind = DOUBLE;
 		}
+		boxed = false;
 	}
 	
 	/**
-	 * Tries to parse the given object into a number. The given object must be 
-	 * {@code null} or an instance of {@link Integer}, {@link Double} or {@link String} 
-	 * class. If {@code String} is used, it must be parsable to either {@code Integer} 
-	 * or {@code Double}. If the value is {@code null}, it is treated 
-	 * as an integer with value of zero.
+	 * Resolves the numeric values of the wrapped value and of the given
+	 * operand. Numeric value of the wrapped value is kept until the value
+	 * changes, and the numeric value of the operand until a different operand
+	 * is given.
 	 * 
-	 * @param  value object that needs to be parsed to a number
-	 * @return       resulting number
+	 * @param  otherValue operand
 	 * @throws RuntimeException if either of the given values is not an instance of 
 	 *                          allowed classes or if the given string is not parsable
 	 *                          to a number
 	 */
-	private static Number toNumber(Object value) {
+	private void resolve(Object otherValue) {
+		if (kind == UNKNOWN) {
+			Object wrapped = value;
+			if (wrapped instanceof Double) {
+				doubleValue = (Double) wrapped;
+				kind = DOUBLE;
+			} else if (isDouble(wrapped)) {
+				doubleValue = parseDouble((String) wrapped);
+				kind = DOUBLE;
+			} else {
+				intValue = toInt(wrapped);
+				kind = INTEGER;
+			}
+		}
+		
+		if (operandKind == UNKNOWN || operand != otherValue) {
+			operandKind = UNKNOWN;
+			if (otherValue instanceof Double) {
+				operandDouble = (Double) otherValue;
+				operandKind = DOUBLE;
+			} else if (isDouble(otherValue)) {
+				operandDouble = parseDouble((String) otherValue);
+				operandKind = DOUBLE;
+			} else {
+				operandInt = toInt(otherValue);
+				operandKind = INTEGER;
+			}
+			operand = otherValue;
+		}
+	}
+	
+	/**
+	 * Returns the numeric value of the wrapped value as a double.
+	 * 
+	 * @return the numeric value of the wrapped value
+	 */
+	private double doubleValue() {
+		return kind == INTEGER ? intValue : doubleValue;
+	}
+	
+	/**
+	 * Returns the numeric value of the last operand as a double.
+	 * 
+	 * @return the numeric value of the last operand
+	 */
+	private double operandDoubleValue() {
+		return operandKind == INTEGER ? operandInt : operandDouble;
+	}
+	
+	/**
+	 * Performs the given numeric operation on the given integers. Result is
+	 * equal to the result of the operation on doubles converted to an integer.
+	 * 
+	 * @param  operation numeric operation to be performed
+	 * @param  a         first operand
+	 * @param  b         second operand
+	 * @return           result of the operation
+	 */
+	private static int integerOperation(int operation, int a, int b) {
+		long result;
+		switch (operation) {
+		case ADD:
+			result = (long) a + b;
+			break;
+		case SUBTRACT:
+			result = (long) a - b;
+			break;
+		case MULTIPLY:
+			result = (long) a * b;
+			break;
+		default:
+			if (b == 0) {
+				return a > 0 ? Integer.MAX_VALUE : a < 0 ? Integer.MIN_VALUE : 0;
+			}
+			result = (long) a / b;
+			break;
+		}
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, result));
+	}
+	
+	/**
+	 * Performs the given numeric operation on the given doubles.
+	 * 
+	 * @param  operation numeric operation to be performed
+	 * @param  a         first operand
+	 * @param  b         second operand
+	 * @return           result of the operation
+	 */
+	private static double doubleOperation(int operation, double a, double b) {
+		switch (operation) {
+		case ADD:
+			return a + b;
+		case SUBTRACT:
+			return a - b;
+		case MULTIPLY:
+			return a * b;
+		default:
+			return a / b;
+		}
+	}
+	
+	/**
+	 * Checks whether the given object is a string which represents a double,
+	 * that is, whether it contains a decimal point or an exponent.
+	 * 
+	 * @param  value object to check
+	 * @return       {@code true} if the object is a string which represents a
+	 *               double, {@code false} otherwise
+	 */
+	private static boolean isDouble(Object value) {
+		if (!(value instanceof String)) {
+			return false;
+		}
+		String stringValue = (String) value;
+		return stringValue.indexOf('.') >= 0 || stringValue.indexOf('E') >= 0;
+	}
+	
+	/**
+	 * Parses the given string into a double.
+	 * 
+	 * @param  value string to parse
+	 * @return       the parsed double
+	 * @throws RuntimeException if the given string is not parsable to a number
+	 */
+	private static double parseDouble(String value) {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("String is not parsable to number.");
+		}
+	}
+	
+	/**
+	 * Returns the numeric value of the given object which is not a double. The
+	 * given object must be {@code null} or an instance of {@link Integer} or
+	 * {@link String} class, in which case it must be parsable to an integer. If
+	 * the value is {@code null}, it is treated as an integer with value of zero.
+	 * 
+	 * @param  value object that needs to be parsed to an integer
+	 * @return       resulting integer
+	 * @throws RuntimeException if the given value is not an instance of allowed
+	 *                          classes or if the given string is not parsable
+	 *                          to a number
+	 */
+	private static int toInt(Object value) {
 		if (value == null) {
-			return Integer.valueOf(0);
-		} else if (value instanceof Double || value instanceof Integer) {
-			return (Number) value;
+			return 0;
+		} else if (value instanceof Integer) {
+			return (Integer) value;
 		} else if (value instanceof String) {
-			String stringValue = (String) value;
-			if (stringValue.contains(".") || stringValue.contains("E")) {
-				try {
-					return Double.parseDouble(stringValue);					
-				} catch (NumberFormatException e) {
-					throw new RuntimeException("String is not parsable to number.");
-				}
-			} else {
-				try {
-					return Integer.parseInt(stringValue);				
-				} catch (NumberFormatException e) {
-					throw new RuntimeException("String is not parsable to number.");
-				}
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("String is not parsable to number.");
 			}
 		} else {
 			throw new RuntimeException("Value must be null or an instance of "
-			                         + "Integer, Double or String class.");			
+			                         + "Integer, Double or String class.");
 		}
 	}
 	
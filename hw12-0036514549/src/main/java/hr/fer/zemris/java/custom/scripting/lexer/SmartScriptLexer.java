@@ -1,5 +1,9 @@
 package hr.fer.zemris.java.custom.scripting.lexer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.Objects;
 
 /**
@@ -7,15 +11,39 @@ import java.util.Objects;
  * tokens depending on state it is currently in. Allowed states are defined
  * by {@link SmartScriptLexerState}. Tokens are instances of {@link SmartScriptToken}
  * and token types are defined by {@link SmartScriptTokenType}.
+ * <p>
+ * Input is read from a {@link Reader} through a buffer of a fixed size, so
+ * the whole document is never held in memory by the lexer, and text between
+ * the tags is scanned and copied in bulk.
  * 
  * @author Matija Frandolić
  */
 public class SmartScriptLexer {
 	
 	/**
-	 * Input characters.
+	 * Default size of the input buffer.
 	 */
-	private char[] data;
+	private static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Reader from which the input is read.
+	 */
+	private Reader reader;
+	
+	/**
+	 * Buffer of the input characters.
+	 */
+	private char[] buffer;
+	
+	/**
+	 * Number of valid characters in the buffer.
+	 */
+	private int limit;
+	
+	/**
+	 * Flag indicating whether the end of the input has been reached.
+	 */
+	private boolean endOfInput;
 	
 	/**
 	 * Current token.
@@ -23,7 +51,7 @@ public class SmartScriptLexer {
 	private SmartScriptToken token;
 	
 	/**
-	 * Current index of character array.
+	 * Index of the current character in the buffer.
 	 */
 	private int currentIndex;
 	
@@ -39,8 +67,33 @@ public class SmartScriptLexer {
 	 * @param text input text to be tokenized by this lexer
 	 */
 	public SmartScriptLexer(String text) {
-		Objects.requireNonNull(text, "Input text cannot be null.");
-		data = text.toCharArray();
+		this(
+			new StringReader(Objects.requireNonNull(text, "Input text cannot be null.")),
+			Math.max(2, Math.min(text.length(), BUFFER_SIZE))
+		);
+	}
+	
+	/**
+	 * Constructs a new {@code SmartScriptLexer} object which reads the input
+	 * text from the given reader. I/O errors of the reader are thrown by
+	 * {@link #nextToken()} as {@link UncheckedIOException}s.
+	 * 
+	 * @param reader reader of the input text to be tokenized by this lexer
+	 */
+	public SmartScriptLexer(Reader reader) {
+		this(Objects.requireNonNull(reader, "Input reader cannot be null."), BUFFER_SIZE);
+	}
+	
+	/**
+	 * Constructs a new {@code SmartScriptLexer} object which reads the input
+	 * text from the given reader through a buffer of the given size.
+	 * 
+	 * @param reader     reader of the input text
+	 * @param bufferSize size of the buffer, at least 2
+	 */
+	private SmartScriptLexer(Reader reader, int bufferSize) {
+		this.reader = reader;
+		buffer = new char[bufferSize];
 		token = null;
 		currentIndex = 0;
 		state = SmartScriptLexerState.TEXT;
@@ -70,13 +123,14 @@ public class SmartScriptLexer {
 	 * 
 	 * @return the next token from the input of this lexer
 	 * @throws SmartScriptLexerException if a lexing error occurs
+	 * @throws UncheckedIOException if the input cannot be read
 	 */
 	public SmartScriptToken nextToken() {
 		if (token != null && token.getType() == SmartScriptTokenType.EOF) {
 			throw new SmartScriptLexerException("No more tokens.");
 		}
 		
-		if (currentIndex >= data.length) {
+		if (!isAvailable(1)) {
 			token = new SmartScriptToken(SmartScriptTokenType.EOF, null);
 			return token;
 		}
@@ -95,7 +149,8 @@ public class SmartScriptLexer {
 	 * this mode contains text from the previous closing tag to the next
 	 * opening tag. Only text tokens and opening tag tokens are generated in
 	 * this mode. Following escape sequences are allowed: "\\\\" (interpreted
-	 * as "\\") and "\\{" (interpreted as "{"). 
+	 * as "\\") and "\\{" (interpreted as "{"). Text is scanned for the next
+	 * special character and the characters before it are copied at once.
 	 * 
 	 * @throws SmartScriptLexerException if a lexing error occurs
 	 */
@@ -108,28 +163,42 @@ public class SmartScriptLexer {
 		
 		StringBuilder sb = new StringBuilder();
 		
-		while (currentIndex < data.length && !isOpeningTag()) {
-			if (data[currentIndex] == '\\') {
-				if (currentIndex >= data.length - 1) {
-					throw new SmartScriptLexerException("Invalid escape sequence in text.");
-				}
-				
-				switch (data[currentIndex + 1]) {
-				case '\\':
-					sb.append("\\");
-					break;
-				case '{':
-					sb.append("{");
+		while (isAvailable(1)) {
+			int start = currentIndex;
+			while (currentIndex < limit && buffer[currentIndex] != '{' && buffer[currentIndex] != '\\') {
+				currentIndex++;
+			}
+			sb.append(buffer, start, currentIndex - start);
+			
+			if (currentIndex == limit) {
+				continue;
+			}
+			
+			if (buffer[currentIndex] == '{') {
+				if (isOpeningTag()) {
 					break;
-				default:
-					throw new SmartScriptLexerException("Invalid escape sequence in text.");
 				}
-				
-				currentIndex += 2;
+				sb.append('{');
+				currentIndex++;
 				continue;
 			}
 			
-			sb.append(data[currentIndex++]);
+			if (!isAvailable(2)) {
+				throw new SmartScriptLexerException("Invalid escape sequence in text.");
+			}
+			
+			switch (buffer[currentIndex + 1]) {
+			case '\\':
+				sb.append("\\");
+				break;
+			case '{':
+				sb.append("{");
+				break;
+			default:
+				throw new SmartScriptLexerException("Invalid escape sequence in text.");
+			}
+			
+			currentIndex += 2;
 		}
 		
 		token = new SmartScriptToken(SmartScriptTokenType.TEXT, sb.toString());
@@ -146,7 +215,7 @@ public class SmartScriptLexer {
 	private void tokenizeByTagRules() {
 		skipWhiteSpace();
 		
-		if (currentIndex >= data.length) {
+		if (!isAvailable(1)) {
 			token = new SmartScriptToken(SmartScriptTokenType.EOF, null);
 			return;
 		}
@@ -158,28 +227,28 @@ public class SmartScriptLexer {
 		}
 		
 		if (token != null && token.getType() == SmartScriptTokenType.TAG_OPEN) {
-			if (data[currentIndex] == '=') {
+			if (buffer[currentIndex] == '=') {
 				token = new SmartScriptToken(SmartScriptTokenType.TAG_NAME, "=");
 				currentIndex++;
 				return;
 			}
 			
-			if (Character.isLetter(data[currentIndex])) {
+			if (Character.isLetter(buffer[currentIndex])) {
 				String tagName = extractVariableName();
 				token = new SmartScriptToken(SmartScriptTokenType.TAG_NAME, tagName.toLowerCase());
 				return;
 			}
 		}
 		
-		if (Character.isLetter(data[currentIndex])) {
+		if (Character.isLetter(buffer[currentIndex])) {
 			String variableName = extractVariableName();
 			token = new SmartScriptToken(SmartScriptTokenType.VARIABLE, variableName);
 			return;
 		}
 		
-		if (currentIndex < data.length - 1 &&
-		    data[currentIndex] == '@' &&
-			Character.isLetter(data[currentIndex + 1])) {
+		if (isAvailable(2) &&
+		    buffer[currentIndex] == '@' &&
+			Character.isLetter(buffer[currentIndex + 1])) {
 			
 			currentIndex++;
 			String functionName = extractVariableName();
@@ -187,24 +256,24 @@ public class SmartScriptLexer {
 			return;
 		}
 		
-		if (data[currentIndex] == '"') {
+		if (buffer[currentIndex] == '"') {
 			currentIndex++;
 			String stringName = extractString();
 			token = new SmartScriptToken(SmartScriptTokenType.STRING, stringName);
 			return;
 		}
 		
-		if (data[currentIndex] == '+' ||
-			data[currentIndex] == '*' ||
-			data[currentIndex] == '/' ||
-			data[currentIndex] == '^') {
+		if (buffer[currentIndex] == '+' ||
+			buffer[currentIndex] == '*' ||
+			buffer[currentIndex] == '/' ||
+			buffer[currentIndex] == '^') {
 			
-			token = new SmartScriptToken(SmartScriptTokenType.OPERATOR, Character.toString(data[currentIndex++]));
+			token = new SmartScriptToken(SmartScriptTokenType.OPERATOR, Character.toString(buffer[currentIndex++]));
 			return;
 		}
 		
-		if (data[currentIndex] == '-') {
-			if (currentIndex < data.length - 1 && Character.isDigit(data[currentIndex + 1])) {
+		if (buffer[currentIndex] == '-') {
+			if (isAvailable(2) && Character.isDigit(buffer[currentIndex + 1])) {
 				tokenizeNumber();
 			} else {
 				token = new SmartScriptToken(SmartScriptTokenType.OPERATOR, "-");
@@ -213,7 +282,7 @@ public class SmartScriptLexer {
 			return;
 		}
 		
-		if (Character.isDigit(data[currentIndex])) {
+		if (Character.isDigit(buffer[currentIndex])) {
 			tokenizeNumber();
 			return;
 		}
@@ -228,9 +297,9 @@ public class SmartScriptLexer {
 	 * @return {@code true} if the next token is the opening tag
 	 */
 	private boolean isOpeningTag() {
-		if (currentIndex < data.length - 1 &&
-			data[currentIndex] == '{' &&
-			data[currentIndex + 1] == '$') {
+		if (isAvailable(2) &&
+			buffer[currentIndex] == '{' &&
+			buffer[currentIndex + 1] == '$') {
 			return true;
 		}
 		return false;
@@ -243,9 +312,9 @@ public class SmartScriptLexer {
 	 * @return {@code true} if the next token is the closing tag
 	 */
 	private boolean isClosingTag() {
-		if (currentIndex < data.length - 1 &&
-			data[currentIndex] == '$' &&
-			data[currentIndex + 1] == '}') {
+		if (isAvailable(2) &&
+			buffer[currentIndex] == '$' &&
+			buffer[currentIndex + 1] == '}') {
 			return true;
 		}
 		return false;
@@ -256,11 +325,11 @@ public class SmartScriptLexer {
 	 * characters are: '\r', '\n', '\t' and ' '.
 	 */
 	private void skipWhiteSpace() {
-		while (currentIndex < data.length &&
-			  (data[currentIndex] == '\r' || 
-			   data[currentIndex] == '\n' || 
-			   data[currentIndex] == '\t' ||
-			   data[currentIndex] == ' ')) {
+		while (isAvailable(1) &&
+			  (buffer[currentIndex] == '\r' || 
+			   buffer[currentIndex] == '\n' || 
+			   buffer[currentIndex] == '\t' ||
+			   buffer[currentIndex] == ' ')) {
 			currentIndex++;
 		}
 	}
@@ -276,12 +345,12 @@ public class SmartScriptLexer {
 	private String extractVariableName() {
 		StringBuilder sb = new StringBuilder();
 		
-		while (currentIndex < data.length &&
-			  (Character.isLetter(data[currentIndex]) ||
-			   Character.isDigit(data[currentIndex]) ||
-			   data[currentIndex] == '_')) {
+		while (isAvailable(1) &&
+			  (Character.isLetter(buffer[currentIndex]) ||
+			   Character.isDigit(buffer[currentIndex]) ||
+			   buffer[currentIndex] == '_')) {
 			
-			sb.append(data[currentIndex++]);
+			sb.append(buffer[currentIndex++]);
 		}
 		
 		return sb.toString();
@@ -301,13 +370,13 @@ public class SmartScriptLexer {
 	private String extractString() {
 		StringBuilder sb = new StringBuilder();
 		
-		while (currentIndex < data.length && data[currentIndex] != '"') {
-			if (data[currentIndex] == '\\') {
-				if (currentIndex >= data.length - 1) {
+		while (isAvailable(1) && buffer[currentIndex] != '"') {
+			if (buffer[currentIndex] == '\\') {
+				if (!isAvailable(2)) {
 					throw new SmartScriptLexerException("Invalid escape sequence in string.");
 				}
 				
-				switch (data[currentIndex + 1]) {
+				switch (buffer[currentIndex + 1]) {
 				case '\\':
 					sb.append("\\");
 					break;
@@ -331,10 +400,12 @@ public class SmartScriptLexer {
 				continue;
 			}
 			
-			sb.append(data[currentIndex++]);
+			sb.append(buffer[currentIndex++]);
 		}
 		
-		currentIndex++;
+		if (isAvailable(1)) {
+			currentIndex++;
+		}
 		return sb.toString();
 	}
 	
@@ -349,21 +420,21 @@ public class SmartScriptLexer {
 		boolean isInteger = true;
 		StringBuilder sb = new StringBuilder();
 		
-		if (data[currentIndex] == '-') {
+		if (buffer[currentIndex] == '-') {
 			sb.append("-");
 			currentIndex++;
 		}
 		
-		while (currentIndex < data.length && Character.isDigit(data[currentIndex])) {
-			sb.append(data[currentIndex++]);
+		while (isAvailable(1) && Character.isDigit(buffer[currentIndex])) {
+			sb.append(buffer[currentIndex++]);
 		}
 		
-		if (currentIndex < data.length && data[currentIndex] == '.') {
+		if (isAvailable(1) && buffer[currentIndex] == '.') {
 			isInteger = false;
-			sb.append(data[currentIndex++]);
+			sb.append(buffer[currentIndex++]);
 			
-			while (currentIndex < data.length && Character.isDigit(data[currentIndex])) {
-				sb.append(data[currentIndex++]);
+			while (isAvailable(1) && Character.isDigit(buffer[currentIndex])) {
+				sb.append(buffer[currentIndex++]);
 			}
 		}	
 		
@@ -384,4 +455,43 @@ public class SmartScriptLexer {
 		}
 	}
 	
+	
+	/**
+	 * Checks whether at least the given number of characters, starting with
+	 * the current one, is available in the buffer. If there are fewer, the
+	 * remaining characters are moved to the start of the buffer and the rest
+	 * of it is filled from the reader.
+	 * 
+	 * @param  count number of characters, at most the size of the buffer
+	 * @return       {@code true} if the characters are available, {@code false}
+	 *               if the input ends before them
+	 * @throws UncheckedIOException if the input cannot be read
+	 */
+	private boolean isAvailable(int count) {
+		if (limit - currentIndex >= count) {
+			return true;
+		}
+		if (endOfInput) {
+			return false;
+		}
+		
+		System.arraycopy(buffer, currentIndex, buffer, 0, limit - currentIndex);
+		limit -= currentIndex;
+		currentIndex = 0;
+		
+		try {
+			while (limit < count) {
+				int read = reader.read(buffer, limit, buffer.length - limit);
+				if (read < 0) {
+					endOfInput = true;
+					return false;
+				}
+				limit += read;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+	
 }
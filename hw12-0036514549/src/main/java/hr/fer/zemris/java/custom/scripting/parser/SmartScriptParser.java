@@ -1,5 +1,7 @@
 package hr.fer.zemris.java.custom.scripting.parser;
 
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 
 import hr.fer.zemris.java.custom.collections.ObjectStack;
@@ -26,6 +28,10 @@ import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
  * by "{$" and "$}". Allowed tags are: for-tag, echo-tag and end-tag. For-tag
  * can have children text and tags. Echo-tag and end-tag cannot have children
  * text or tags. Each for-tag must have a corresponding end-tag.
+ * <p>
+ * Document can also be read from a {@link Reader}, in which case the document
+ * model is built as the tokens are read, without holding the whole document
+ * text in memory.
  * 
  * @author Matija Frandolić
  */
@@ -48,7 +54,30 @@ public class SmartScriptParser {
 	 * @throws SmartScriptParserException if a parsing error occurs
 	 */
 	public SmartScriptParser(String text) {
-		lexer = new SmartScriptLexer(text);
+		this(new SmartScriptLexer(text));
+	}
+	
+	/**
+	 * Construct a new {@code SmartScriptParser} which parses the text read
+	 * from the given reader. Reader is not closed.
+	 * 
+	 * @param  reader reader of the text to parse
+	 * @throws SmartScriptParserException if a parsing error occurs
+	 * @throws UncheckedIOException if the text cannot be read
+	 */
+	public SmartScriptParser(Reader reader) {
+		this(new SmartScriptLexer(reader));
+	}
+	
+	/**
+	 * Construct a new {@code SmartScriptParser} which parses the tokens of the
+	 * given lexer.
+	 * 
+	 * @param  lexer lexer of the text to parse
+	 * @throws SmartScriptParserException if a parsing error occurs
+	 */
+	private SmartScriptParser(SmartScriptLexer lexer) {
+		this.lexer = lexer;
 		try {
 			documentNode = parse();			
 		} catch (SmartScriptLexerException ex) {
@@ -0,0 +1,172 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Model of a range of bytes of a resource, as requested by the {@code Range}
+ * header. Both bounds of the range are inclusive.
+ * 
+ * @author Matija Frandolić
+ */
+public class ByteRange {
+	
+	/**
+	 * Position of the first byte of the range.
+	 */
+	private long start;
+	
+	/**
+	 * Position of the last byte of the range.
+	 */
+	private long end;
+	
+	/**
+	 * Constructs a new {@code ByteRange} with the given bounds.
+	 * 
+	 * @param  start position of the first byte of the range
+	 * @param  end   position of the last byte of the range
+	 * @throws IllegalArgumentException if the bounds do not form a valid range
+	 */
+	public ByteRange(long start, long end) {
+		if (start < 0 || end < start) {
+			throw new IllegalArgumentException("Invalid range: " + start + "-" + end + ".");
+		}
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * Returns the position of the first byte of the range.
+	 * 
+	 * @return the position of the first byte of the range
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * Returns the position of the last byte of the range.
+	 * 
+	 * @return the position of the last byte of the range
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Returns the number of bytes in the range.
+	 * 
+	 * @return the number of bytes in the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+	
+	/**
+	 * Returns the value of the {@code Content-Range} header for this range of
+	 * a resource of the given length.
+	 * 
+	 * @param  totalLength length of the resource
+	 * @return             the value of the {@code Content-Range} header
+	 */
+	public String toContentRange(long totalLength) {
+		return "bytes " + start + "-" + end + "/" + totalLength;
+	}
+	
+	/**
+	 * Parses the value of the {@code Range} header for a resource of the given
+	 * length. Ranges that cannot be satisfied are left out, ranges that overlap
+	 * or are adjacent are merged, and the result is sorted by position.
+	 * <p>
+	 * Returns {@code null} if the value is not a valid byte range specification
+	 * or it specifies more than the given number of ranges, in which case the
+	 * header should be ignored. Returns an empty list if none of the ranges can
+	 * be satisfied.
+	 * 
+	 * @param  value       value of the {@code Range} header
+	 * @param  totalLength length of the resource
+	 * @param  maxRanges   maximum number of ranges
+	 * @return             satisfiable ranges, or {@code null} if the header
+	 *                     should be ignored
+	 */
+	public static List<ByteRange> parse(String value, long totalLength, int maxRanges) {
+		value = value.trim();
+		if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		
+		String[] specs = value.substring(6).split(",");
+		if (specs.length > maxRanges) {
+			return null;
+		}
+		
+		List<ByteRange> ranges = new ArrayList<>();
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			
+			long first;
+			long last;
+			try {
+				if (dash == 0) {
+					long suffixLength = parseNumber(spec.substring(1));
+					if (suffixLength == 0) {
+						continue;
+					}
+					first = Math.max(0, totalLength - suffixLength);
+					last = totalLength - 1;
+				} else if (dash == spec.length() - 1) {
+					first = parseNumber(spec.substring(0, dash));
+					last = totalLength - 1;
+				} else {
+					first = parseNumber(spec.substring(0, dash));
+					last = parseNumber(spec.substring(dash + 1));
+					if (last < first) {
+						return null;
+					}
+					last = Math.min(last, totalLength - 1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			
+			if (first < totalLength) {
+				ranges.add(new ByteRange(first, last));
+			}
+		}
+		
+		ranges.sort(Comparator.comparingLong(ByteRange::getStart));
+		List<ByteRange> merged = new ArrayList<>();
+		for (ByteRange range : ranges) {
+			ByteRange previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (previous != null && range.start <= previous.end + 1) {
+				previous.end = Math.max(previous.end, range.end);
+			} else {
+				merged.add(new ByteRange(range.start, range.end));
+			}
+		}
+		return merged;
+	}
+	
+	/**
+	 * Parses the given non-negative decimal number.
+	 * 
+	 * @param  s string that represents the number
+	 * @return   the parsed number
+	 * @throws NumberFormatException if the string does not consist only of digits
+	 *                               or the number is too large
+	 */
+	private static long parseNumber(String s) {
+		s = s.trim();
+		if (s.isEmpty() || !Character.isDigit(s.charAt(0))) {
+			throw new NumberFormatException(s);
+		}
+		return Long.parseLong(s);
+	}
+	
+}
@@ -0,0 +1,178 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Implementation of {@link OutputStream} that encodes the bytes written to it
+ * using chunked transfer encoding. Bytes are collected in a buffer of fixed
+ * size, which is written as a single chunk once it is full or the stream is
+ * flushed, so the memory used does not depend on the length of the content.
+ * Larger arrays are written as chunks of their own without being copied.
+ * <p>
+ * Underlying stream is not closed by this stream. Last chunk is written by
+ * {@link #finish()}, after which nothing can be written.
+ * 
+ * @author Matija Frandolić
+ */
+class ChunkedOutputStream extends OutputStream {
+	
+	/**
+	 * Terminator of the size line and of the data of a chunk.
+	 */
+	private static final byte[] CRLF = {'\r', '\n'};
+	
+	/**
+	 * Last chunk followed by the empty trailer.
+	 */
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	/**
+	 * Stream to which the chunks are written.
+	 */
+	private OutputStream out;
+	
+	/**
+	 * Buffer in which the data of the next chunk is collected.
+	 */
+	private byte[] buffer;
+	
+	/**
+	 * Number of bytes in the buffer.
+	 */
+	private int count;
+	
+	/**
+	 * Buffer in which the size line of a chunk is generated.
+	 */
+	private byte[] sizeLine = new byte[18];
+	
+	/**
+	 * Flag that indicates whether the last chunk was written.
+	 */
+	private boolean finished;
+	
+	/**
+	 * Constructs a new {@code ChunkedOutputStream} which writes chunks of at
+	 * most the given size to the given stream.
+	 * 
+	 * @param  out       stream to which the chunks are written
+	 * @param  chunkSize maximum size of the data of a buffered chunk
+	 * @throws IllegalArgumentException if the size of a chunk is not positive
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive.");
+		}
+		this.out = out;
+		this.buffer = new byte[chunkSize];
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		checkNotFinished();
+		if (count == buffer.length) {
+			writeBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkNotFinished();
+		if (len >= buffer.length) {
+			writeBuffer();
+			writeChunk(b, off, len);
+			return;
+		}
+		if (len > buffer.length - count) {
+			writeBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+	
+	/**
+	 * Writes the buffered bytes as a chunk and flushes the underlying stream.
+	 * 
+	 * @throws IOException if I/O error occurs
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!finished) {
+			writeBuffer();
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Writes the buffered bytes as a chunk, followed by the last chunk, which
+	 * ends the content. Does nothing if the last chunk was already written.
+	 * 
+	 * @throws IOException if I/O error occurs
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		writeBuffer();
+		out.write(LAST_CHUNK);
+		finished = true;
+	}
+	
+	/**
+	 * Finishes the content, but does not close the underlying stream.
+	 * 
+	 * @throws IOException if I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+	
+	/**
+	 * Writes the buffered bytes as a chunk, if there are any.
+	 * 
+	 * @throws IOException if I/O error occurs
+	 */
+	private void writeBuffer() throws IOException {
+		if (count > 0) {
+			writeChunk(buffer, 0, count);
+			count = 0;
+		}
+	}
+	
+	/**
+	 * Writes the given bytes as a single chunk.
+	 * 
+	 * @param  b   data of the chunk
+	 * @param  off start offset in the data
+	 * @param  len number of bytes of the chunk, must be positive
+	 * @throws IOException if I/O error occurs
+	 */
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+		int pos = sizeLine.length;
+		sizeLine[--pos] = '\n';
+		sizeLine[--pos] = '\r';
+		for (int size = len; size != 0; size >>>= 4) {
+			sizeLine[--pos] = (byte) Character.forDigit(size & 0xF, 16);
+		}
+		
+		out.write(sizeLine, pos, sizeLine.length - pos);
+		out.write(b, off, len);
+		out.write(CRLF);
+	}
+	
+	/**
+	 * Checks that the last chunk was not written yet.
+	 * 
+	 * @throws IOException if the last chunk was already written
+	 */
+	private void checkNotFinished() throws IOException {
+		if (finished) {
+			throw new IOException("Content has already been finished.");
+		}
+	}
+	
+}
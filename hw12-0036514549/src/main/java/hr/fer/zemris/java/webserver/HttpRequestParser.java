@@ -0,0 +1,561 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Parser of HTTP request headers. Parser reads the input in bulk into its own
+ * buffer, which is reused for all the requests of a connection, so bytes of
+ * pipelined requests that were read together with the current request are
+ * kept for the next one. Header lines are not converted to strings; only the
+ * offsets of header names and values are remembered, and a value is decoded
+ * only when it is requested. Size of the header and number of header lines
+ * are limited.
+ * 
+ * @author Matija Frandolić
+ */
+public class HttpRequestParser {
+	
+	/**
+	 * Initial size of the buffer.
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	
+	/**
+	 * Buffer which holds the current request header and bytes read after it.
+	 */
+	private byte[] buffer;
+	
+	/**
+	 * Number of valid bytes in the buffer.
+	 */
+	private int limit;
+	
+	/**
+	 * Position in the buffer right after the header of the current request.
+	 */
+	private int requestEnd;
+	
+	/**
+	 * Maximum allowed size of the request header (in bytes).
+	 */
+	private int maxHeaderSize;
+	
+	/**
+	 * Maximum allowed number of header lines.
+	 */
+	private int maxHeaders;
+	
+	/**
+	 * HTTP method of the current request.
+	 */
+	private String method;
+	
+	/**
+	 * Requested path of the current request, without the query string.
+	 */
+	private String path;
+	
+	/**
+	 * HTTP version of the current request.
+	 */
+	private String version;
+	
+	/**
+	 * Position of the query string in the buffer, or -1 if there is none.
+	 */
+	private int queryStart;
+	
+	/**
+	 * Position in the buffer right after the query string.
+	 */
+	private int queryEnd;
+	
+	/**
+	 * Number of header lines of the current request.
+	 */
+	private int headerCount;
+	
+	/**
+	 * Offsets of header lines in the buffer, four for each header line: start
+	 * and end of the name followed by start and end of the value.
+	 */
+	private int[] headerOffsets;
+	
+	/**
+	 * Constructs a new {@code HttpRequestParser} with the given limits.
+	 * 
+	 * @param  maxHeaderSize maximum allowed size of the request header (in bytes)
+	 * @param  maxHeaders    maximum allowed number of header lines
+	 * @throws IllegalArgumentException if either of the limits is not positive
+	 */
+	public HttpRequestParser(int maxHeaderSize, int maxHeaders) {
+		if (maxHeaderSize <= 0 || maxHeaders <= 0) {
+			throw new IllegalArgumentException("Limits must be positive.");
+		}
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxHeaders = maxHeaders;
+		this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxHeaderSize)];
+		this.headerOffsets = new int[4 * maxHeaders];
+	}
+	
+	/**
+	 * Reads the header of the next request from the given input stream and
+	 * parses it. Bytes of the previous request are discarded.
+	 * 
+	 * @param  is input stream from which the request is read
+	 * @return    {@code true} if the request was read, {@code false} if the
+	 *            stream ended before the header was complete
+	 * @throws IOException if I/O error occurs
+	 * @throws HttpRequestParserException if the header is too large or malformed
+	 */
+	public boolean readRequest(InputStream is) throws IOException {
+		if (requestEnd > 0) {
+			System.arraycopy(buffer, requestEnd, buffer, 0, limit - requestEnd);
+			limit -= requestEnd;
+			requestEnd = 0;
+		}
+		
+		int scanned = 0;
+		while (true) {
+			int end = findHeaderEnd(buffer, scanned, limit);
+			if (end >= 0) {
+				parse(end);
+				requestEnd = end;
+				return true;
+			}
+			scanned = Math.max(0, limit - 2);
+			
+			if (limit == buffer.length) {
+				if (buffer.length >= maxHeaderSize) {
+					throw new HttpRequestParserException(431, "Request Header Fields Too Large");
+				}
+				buffer = Arrays.copyOf(buffer, Math.min(2 * buffer.length, maxHeaderSize));
+			}
+			
+			int r = is.read(buffer, limit, buffer.length - limit);
+			if (r == -1) {
+				return false;
+			}
+			limit += r;
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if bytes after the current request header have
+	 * already been read, which is the case when requests are pipelined.
+	 * 
+	 * @return {@code true} if bytes after the current request have been read
+	 */
+	public boolean hasBufferedInput() {
+		return limit > requestEnd;
+	}
+	
+	/**
+	 * Returns the HTTP method of the current request in upper case.
+	 * 
+	 * @return the HTTP method of the current request
+	 */
+	public String getMethod() {
+		return method;
+	}
+	
+	/**
+	 * Returns the requested path of the current request, without the query string.
+	 * 
+	 * @return the requested path of the current request
+	 */
+	public String getPath() {
+		return path;
+	}
+	
+	/**
+	 * Returns the HTTP version of the current request in upper case.
+	 * 
+	 * @return the HTTP version of the current request
+	 */
+	public String getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the value of the first header with the given name or {@code null}
+	 * if there is no such header. Header names are compared case-insensitively.
+	 * 
+	 * @param  name name of the header
+	 * @return      value of the header or {@code null} if there is no such header
+	 */
+	public String getHeader(String name) {
+		for (int i = 0; i < headerCount; i++) {
+			int offset = 4 * i;
+			if (equalsIgnoreCase(headerOffsets[offset], headerOffsets[offset + 1], name)) {
+				return decodeValue(headerOffsets[offset + 2], headerOffsets[offset + 3]);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns {@code true} if the value of the first header with the given name
+	 * is equal to the given value. Both names and values are compared
+	 * case-insensitively.
+	 * 
+	 * @param  name  name of the header
+	 * @param  value expected value of the header
+	 * @return       {@code true} if the header has the given value
+	 */
+	public boolean headerEquals(String name, String value) {
+		for (int i = 0; i < headerCount; i++) {
+			int offset = 4 * i;
+			if (equalsIgnoreCase(headerOffsets[offset], headerOffsets[offset + 1], name)) {
+				return equalsIgnoreCase(headerOffsets[offset + 2], headerOffsets[offset + 3], value);
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the value of the cookie with the given name from any of the
+	 * {@code Cookie} headers, or {@code null} if there is no such cookie. Value
+	 * is returned as it was sent, including the quotes.
+	 * 
+	 * @param  name name of the cookie
+	 * @return      value of the cookie or {@code null} if there is no such cookie
+	 */
+	public String getCookie(String name) {
+		for (int i = 0; i < headerCount; i++) {
+			int offset = 4 * i;
+			if (!equalsIgnoreCase(headerOffsets[offset], headerOffsets[offset + 1], "Cookie")) {
+				continue;
+			}
+			
+			int end = headerOffsets[offset + 3];
+			for (int start = headerOffsets[offset + 2]; start < end; ) {
+				int separator = indexOf((byte) ';', start, end);
+				if (separator < 0) {
+					separator = end;
+				}
+				int equalsSign = indexOf((byte) '=', start, separator);
+				if (equalsSign > start) {
+					int nameStart = skipWhitespace(start, equalsSign);
+					int nameEnd = trimWhitespace(nameStart, equalsSign);
+					if (nameEnd - nameStart == name.length() && regionMatches(nameStart, name)) {
+						return new String(buffer, equalsSign + 1, separator - equalsSign - 1,
+								StandardCharsets.ISO_8859_1);
+					}
+				}
+				start = separator + 1;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Parses the query string of the current request and puts the parameters
+	 * into the given map. Names and values are URL-decoded as UTF-8 while the
+	 * query string is being split. Parameter without a value is given an empty
+	 * value.
+	 * 
+	 * @param params map into which the parameters are put
+	 */
+	public void parseParameters(Map<String, String> params) {
+		if (queryStart < 0) {
+			return;
+		}
+		
+		byte[] decoded = new byte[queryEnd - queryStart];
+		int length = 0;
+		String key = null;
+		
+		for (int i = queryStart; i <= queryEnd; i++) {
+			byte b = i < queryEnd ? buffer[i] : (byte) '&';
+			
+			if (b == '&') {
+				String text = new String(decoded, 0, length, StandardCharsets.UTF_8);
+				if (key != null) {
+					params.put(key, text);
+				} else if (length > 0) {
+					params.put(text, "");
+				}
+				key = null;
+				length = 0;
+			} else if (b == '=' && key == null && length > 0) {
+				key = new String(decoded, 0, length, StandardCharsets.UTF_8);
+				length = 0;
+			} else if (b == '+') {
+				decoded[length++] = ' ';
+			} else if (b == '%' && i + 2 < queryEnd &&
+					   hexValue(buffer[i + 1]) >= 0 && hexValue(buffer[i + 2]) >= 0) {
+				decoded[length++] = (byte) (16 * hexValue(buffer[i + 1]) + hexValue(buffer[i + 2]));
+				i += 2;
+			} else {
+				decoded[length++] = b;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the position right after the end of the HTTP header (an empty
+	 * line) in the given part of the given array, or -1 if the header does not
+	 * end in that part. Lines can be terminated by either "\r\n" or "\n".
+	 * 
+	 * @param  data array in which to search
+	 * @param  from position from which to search
+	 * @param  to   position up to which to search (exclusive)
+	 * @return      the position right after the end of the header, or -1
+	 */
+	public static int findHeaderEnd(byte[] data, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (data[i] != '\n') {
+				continue;
+			}
+			if (i + 1 < to && data[i + 1] == '\n') {
+				return i + 2;
+			}
+			if (i + 2 < to && data[i + 1] == '\r' && data[i + 2] == '\n') {
+				return i + 3;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses the request header which occupies the buffer up to the given
+	 * position.
+	 * 
+	 * @param  end position right after the request header
+	 * @throws HttpRequestParserException if the header is malformed or has too
+	 *                                    many lines
+	 */
+	private void parse(int end) {
+		method = null;
+		path = null;
+		version = null;
+		queryStart = -1;
+		headerCount = 0;
+		
+		for (int lineStart = 0; lineStart < end; ) {
+			int lineEnd = indexOf((byte) '\n', lineStart, end);
+			int contentEnd = lineEnd > lineStart && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			if (contentEnd == lineStart) {
+				break;
+			}
+			
+			if (method == null) {
+				parseRequestLine(lineStart, contentEnd);
+			} else if (buffer[lineStart] == ' ' || buffer[lineStart] == '\t') {
+				// continuation of the previous header line
+				if (headerCount > 0) {
+					headerOffsets[4 * headerCount - 1] = trimWhitespace(lineStart, contentEnd);
+				}
+			} else {
+				parseHeaderLine(lineStart, contentEnd);
+			}
+			
+			lineStart = lineEnd + 1;
+		}
+		
+		if (method == null) {
+			throw new HttpRequestParserException(400, "Bad Request");
+		}
+	}
+	
+	/**
+	 * Parses the request line which occupies the given part of the buffer. Line
+	 * must consist of exactly three parts separated by single spaces.
+	 * 
+	 * @param  start position of the line
+	 * @param  end   position right after the line
+	 * @throws HttpRequestParserException if the line is malformed
+	 */
+	private void parseRequestLine(int start, int end) {
+		int firstSpace = indexOf((byte) ' ', start, end);
+		int secondSpace = firstSpace < 0 ? -1 : indexOf((byte) ' ', firstSpace + 1, end);
+		
+		if (firstSpace <= start || secondSpace <= firstSpace + 1 || secondSpace >= end - 1 ||
+			indexOf((byte) ' ', secondSpace + 1, end) >= 0) {
+			throw new HttpRequestParserException(400, "Bad Request");
+		}
+		
+		method = new String(buffer, start, firstSpace - start, StandardCharsets.ISO_8859_1).toUpperCase();
+		version = new String(buffer, secondSpace + 1, end - secondSpace - 1, StandardCharsets.ISO_8859_1).toUpperCase();
+		
+		int questionMark = indexOf((byte) '?', firstSpace + 2, secondSpace);
+		int pathEnd = questionMark < 0 ? secondSpace : questionMark;
+		path = new String(buffer, firstSpace + 1, pathEnd - firstSpace - 1, StandardCharsets.ISO_8859_1);
+		if (questionMark >= 0) {
+			queryStart = questionMark + 1;
+			queryEnd = secondSpace;
+		}
+	}
+	
+	/**
+	 * Remembers the offsets of the name and value of the header line which
+	 * occupies the given part of the buffer. Lines without a colon are ignored.
+	 * 
+	 * @param  start position of the line
+	 * @param  end   position right after the line
+	 * @throws HttpRequestParserException if there are too many header lines
+	 */
+	private void parseHeaderLine(int start, int end) {
+		int colon = indexOf((byte) ':', start, end);
+		if (colon <= start) {
+			return;
+		}
+		if (headerCount == maxHeaders) {
+			throw new HttpRequestParserException(431, "Request Header Fields Too Large");
+		}
+		
+		int offset = 4 * headerCount++;
+		headerOffsets[offset] = start;
+		headerOffsets[offset + 1] = trimWhitespace(start, colon);
+		headerOffsets[offset + 2] = skipWhitespace(colon + 1, end);
+		headerOffsets[offset + 3] = trimWhitespace(headerOffsets[offset + 2], end);
+	}
+	
+	/**
+	 * Decodes the header value which occupies the given part of the buffer.
+	 * Line terminators of continuation lines are removed.
+	 * 
+	 * @param  start position of the value
+	 * @param  end   position right after the value
+	 * @return       decoded value
+	 */
+	private String decodeValue(int start, int end) {
+		if (indexOf((byte) '\n', start, end) < 0) {
+			return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+		
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			if (buffer[i] != '\r' && buffer[i] != '\n') {
+				sb.append((char) (buffer[i] & 0xFF));
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns {@code true} if the given part of the buffer is equal to the given
+	 * string, ignoring case of ASCII letters.
+	 * 
+	 * @param  start position of the part
+	 * @param  end   position right after the part
+	 * @param  s     string to compare with
+	 * @return       {@code true} if the part is equal to the string
+	 */
+	private boolean equalsIgnoreCase(int start, int end, String s) {
+		if (end - start != s.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			int a = buffer[start + i] & 0xFF;
+			int b = s.charAt(i);
+			if (a != b && toLowerCase(a) != toLowerCase(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns {@code true} if the buffer contains the given string at the given
+	 * position. Case of letters is not ignored.
+	 * 
+	 * @param  start position in the buffer
+	 * @param  s     string to compare with
+	 * @return       {@code true} if the buffer contains the string at the position
+	 */
+	private boolean regionMatches(int start, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if ((buffer[start + i] & 0xFF) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the position of the first occurrence of the given byte in the
+	 * given part of the buffer, or -1 if there is none.
+	 * 
+	 * @param  b     byte to search for
+	 * @param  start position from which to search
+	 * @param  end   position up to which to search (exclusive)
+	 * @return       the position of the byte, or -1 if there is none
+	 */
+	private int indexOf(byte b, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the position of the first byte in the given part of the buffer
+	 * that is not a space or a tab.
+	 * 
+	 * @param  start position from which to search
+	 * @param  end   position up to which to search (exclusive)
+	 * @return       the position of the first byte that is not whitespace, or
+	 *               {@code end} if there is none
+	 */
+	private int skipWhitespace(int start, int end) {
+		while (start < end && (buffer[start] == ' ' || buffer[start] == '\t')) {
+			start++;
+		}
+		return start;
+	}
+	
+	/**
+	 * Returns the position right after the last byte in the given part of the
+	 * buffer that is not a space or a tab.
+	 * 
+	 * @param  start position from which to search
+	 * @param  end   position up to which to search (exclusive)
+	 * @return       the position right after the last byte that is not whitespace,
+	 *               or {@code start} if there is none
+	 */
+	private int trimWhitespace(int start, int end) {
+		while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) {
+			end--;
+		}
+		return end;
+	}
+	
+	/**
+	 * Returns the given ASCII character in lower case.
+	 * 
+	 * @param  c character
+	 * @return   the character in lower case
+	 */
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+	
+	/**
+	 * Returns the value of the given hexadecimal digit, or -1 if the given byte
+	 * is not a hexadecimal digit.
+	 * 
+	 * @param  b byte that represents a hexadecimal digit
+	 * @return   the value of the digit, or -1 if the byte is not a digit
+	 */
+	private static int hexValue(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+	
+}
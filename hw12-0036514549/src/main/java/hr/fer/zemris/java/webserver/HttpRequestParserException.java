@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Thrown to indicate that an HTTP request cannot be parsed. Exception carries
+ * the status code and status text of the response that should be sent to the
+ * client.
+ * 
+ * @author Matija Frandolić
+ */
+public class HttpRequestParserException extends RuntimeException {
+	
+	/**
+	 * Serial version UID.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Status code of the response that should be sent to the client.
+	 */
+	private int statusCode;
+	
+	/**
+	 * Status text of the response that should be sent to the client.
+	 */
+	private String statusText;
+	
+	/**
+	 * Constructs a new {@code HttpRequestParserException} with the given status
+	 * code and status text of the response that should be sent to the client.
+	 * 
+	 * @param statusCode status code of the response
+	 * @param statusText status text of the response
+	 */
+	public HttpRequestParserException(int statusCode, String statusText) {
+		super(statusCode + " " + statusText);
+		this.statusCode = statusCode;
+		this.statusText = statusText;
+	}
+	
+	/**
+	 * Returns the status code of the response that should be sent to the client.
+	 * 
+	 * @return the status code of the response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Returns the status text of the response that should be sent to the client.
+	 * 
+	 * @return the status text of the response
+	 */
+	public String getStatusText() {
+		return statusText;
+	}
+	
+}
@@ -0,0 +1,72 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Model of a worker that processes requests asynchronously. Instead of
+ * blocking the calling thread while it waits for slow resources, the worker
+ * returns a future which is completed, on any thread, once the content of the
+ * response has been written to the context. Server completes the response
+ * when the future completes, so no thread is held by the request until then.
+ * Context must not be used after the returned future has completed, nor by
+ * more than one thread at a time.
+ * <p>
+ * Synchronous workers are used through the adapter returned by
+ * {@link #adapt(IWebWorker)}, while asynchronous workers can be called
+ * synchronously through {@link #processRequest(RequestContext)}.
+ * 
+ * @author Matija Frandolić
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+	
+	/**
+	 * Starts processing the given request.
+	 * 
+	 * @param  context request context to process
+	 * @return         future which is completed once the content of the response
+	 *                 has been written, or completed exceptionally if the
+	 *                 request could not be processed
+	 */
+	CompletableFuture<Void> processRequestAsync(RequestContext context);
+	
+	/**
+	 * Processes the given request and waits until the response is created.
+	 * 
+	 * @param  context   request context to process
+	 * @throws Exception if the request could not be processed
+	 */
+	@Override
+	default void processRequest(RequestContext context) throws Exception {
+		try {
+			processRequestAsync(context).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+		}
+	}
+	
+	/**
+	 * Returns the given worker as an asynchronous worker. Asynchronous worker
+	 * is returned as it is, while a synchronous worker is wrapped so that it
+	 * processes the request on the calling thread and returns a completed
+	 * future.
+	 * 
+	 * @param  worker worker to adapt
+	 * @return        the asynchronous worker
+	 */
+	static IAsyncWebWorker adapt(IWebWorker worker) {
+		if (worker instanceof IAsyncWebWorker) {
+			return (IAsyncWebWorker) worker;
+		}
+		return context -> {
+			try {
+				worker.processRequest(context);
+				return CompletableFuture.completedFuture(null);
+			} catch (Exception e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		};
+	}
+	
+}
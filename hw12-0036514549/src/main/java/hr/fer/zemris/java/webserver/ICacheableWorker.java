@@ -0,0 +1,36 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Model of a worker whose response depends only on the requested path and the
+ * values of the selected parameters, so it can be reused for identical requests
+ * for a limited time. Such worker must not use the session, cookies nor the
+ * dispatcher, since only the status, headers and content of its response are
+ * reused. Concurrent identical requests are processed only once.
+ * 
+ * @author Matija Frandolić
+ */
+public interface ICacheableWorker extends IWebWorker {
+	
+	/**
+	 * Returns the names of the parameters whose values, together with the
+	 * requested path, determine the response. Other parameters are ignored.
+	 * 
+	 * @return the names of the parameters which determine the response
+	 */
+	default List<String> getCacheKeyParameters() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Returns the time for which the response can be reused (in seconds).
+	 * 
+	 * @return the time for which the response can be reused
+	 */
+	default int getCacheTimeToLive() {
+		return 60;
+	}
+	
+}
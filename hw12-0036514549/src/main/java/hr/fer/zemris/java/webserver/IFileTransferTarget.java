@@ -0,0 +1,28 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Model of an output to which regions of a file can be transferred directly
+ * (using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}),
+ * without copying their content through the Java heap.
+ * 
+ * @author Matija Frandolić
+ */
+interface IFileTransferTarget {
+	
+	/**
+	 * Transfers {@code count} bytes of the given file, starting at the given
+	 * position, after everything that has already been written to this output.
+	 * This output takes ownership of the given channel and closes it once the
+	 * transfer is complete or fails.
+	 * 
+	 * @param  channel  channel of the file to transfer
+	 * @param  position position in the file from which to start the transfer
+	 * @param  count    number of bytes to transfer
+	 * @throws IOException if I/O error occurs
+	 */
+	void transferFile(FileChannel channel, long position, long count) throws IOException;
+	
+}
@@ -0,0 +1,57 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.SessionStore.SessionMapEntry;
+
+/**
+ * Store of sessions of {@link SmartHttpServer}. Implementations must be
+ * thread-safe and are responsible for removing expired sessions.
+ * 
+ * @author Matija Frandolić
+ */
+public interface ISessionStore {
+	
+	/**
+	 * Returns the session with the given ID if it exists, belongs to the given
+	 * host and has not expired, and extends its validity. Otherwise, returns
+	 * {@code null}.
+	 * 
+	 * @param  sid  session ID
+	 * @param  host address or domain name of the host
+	 * @return      the session, or {@code null} if there is no valid session
+	 */
+	SessionMapEntry get(String sid, String host);
+	
+	/**
+	 * Creates a new session for the given host.
+	 * 
+	 * @param  host address or domain name of the host
+	 * @return      the new session
+	 */
+	SessionMapEntry create(String host);
+	
+	/**
+	 * Stores the changes of the permanent parameters of the given session which
+	 * were made while serving a request. Stores which keep the returned session
+	 * objects themselves do not need to do anything.
+	 * 
+	 * @param session session whose parameters are stored
+	 */
+	default void update(SessionMapEntry session) {
+	}
+	
+	/**
+	 * Returns the number of remembered sessions. Sessions which have expired
+	 * but have not been removed yet may be included.
+	 * 
+	 * @return the number of remembered sessions
+	 */
+	int size();
+	
+	/**
+	 * Stops the removal of expired sessions. Stores which do not remove them in
+	 * the background do not need to do anything.
+	 */
+	default void close() {
+	}
+	
+}
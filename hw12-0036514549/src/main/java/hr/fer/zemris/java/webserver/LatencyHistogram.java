@@ -0,0 +1,192 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies (in microseconds) with logarithmic buckets, each of
+ * which is divided linearly into 16 sub-buckets, so percentiles are reported
+ * with a relative error of at most 1/16. Values from 0 up to about 25 days are
+ * covered and larger values are counted as the largest one.
+ * <p>
+ * Recording is lock-free. Bucket counters are striped by thread, so threads
+ * recording at the same time rarely contend for the same counter. Percentiles
+ * are computed by summing the stripes, so they may not reflect values that are
+ * being recorded at the same time. This class is thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class LatencyHistogram {
+	
+	/**
+	 * Number of bits of the value which select a sub-bucket.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	
+	/**
+	 * Number of sub-buckets of each bucket.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	/**
+	 * Exponent of the largest value that is counted precisely.
+	 */
+	private static final int MAX_EXPONENT = 40;
+	
+	/**
+	 * Largest value that is counted precisely.
+	 */
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	
+	/**
+	 * Total number of sub-buckets.
+	 */
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	
+	/**
+	 * Counters of the sub-buckets, one array for each stripe.
+	 */
+	private AtomicLongArray[] stripes;
+	
+	/**
+	 * Mask which selects the stripe from the thread ID.
+	 */
+	private int stripeMask;
+	
+	/**
+	 * Number of recorded values.
+	 */
+	private LongAdder count = new LongAdder();
+	
+	/**
+	 * Sum of recorded values.
+	 */
+	private LongAdder sum = new LongAdder();
+	
+	/**
+	 * Largest recorded value.
+	 */
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/**
+	 * Constructs a new empty {@code LatencyHistogram}.
+	 */
+	public LatencyHistogram() {
+		int stripeCount = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8));
+		stripes = new AtomicLongArray[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+		}
+		stripeMask = stripeCount - 1;
+	}
+	
+	/**
+	 * Records the given value. Negative values are recorded as 0.
+	 * 
+	 * @param value value to be recorded (in microseconds)
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		int stripe = (int) Thread.currentThread().getId() & stripeMask;
+		stripes[stripe].incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	/**
+	 * Returns the number of recorded values.
+	 * 
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * Returns the mean of recorded values, or 0 if there are none.
+	 * 
+	 * @return the mean of recorded values
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+	
+	/**
+	 * Returns the largest recorded value.
+	 * 
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns the value below which the given percentage of recorded values
+	 * fall, or 0 if there are none. Returned value is the largest value of the
+	 * sub-bucket into which the percentile falls, but not larger than the largest
+	 * recorded value.
+	 * 
+	 * @param  percentile percentage of values, between 0 and 100
+	 * @return            the value at the given percentile
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				long c = stripe.get(i);
+				counts[i] += c;
+				total += c;
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueInBucket(i), getMax());
+			}
+		}
+		return getMax();
+	}
+	
+	/**
+	 * Returns the index of the sub-bucket into which the given value falls.
+	 * 
+	 * @param  value non-negative value
+	 * @return       the index of the sub-bucket
+	 */
+	private static int bucketIndex(long value) {
+		value = Math.min(value, MAX_VALUE);
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * Returns the largest value which falls into the sub-bucket with the given
+	 * index.
+	 * 
+	 * @param  index index of the sub-bucket
+	 * @return       the largest value of the sub-bucket
+	 */
+	private static long highestValueInBucket(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+	
+}
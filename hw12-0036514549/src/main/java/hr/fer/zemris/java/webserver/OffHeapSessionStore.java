@@ -0,0 +1,750 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hr.fer.zemris.java.webserver.SessionStore.SessionMapEntry;
+
+/**
+ * Thread-safe store of sessions of {@link SmartHttpServer} which keeps sessions
+ * outside of the Java heap, so that millions of idle sessions neither take up
+ * the heap nor have to be scanned by the garbage collector.
+ * <p>
+ * Each session occupies a record of fixed size in a direct buffer. Record holds
+ * the session ID as 20 bytes, expiry time, and the host followed by the
+ * permanent parameters encoded as a sequence of length-prefixed UTF-8 strings.
+ * Data which does not fit into the record is kept on the heap, which is
+ * expected to be rare. Records are found through an open-addressing hash table, which is
+ * also kept in a direct buffer. Sessions are divided into segments by the hash
+ * of their ID, each of which has its own lock.
+ * <p>
+ * Session is decoded only when a request uses it, into a new object whose
+ * parameters are stored back by {@link #update(SessionMapEntry)}. If two
+ * requests use the same session at the same time, changes of the one that
+ * finishes last are kept. Expired sessions are removed by a background thread.
+ * Each segment has a queue of its records in the order of their expiry, and
+ * only the records at its head which are due are examined: the ones that were
+ * used in the meantime are moved to its tail, while the others are removed.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which has to be
+ * large enough for all the sessions (about 80 bytes per session). Expiry
+ * queues take another 12 bytes per session on the heap, in primitive arrays.
+ * 
+ * @author Matija Frandolić
+ */
+public class OffHeapSessionStore implements ISessionStore {
+	
+	/**
+	 * Size of a record of a single session.
+	 */
+	private static final int RECORD_SIZE = 64;
+	
+	/**
+	 * Offset of the expiry time in a record.
+	 */
+	private static final int VALID_UNTIL_OFFSET = SessionStore.SID_LENGTH;
+	
+	/**
+	 * Offset of the length of the encoded data in a record.
+	 */
+	private static final int LENGTH_OFFSET = VALID_UNTIL_OFFSET + 8;
+	
+	/**
+	 * Offset of the encoded host and parameters in a record.
+	 */
+	private static final int DATA_OFFSET = LENGTH_OFFSET + 2;
+	
+	/**
+	 * Maximum length of the data encoded inside a record.
+	 */
+	private static final int MAX_INLINE_LENGTH = RECORD_SIZE - DATA_OFFSET;
+	
+	/**
+	 * Length which indicates that the data is kept on the heap.
+	 */
+	private static final int ON_HEAP = 0xFFFF;
+	
+	/**
+	 * Number of records in a single direct buffer.
+	 */
+	private static final int RECORDS_PER_SLAB = 16384;
+	
+	/**
+	 * Number of segments, must be a power of two.
+	 */
+	private static final int SEGMENT_COUNT = 16;
+	
+	/**
+	 * Segments of the store.
+	 */
+	private Segment[] segments = new Segment[SEGMENT_COUNT];
+	
+	/**
+	 * Duration of session (in milliseconds).
+	 */
+	private long timeout;
+	
+	/**
+	 * Object used to generate session ID for new sessions.
+	 */
+	private SecureRandom sessionRandom = new SecureRandom();
+	
+	/**
+	 * Thread which removes expired sessions.
+	 */
+	private Thread sessionCleanup;
+	
+	/**
+	 * Constructs a new {@code OffHeapSessionStore} whose sessions last for the
+	 * given duration and starts the thread which removes expired sessions.
+	 * 
+	 * @param  timeout duration of session (in seconds)
+	 * @throws IllegalArgumentException if timeout is not positive
+	 */
+	public OffHeapSessionStore(int timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Session timeout must be positive.");
+		}
+		this.timeout = timeout * 1000L;
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment();
+		}
+		
+		long sweepInterval = Math.max(1000, this.timeout / 4096);
+		sessionCleanup = new Thread(() -> expireSessions(sweepInterval), "session-cleanup");
+		sessionCleanup.setDaemon(true);
+		sessionCleanup.start();
+	}
+	
+	@Override
+	public SessionMapEntry get(String sid, String host) {
+		if (!isValidSid(sid)) {
+			return null;
+		}
+		
+		int hash = hash(sid);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			int record = segment.find(sid, hash);
+			// expired record is left for the cleanup thread, which removes it
+			// together with its entry in the expiry queue
+			long now = System.currentTimeMillis();
+			if (record < 0 || segment.getLong(record, VALID_UNTIL_OFFSET) < now) {
+				return null;
+			}
+			
+			byte[] data = segment.readData(record);
+			int[] position = {0};
+			if (!readString(data, position).equals(host)) {
+				return null;
+			}
+			segment.putLong(record, VALID_UNTIL_OFFSET, now + timeout);
+			
+			SessionMapEntry entry = new SessionMapEntry();
+			entry.sid = sid;
+			entry.host = host;
+			entry.validUntil = now + timeout;
+			entry.map = decode(data, position);
+			return entry;
+		}
+	}
+	
+	@Override
+	public SessionMapEntry create(String host) {
+		byte[] data = encode(host, Map.of());
+		SessionMapEntry entry = new SessionMapEntry();
+		entry.host = host;
+		entry.validUntil = System.currentTimeMillis() + timeout;
+		entry.map = new ConcurrentHashMap<>();
+		
+		while (true) {
+			String sid = SessionStore.generateRandomSid(sessionRandom);
+			int hash = hash(sid);
+			Segment segment = segmentFor(hash);
+			synchronized (segment) {
+				if (segment.find(sid, hash) >= 0) {
+					continue;
+				}
+				int record = segment.insert(sid, hash);
+				segment.putLong(record, VALID_UNTIL_OFFSET, entry.validUntil);
+				segment.writeData(record, data);
+				segment.schedule(record, entry.validUntil);
+			}
+			entry.sid = sid;
+			return entry;
+		}
+	}
+	
+	@Override
+	public void update(SessionMapEntry session) {
+		byte[] data = encode(session.host, session.map);
+		int hash = hash(session.sid);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			int record = segment.find(session.sid, hash);
+			if (record >= 0) {
+				segment.writeData(record, data);
+			}
+		}
+	}
+	
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+	
+	@Override
+	public void close() {
+		sessionCleanup.interrupt();
+	}
+	
+	/**
+	 * Returns the segment which holds the sessions with the given hash.
+	 * 
+	 * @param  hash hash of the session ID
+	 * @return      the segment which holds the session
+	 */
+	private Segment segmentFor(int hash) {
+		return segments[hash >>> 28 & (SEGMENT_COUNT - 1)];
+	}
+	
+	/**
+	 * Periodically removes expired sessions. Runs on the cleanup thread until
+	 * it is interrupted by {@link #close()}.
+	 * 
+	 * @param sweepInterval time between two sweeps (in milliseconds)
+	 */
+	private void expireSessions(long sweepInterval) {
+		while (true) {
+			try {
+				Thread.sleep(sweepInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			long now = System.currentTimeMillis();
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					segment.removeExpired(now);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the given string has the form of a session ID,
+	 * that is if it consists of 20 upper case letters.
+	 * 
+	 * @param  sid string to be checked
+	 * @return     {@code true} if the string has the form of a session ID
+	 */
+	private static boolean isValidSid(String sid) {
+		if (sid.length() != SessionStore.SID_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < sid.length(); i++) {
+			char c = sid.charAt(i);
+			if (c < 'A' || c > 'Z') {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the hash of the given session ID.
+	 * 
+	 * @param  sid session ID
+	 * @return     the hash of the session ID
+	 */
+	private static int hash(String sid) {
+		int h = 0;
+		for (int i = 0; i < sid.length(); i++) {
+			h = 31 * h + sid.charAt(i);
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * Spreads the bits of the given hash, so that both its lowest bits, which
+	 * select the slot of the hash table, and its highest bits, which select the
+	 * segment, depend on all the characters of the session ID.
+	 * 
+	 * @param  h hash to be spread
+	 * @return   the spread hash
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Encodes the given host and parameters as a sequence of strings, each of
+	 * which is prefixed with the length of its UTF-8 representation. Host is
+	 * followed by names and values of the parameters. Parameters whose value is
+	 * {@code null} are left out.
+	 * 
+	 * @param  host host of the session
+	 * @param  map  parameters to be encoded
+	 * @return      the encoded host and parameters
+	 */
+	static byte[] encode(String host, Map<String, String> map) {
+		List<byte[]> parts = new ArrayList<>(map.size() * 2 + 1);
+		byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+		parts.add(hostBytes);
+		int length = varIntLength(hostBytes.length) + hostBytes.length;
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			if (entry.getValue() == null) {
+				continue;
+			}
+			byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+			parts.add(name);
+			parts.add(value);
+			length += varIntLength(name.length) + name.length + varIntLength(value.length) + value.length;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (byte[] part : parts) {
+			int n = part.length;
+			while (n >= 0x80) {
+				buffer.put((byte) (n | 0x80));
+				n >>>= 7;
+			}
+			buffer.put((byte) n);
+			buffer.put(part);
+		}
+		return buffer.array();
+	}
+	
+	/**
+	 * Decodes the parameters encoded by {@link #encode(String, Map)}, starting
+	 * from the given position past the host.
+	 * 
+	 * @param  data     encoded host and parameters
+	 * @param  position single-element array holding the position of the first
+	 *                  parameter in the data
+	 * @return          the decoded parameters
+	 */
+	static Map<String, String> decode(byte[] data, int[] position) {
+		Map<String, String> map = new ConcurrentHashMap<>();
+		while (position[0] < data.length) {
+			String name = readString(data, position);
+			String value = readString(data, position);
+			map.put(name, value);
+		}
+		return map;
+	}
+	
+	/**
+	 * Reads a length-prefixed UTF-8 string from the given data.
+	 * 
+	 * @param  data     encoded data
+	 * @param  position single-element array holding the position in the data,
+	 *                  which is moved past the string
+	 * @return          the decoded string
+	 */
+	private static String readString(byte[] data, int[] position) {
+		int pos = position[0];
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = data[pos++];
+			length |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		position[0] = pos + length;
+		return new String(data, pos, length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the number of bytes in which the given non-negative number is
+	 * encoded as a variable-length integer.
+	 * 
+	 * @param  n non-negative number
+	 * @return   the number of bytes of its encoding
+	 */
+	private static int varIntLength(int n) {
+		int length = 1;
+		while (n >= 0x80) {
+			n >>>= 7;
+			length++;
+		}
+		return length;
+	}
+	
+	/**
+	 * Part of the store which holds the sessions whose hash falls into it. All
+	 * methods must be called while holding the lock of the segment.
+	 */
+	private static class Segment {
+		
+		/**
+		 * Direct buffers which hold the records.
+		 */
+		private List<ByteBuffer> slabs = new ArrayList<>();
+		
+		/**
+		 * Number of records that were ever allocated.
+		 */
+		private int allocated;
+		
+		/**
+		 * Indexes of records that were freed and can be reused.
+		 */
+		private int[] free = new int[16];
+		
+		/**
+		 * Number of freed records.
+		 */
+		private int freeCount;
+		
+		/**
+		 * Hash table which maps the session ID to the index of its record plus
+		 * one, or 0 if the slot is empty. Collisions are resolved by linear
+		 * probing.
+		 */
+		private ByteBuffer table = ByteBuffer.allocateDirect(64 * 4);
+		
+		/**
+		 * Number of slots of the hash table, a power of two.
+		 */
+		private int tableSize = 64;
+		
+		/**
+		 * Number of sessions in this segment.
+		 */
+		private volatile int size;
+		
+		/**
+		 * Encoded data which does not fit into its record, by index of the
+		 * record.
+		 */
+		private Map<Integer, byte[]> onHeap = new HashMap<>();
+		
+		/**
+		 * Circular queue of indexes of the records, roughly in the order of
+		 * their expiry. Each record is in the queue exactly once.
+		 */
+		private int[] queueRecords = new int[16];
+		
+		/**
+		 * Expiry times with which the records were added to the queue.
+		 */
+		private long[] queueDeadlines = new long[16];
+		
+		/**
+		 * Position of the head of the queue.
+		 */
+		private int queueHead;
+		
+		/**
+		 * Number of records in the queue.
+		 */
+		private int queueSize;
+		
+		/**
+		 * Returns the index of the record of the session with the given ID, or
+		 * -1 if there is none.
+		 * 
+		 * @param  sid  session ID
+		 * @param  hash hash of the session ID
+		 * @return      the index of the record, or -1
+		 */
+		int find(String sid, int hash) {
+			int mask = tableSize - 1;
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+				int record = table.getInt(slot * 4) - 1;
+				if (record < 0) {
+					return -1;
+				}
+				if (sidEquals(record, sid)) {
+					return record;
+				}
+			}
+		}
+		
+		/**
+		 * Allocates a record for the session with the given ID, which must not
+		 * be in the segment yet, and adds it to the hash table.
+		 * 
+		 * @param  sid  session ID
+		 * @param  hash hash of the session ID
+		 * @return      the index of the allocated record
+		 */
+		int insert(String sid, int hash) {
+			if ((size + 1) * 2 > tableSize) {
+				resize(tableSize * 2);
+			}
+			
+			int record;
+			if (freeCount > 0) {
+				record = free[--freeCount];
+			} else {
+				if (allocated == slabs.size() * RECORDS_PER_SLAB) {
+					slabs.add(ByteBuffer.allocateDirect(RECORDS_PER_SLAB * RECORD_SIZE));
+				}
+				record = allocated++;
+			}
+			
+			ByteBuffer slab = slab(record);
+			int offset = offset(record);
+			for (int i = 0; i < SessionStore.SID_LENGTH; i++) {
+				slab.put(offset + i, (byte) sid.charAt(i));
+			}
+			putIndex(record, hash);
+			size++;
+			return record;
+		}
+		
+		/**
+		 * Removes the session with the given record and frees the record.
+		 * 
+		 * @param record index of the record
+		 */
+		void remove(int record) {
+			int mask = tableSize - 1;
+			int slot = hashOf(record) & mask;
+			while (table.getInt(slot * 4) - 1 != record) {
+				slot = (slot + 1) & mask;
+			}
+			
+			// shifts the following entries of the cluster back, so that no
+			// entry becomes unreachable from its home slot
+			int hole = slot;
+			for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+				int other = table.getInt(next * 4) - 1;
+				if (other < 0) {
+					break;
+				}
+				int home = hashOf(other) & mask;
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					table.putInt(hole * 4, other + 1);
+					hole = next;
+				}
+			}
+			table.putInt(hole * 4, 0);
+			
+			putLong(record, VALID_UNTIL_OFFSET, 0);
+			onHeap.remove(record);
+			if (freeCount == free.length) {
+				int[] larger = new int[free.length * 2];
+				System.arraycopy(free, 0, larger, 0, free.length);
+				free = larger;
+			}
+			free[freeCount++] = record;
+			size--;
+		}
+		
+		/**
+		 * Adds the given record to the tail of the expiry queue.
+		 * 
+		 * @param record     index of the record
+		 * @param validUntil expiry time of the session in the record
+		 */
+		void schedule(int record, long validUntil) {
+			if (queueSize == queueRecords.length) {
+				int[] records = new int[queueSize * 2];
+				long[] deadlines = new long[queueSize * 2];
+				for (int i = 0; i < queueSize; i++) {
+					int position = (queueHead + i) % queueSize;
+					records[i] = queueRecords[position];
+					deadlines[i] = queueDeadlines[position];
+				}
+				queueRecords = records;
+				queueDeadlines = deadlines;
+				queueHead = 0;
+			}
+			int tail = (queueHead + queueSize) % queueRecords.length;
+			queueRecords[tail] = record;
+			queueDeadlines[tail] = validUntil;
+			queueSize++;
+		}
+		
+		/**
+		 * Examines the records at the head of the expiry queue which were due
+		 * before the given time. Sessions which expired are removed, while the
+		 * ones that were used in the meantime are moved to the tail.
+		 * 
+		 * @param now current time in milliseconds
+		 */
+		void removeExpired(long now) {
+			while (queueSize > 0 && queueDeadlines[queueHead] < now) {
+				int record = queueRecords[queueHead];
+				queueHead = (queueHead + 1) % queueRecords.length;
+				queueSize--;
+				
+				long validUntil = getLong(record, VALID_UNTIL_OFFSET);
+				if (validUntil < now) {
+					remove(record);
+				} else {
+					schedule(record, validUntil);
+				}
+			}
+		}
+		
+		/**
+		 * Returns the encoded data of the session with the given record.
+		 * 
+		 * @param  record index of the record
+		 * @return        the encoded host and parameters
+		 */
+		byte[] readData(int record) {
+			ByteBuffer slab = slab(record);
+			int offset = offset(record);
+			int length = slab.getShort(offset + LENGTH_OFFSET) & 0xFFFF;
+			if (length == ON_HEAP) {
+				return onHeap.get(record);
+			}
+			byte[] data = new byte[length];
+			for (int i = 0; i < length; i++) {
+				data[i] = slab.get(offset + DATA_OFFSET + i);
+			}
+			return data;
+		}
+		
+		/**
+		 * Stores the encoded data of the session with the given record.
+		 * 
+		 * @param record index of the record
+		 * @param data   the encoded host and parameters
+		 */
+		void writeData(int record, byte[] data) {
+			ByteBuffer slab = slab(record);
+			int offset = offset(record);
+			if (data.length > MAX_INLINE_LENGTH) {
+				slab.putShort(offset + LENGTH_OFFSET, (short) ON_HEAP);
+				onHeap.put(record, data);
+				return;
+			}
+			onHeap.remove(record);
+			slab.putShort(offset + LENGTH_OFFSET, (short) data.length);
+			for (int i = 0; i < data.length; i++) {
+				slab.put(offset + DATA_OFFSET + i, data[i]);
+			}
+		}
+		
+		/**
+		 * Returns the long integer at the given offset in the given record.
+		 * 
+		 * @param  record index of the record
+		 * @param  field  offset in the record
+		 * @return        the long integer
+		 */
+		long getLong(int record, int field) {
+			return slab(record).getLong(offset(record) + field);
+		}
+		
+		/**
+		 * Stores the long integer at the given offset in the given record.
+		 * 
+		 * @param record index of the record
+		 * @param field  offset in the record
+		 * @param value  the long integer
+		 */
+		void putLong(int record, int field, long value) {
+			slab(record).putLong(offset(record) + field, value);
+		}
+		
+		/**
+		 * Returns {@code true} if the session ID in the given record is equal
+		 * to the given one.
+		 * 
+		 * @param  record index of the record
+		 * @param  sid    session ID
+		 * @return        {@code true} if the session IDs are equal
+		 */
+		private boolean sidEquals(int record, String sid) {
+			ByteBuffer slab = slab(record);
+			int offset = offset(record);
+			for (int i = 0; i < SessionStore.SID_LENGTH; i++) {
+				if (slab.get(offset + i) != sid.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Returns the hash of the session ID in the given record.
+		 * 
+		 * @param  record index of the record
+		 * @return        the hash of the session ID
+		 */
+		private int hashOf(int record) {
+			ByteBuffer slab = slab(record);
+			int offset = offset(record);
+			int h = 0;
+			for (int i = 0; i < SessionStore.SID_LENGTH; i++) {
+				h = 31 * h + slab.get(offset + i);
+			}
+			return mix(h);
+		}
+		
+		/**
+		 * Adds the given record to the hash table.
+		 * 
+		 * @param record index of the record
+		 * @param hash   hash of the session ID in the record
+		 */
+		private void putIndex(int record, int hash) {
+			int mask = tableSize - 1;
+			int slot = hash & mask;
+			while (table.getInt(slot * 4) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table.putInt(slot * 4, record + 1);
+		}
+		
+		/**
+		 * Replaces the hash table with one of the given size.
+		 * 
+		 * @param newSize number of slots of the new table, a power of two
+		 */
+		private void resize(int newSize) {
+			ByteBuffer old = table;
+			int oldSize = tableSize;
+			table = ByteBuffer.allocateDirect(newSize * 4);
+			tableSize = newSize;
+			for (int slot = 0; slot < oldSize; slot++) {
+				int record = old.getInt(slot * 4) - 1;
+				if (record >= 0) {
+					putIndex(record, hashOf(record));
+				}
+			}
+		}
+		
+		/**
+		 * Returns the direct buffer which holds the given record.
+		 * 
+		 * @param  record index of the record
+		 * @return        the buffer which holds the record
+		 */
+		private ByteBuffer slab(int record) {
+			return slabs.get(record / RECORDS_PER_SLAB);
+		}
+		
+		/**
+		 * Returns the offset of the given record in its buffer.
+		 * 
+		 * @param  record index of the record
+		 * @return        the offset of the record
+		 */
+		private static int offset(int record) {
+			return (record % RECORDS_PER_SLAB) * RECORD_SIZE;
+		}
+		
+	}
+	
+}
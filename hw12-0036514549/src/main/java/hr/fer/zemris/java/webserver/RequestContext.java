@@ -1,16 +1,23 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Model of HTTP response. This class provides methods for setting header properties
@@ -20,15 +27,26 @@ import java.util.Set;
  */
 public class RequestContext {
 	
+	/**
+	 * Minimum known length of the content for it to be compressed.
+	 */
+	private static final int MIN_COMPRESSED_LENGTH = 256;
+	
+	/**
+	 * Size of the buffer used for compression.
+	 */
+	private static final int COMPRESSION_BUFFER_SIZE = 8192;
+	
 	/**
 	 * Output stream to which the response is written.
 	 */
 	private OutputStream outputStream;
 	
 	/**
-	 * Charset that is used for writing content of the response.
+	 * Charset that is used for writing content of the response. It is resolved
+	 * when the encoding is set.
 	 */
-	private Charset charset;
+	private Charset charset = StandardCharsets.UTF_8;
 	
 	/**
 	 * Encoding property of HTTP header.
@@ -75,6 +93,12 @@ public class RequestContext {
 	 */
 	private List<RCCookie> outputCookies;
 	
+	/**
+	 * Map of additional properties of HTTP header, in the order in which they
+	 * were set.
+	 */
+	private Map<String, String> headers;
+	
 	/**
 	 * Flag that indicates whether HTTP header was already generated.
 	 */
@@ -90,6 +114,52 @@ public class RequestContext {
 	 */
 	private String sid;
 	
+	/**
+	 * Flag that indicates whether the connection should be kept alive after
+	 * this response, or {@code null} if the connection is not managed by
+	 * this context.
+	 */
+	private Boolean keepAlive;
+	
+	/**
+	 * Writer used to generate the HTTP header.
+	 */
+	private ResponseHeaderWriter headerWriter;
+	
+	/**
+	 * Flag that indicates whether the content may be compressed using gzip.
+	 */
+	private boolean gzipAllowed;
+	
+	/**
+	 * Stream through which the content is compressed, or {@code null} if the
+	 * content is not compressed.
+	 */
+	private GZIPOutputStream gzipStream;
+	
+	/**
+	 * Size of the buffer of a chunk if content of unknown length may be sent
+	 * using chunked transfer encoding, 0 otherwise.
+	 */
+	private int chunkSize;
+	
+	/**
+	 * Stream through which the content is sent using chunked transfer encoding,
+	 * or {@code null} if the content is not chunked.
+	 */
+	private ChunkedOutputStream chunkedStream;
+	
+	/**
+	 * Stream through which the worker writes the content, created on demand.
+	 */
+	private OutputStream contentOutputStream;
+	
+	/**
+	 * Flag that represents whether the header is omitted from the output, so
+	 * only the content is written.
+	 */
+	private boolean headerOmitted;
+	
 	/**
 	 * Constructs a new {@code RequestContext} from the given arguments. If
 	 * either of parameter maps or cookies list is {@code null}, they are treated
@@ -166,9 +236,11 @@ public class RequestContext {
 	 * @param  encoding encoding property of HTTP response
 	 * @throws RuntimeException if this property is set after the HTTP header has
 	 *                          already been generated 
+	 * @throws IllegalArgumentException if the given encoding is not supported
 	 */
 	public void setEncoding(String encoding) {
 		checkHeaderGenerated();
+		this.charset = Charset.forName(encoding);
 		this.encoding = encoding;
 	}
 
@@ -220,6 +292,28 @@ public class RequestContext {
 		this.contentLength = contentLength;
 	}
 	
+	/**
+	 * Sets the given property of HTTP response, which is written in addition to
+	 * the standard ones. Property with the same name that was previously set is
+	 * replaced, while {@code null} value removes it.
+	 * 
+	 * @param  name  name of the property
+	 * @param  value value of the property
+	 * @throws RuntimeException if this property is set after the HTTP header has
+	 *                          already been generated 
+	 */
+	public void setHeader(String name, String value) {
+		checkHeaderGenerated();
+		if (headers == null) {
+			headers = new LinkedHashMap<>();
+		}
+		if (value == null) {
+			headers.remove(name);
+		} else {
+			headers.put(name, value);
+		}
+	}
+	
 	/**
 	 * Adds the given cookie to the header of HTTP response.
 	 * 
@@ -347,6 +441,186 @@ public class RequestContext {
 		return dispatcher;
 	}
 	
+	/**
+	 * Sets whether the connection should be kept alive after this response.
+	 * Connection is kept alive only if Content-Length of the response is known
+	 * when the header is generated, or the content is chunked.
+	 * 
+	 * @param  keepAlive {@code true} if the connection should be kept alive
+	 * @throws RuntimeException if this property is set after the HTTP header has
+	 *                          already been generated 
+	 */
+	void setKeepAlive(boolean keepAlive) {
+		checkHeaderGenerated();
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Returns {@code true} if the connection can be kept alive after this response.
+	 * 
+	 * @return {@code true} if the connection can be kept alive after this response
+	 */
+	boolean isKeepAlive() {
+		return keepAlive != null && keepAlive;
+	}
+	
+	/**
+	 * Returns the status code of HTTP response.
+	 * 
+	 * @return the status code of HTTP response
+	 */
+	int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Returns the status text of HTTP response.
+	 * 
+	 * @return the status text of HTTP response
+	 */
+	String getStatusText() {
+		return statusText;
+	}
+	
+	/**
+	 * Returns the Content-Type property of HTTP response.
+	 * 
+	 * @return the Content-Type property of HTTP response
+	 */
+	String getMimeType() {
+		return mimeType;
+	}
+	
+	/**
+	 * Returns the encoding property of HTTP response.
+	 * 
+	 * @return the encoding property of HTTP response
+	 */
+	String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * Returns the additional properties of HTTP response, or {@code null} if
+	 * none were set.
+	 * 
+	 * @return the additional properties of HTTP response
+	 */
+	Map<String, String> getHeaders() {
+		return headers;
+	}
+	
+	/**
+	 * Returns {@code true} if the HTTP header has already been generated.
+	 * 
+	 * @return {@code true} if the HTTP header has already been generated
+	 */
+	boolean isHeaderGenerated() {
+		return headerGenerated;
+	}
+	
+	/**
+	 * Omits the header from the output, so that only the content is written
+	 * and the response can be collected and sent later. Content is then
+	 * neither compressed nor chunked.
+	 * 
+	 * @throws RuntimeException if the HTTP header has already been generated 
+	 */
+	void setHeaderOmitted() {
+		checkHeaderGenerated();
+		headerOmitted = true;
+	}
+	
+	/**
+	 * Sets the writer used to generate the HTTP header, so that its buffer can
+	 * be reused for all the responses of a connection.
+	 * 
+	 * @param headerWriter writer used to generate the HTTP header
+	 */
+	void setHeaderWriter(ResponseHeaderWriter headerWriter) {
+		this.headerWriter = headerWriter;
+	}
+	
+	/**
+	 * Sets whether the content may be compressed using gzip because the client
+	 * accepts it. Content is compressed while it is being written if its type
+	 * is textual, its length is unknown or not too small, and no other content
+	 * encoding was set. Since the length of the compressed content is not known
+	 * in advance, Content-Length is not sent in that case.
+	 * 
+	 * @param  gzipAllowed {@code true} if the content may be compressed
+	 * @throws RuntimeException if this property is set after the HTTP header has
+	 *                          already been generated 
+	 */
+	void setGzipAllowed(boolean gzipAllowed) {
+		checkHeaderGenerated();
+		this.gzipAllowed = gzipAllowed;
+	}
+	
+	/**
+	 * Sets the size of the buffer of a chunk. If it is positive, content whose
+	 * length is not known when the header is generated is sent using chunked
+	 * transfer encoding, so the connection can be kept alive after it. Otherwise
+	 * the end of such content is marked by closing the connection. Chunked 
+	 * transfer encoding should only be enabled for HTTP/1.1 clients.
+	 * 
+	 * @param  chunkSize size of the buffer of a chunk, or 0 to disable chunking
+	 * @throws RuntimeException if this property is set after the HTTP header has
+	 *                          already been generated 
+	 */
+	void setChunkSize(int chunkSize) {
+		checkHeaderGenerated();
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Completes the response. If nothing was written, an empty response is
+	 * generated.
+	 * 
+	 * @throws IOException if I/O error occurs
+	 */
+	void finish() throws IOException {
+		if (!headerGenerated) {
+			if (contentLength == null) {
+				contentLength = 0L;
+			}
+			writeHeader();
+		}
+		if (gzipStream != null) {
+			gzipStream.finish();
+		}
+		if (chunkedStream != null) {
+			chunkedStream.finish();
+		}
+	}
+	
+	/**
+	 * Returns the stream through which the content of the HTTP response can be
+	 * written, for use with APIs that write to an {@link OutputStream}. Writing
+	 * to it is equivalent to calling {@code write} methods of this context, so
+	 * header is generated automatically at the first write. Closing the stream
+	 * has no effect.
+	 * 
+	 * @return the stream through which the content can be written
+	 */
+	public OutputStream getOutputStream() {
+		if (contentOutputStream == null) {
+			contentOutputStream = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					writeHeader();
+					contentStream().write(b);
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					RequestContext.this.write(b, off, len);
+				}
+			};
+		}
+		return contentOutputStream;
+	}
+	
 	/**
 	 * Writes {@code data.length} bytes from the specified byte array as content of the
 	 * HTTP response. Header is generated automatically at first call of any of
@@ -358,7 +632,7 @@ public class RequestContext {
 	 */
 	public RequestContext write(byte[] data) throws IOException {
 		writeHeader();
-		outputStream.write(data);
+		contentStream().write(data);
 		return this;
 	}
 	
@@ -375,7 +649,7 @@ public class RequestContext {
 	 */
 	public RequestContext write(byte[] data, int offset, int len) throws IOException {
 		writeHeader();
-		outputStream.write(data, offset, len);
+		contentStream().write(data, offset, len);
 		return this;
 	}
 	
@@ -391,10 +665,87 @@ public class RequestContext {
 	 */
 	public RequestContext write(String text) throws IOException {
 		writeHeader();
-		outputStream.write(text.getBytes(charset));
+		contentStream().write(text.getBytes(charset));
 		return this;
 	}
 	
+	/**
+	 * Writes {@code count} bytes of the file at the given path, starting at the
+	 * given position, as content of the HTTP response. If the underlying output 
+	 * supports it, file content is transferred directly to the client without
+	 * being copied through the Java heap. Header is generated automatically 
+	 * at first call of any of {@code write} methods.
+	 * 
+	 * @param  path     path to the file
+	 * @param  position position in the file from which to start writing
+	 * @param  count    number of bytes to write
+	 * @return          reference to this object
+	 * @throws IOException if I/O error occurs
+	 */
+	public RequestContext writeFile(Path path, long position, long count) throws IOException {
+		writeHeader();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		
+		if (contentStream() == outputStream && outputStream instanceof IFileTransferTarget) {
+			((IFileTransferTarget) outputStream).transferFile(channel, position, count);
+			return this;
+		}
+		
+		try (channel) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 8192));
+			while (count > 0) {
+				buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+				int r = channel.read(buffer, position);
+				if (r < 0) {
+					throw new EOFException("File is shorter than expected.");
+				}
+				contentStream().write(buffer.array(), 0, r);
+				position += r;
+				count -= r;
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * Returns the stream to which the content of the response is written.
+	 * 
+	 * @return the stream to which the content is written
+	 */
+	private OutputStream contentStream() {
+		if (gzipStream != null) {
+			return gzipStream;
+		}
+		return chunkedStream != null ? chunkedStream : outputStream;
+	}
+	
+	/**
+	 * Returns {@code true} if the content of the response should be compressed.
+	 * 
+	 * @return {@code true} if the content should be compressed
+	 */
+	private boolean shouldCompress() {
+		return gzipAllowed && 
+			statusCode != 204 && statusCode != 304 &&
+			(contentLength == null || contentLength >= MIN_COMPRESSED_LENGTH) &&
+			(headers == null || !headers.containsKey("Content-Encoding")) &&
+			isCompressible(mimeType);
+	}
+	
+	/**
+	 * Returns {@code true} if content of the given type is worth compressing.
+	 * 
+	 * @param  mimeType type of the content
+	 * @return          {@code true} if content of the given type is worth compressing
+	 */
+	static boolean isCompressible(String mimeType) {
+		return mimeType.startsWith("text/") ||
+			mimeType.equals("application/javascript") ||
+			mimeType.equals("application/json") ||
+			mimeType.equals("application/xml") ||
+			mimeType.equals("image/svg+xml");
+	}
+	
 	/**
 	 * Checks if HTTP header has already been generated by throwing {@link RuntimeException}
 	 * if it has been.
@@ -416,38 +767,75 @@ public class RequestContext {
 		if (headerGenerated) {
 			return;
 		}
+		if (headerOmitted) {
+			headerGenerated = true;
+			return;
+		}
 		
-		charset = Charset.forName(encoding);
+		if (headerWriter == null) {
+			headerWriter = new ResponseHeaderWriter();
+		}
 		
-		StringBuilder sb = new StringBuilder();
-		sb.append("HTTP/1.1 " + statusCode + " " + statusText + "\r\n");
-		sb.append("Content-Type: " + mimeType);
-		sb.append(mimeType.startsWith("text/") ? "; charset=" + encoding : "");
-		sb.append("\r\n");
-		sb.append(contentLength != null ? "Content-Length: " + contentLength + "\r\n" : "");
+		boolean compress = shouldCompress();
+		if (compress) {
+			contentLength = null;
+			setHeader("Content-Encoding", "gzip");
+			setHeader("Vary", "Accept-Encoding");
+		}
+		
+		ResponseHeaderWriter hw = headerWriter;
+		hw.statusLine(statusCode, statusText);
+		hw.contentTypeLine(mimeType, encoding);
+		if (contentLength != null) {
+			hw.headerLine("Content-Length", contentLength);
+		}
+		
+		boolean chunked = contentLength == null && chunkSize > 0 && 
+			statusCode != 204 && statusCode != 304;
+		if (chunked) {
+			hw.headerLine("Transfer-Encoding", "chunked");
+		}
+		
+		if (keepAlive != null) {
+			keepAlive = keepAlive && (contentLength != null || chunked);
+			hw.headerLine("Connection", keepAlive ? "keep-alive" : "close");
+		}
+		
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				hw.headerLine(header.getKey(), header.getValue());
+			}
+		}
 		
 		for (RCCookie cookie : outputCookies) {
-			sb.append("Set-Cookie: ");
-			sb.append(String.format("%s=\"%s\"", cookie.getName(), cookie.getValue()));
+			hw.append("Set-Cookie: ").append(cookie.getName());
+			hw.append("=\"").append(String.valueOf(cookie.getValue())).append('"');
 			if (cookie.getDomain() != null) {
-				sb.append("; Domain=" + cookie.getDomain());
+				hw.append("; Domain=").append(cookie.getDomain());
 			}
 			if (cookie.getPath() != null) {
-				sb.append("; Path=" + cookie.getPath());
+				hw.append("; Path=").append(cookie.getPath());
 			}
 			if (cookie.getMaxAge() != null) {
-				sb.append("; MaxAge=" + cookie.getMaxAge());
+				hw.append("; MaxAge=").append(cookie.getMaxAge());
 			}
 			if (cookie.isHttpOnly()) {
-				sb.append("; HttpOnly");
+				hw.append("; HttpOnly");
 			}
-			sb.append("\r\n");
+			hw.crlf();
 		}
 		
-		sb.append("\r\n");
+		hw.crlf();
+		hw.writeTo(outputStream);
 		
-		byte[] bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
-		outputStream.write(bytes);
+		if (chunked) {
+			chunkedStream = new ChunkedOutputStream(outputStream, chunkSize);
+		}
+		if (compress) {
+			gzipStream = new GZIPOutputStream(
+				chunked ? chunkedStream : outputStream, COMPRESSION_BUFFER_SIZE
+			);
+		}
 		headerGenerated = true;
 	}
 	
@@ -0,0 +1,251 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writer of HTTP response headers. Header is assembled directly as bytes in a
+ * buffer that is reused for all the responses of a connection and is written
+ * to the output at once. Encoded status lines and Content-Type lines are
+ * cached and shared by all writers, since only a few distinct ones are used.
+ * Strings are encoded as ISO-8859-1. Instances are not thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+class ResponseHeaderWriter {
+	
+	/**
+	 * Maximum number of cached Content-Type lines.
+	 */
+	private static final int MAX_CACHED_CONTENT_TYPES = 256;
+	
+	/**
+	 * Line terminator.
+	 */
+	private static final byte[] CRLF = {'\r', '\n'};
+	
+	/**
+	 * Cached status lines by status code.
+	 */
+	private static final Map<Integer, CachedLine> STATUS_LINES = new ConcurrentHashMap<>();
+	
+	/**
+	 * Cached Content-Type lines by MIME type, for the default encoding. Only
+	 * MIME types without parameters are cached, since parameters such as the
+	 * boundary of a multipart response differ between responses.
+	 */
+	private static final Map<String, byte[]> CONTENT_TYPE_LINES = new ConcurrentHashMap<>();
+	
+	/**
+	 * Model of a cached line that was generated from the given text.
+	 */
+	private static class CachedLine {
+		
+		/**
+		 * Text from which the line was generated.
+		 */
+		final String text;
+		
+		/**
+		 * Encoded line.
+		 */
+		final byte[] bytes;
+		
+		/**
+		 * Constructs a new {@code CachedLine} from the given arguments.
+		 * 
+		 * @param text  text from which the line was generated
+		 * @param bytes encoded line
+		 */
+		CachedLine(String text, byte[] bytes) {
+			this.text = text;
+			this.bytes = bytes;
+		}
+		
+	}
+	
+	/**
+	 * Buffer in which the header is assembled.
+	 */
+	private byte[] buffer = new byte[256];
+	
+	/**
+	 * Number of bytes in the buffer.
+	 */
+	private int length;
+	
+	/**
+	 * Appends the status line with the given status code and status text.
+	 * 
+	 * @param  statusCode status code of the response
+	 * @param  statusText status text of the response
+	 * @return            reference to this object
+	 */
+	public ResponseHeaderWriter statusLine(int statusCode, String statusText) {
+		CachedLine line = STATUS_LINES.get(statusCode);
+		if (line == null || !line.text.equals(statusText)) {
+			int start = length;
+			append("HTTP/1.1 ").append(statusCode).append(' ').append(statusText).crlf();
+			if (line == null && statusCode >= 100 && statusCode <= 999) {
+				STATUS_LINES.putIfAbsent(statusCode,
+					new CachedLine(statusText, Arrays.copyOfRange(buffer, start, length)));
+			}
+			return this;
+		}
+		return append(line.bytes);
+	}
+	
+	/**
+	 * Appends the Content-Type line with the given MIME type. Text types are
+	 * given the charset parameter.
+	 * 
+	 * @param  mimeType MIME type of the response
+	 * @param  encoding encoding of the response
+	 * @return          reference to this object
+	 */
+	public ResponseHeaderWriter contentTypeLine(String mimeType, String encoding) {
+		boolean cacheable = encoding.equals("UTF-8") && mimeType.indexOf(';') < 0;
+		byte[] line = cacheable ? CONTENT_TYPE_LINES.get(mimeType) : null;
+		if (line != null) {
+			return append(line);
+		}
+		
+		int start = length;
+		append("Content-Type: ").append(mimeType);
+		if (mimeType.startsWith("text/")) {
+			append("; charset=").append(encoding);
+		}
+		crlf();
+		
+		if (cacheable && CONTENT_TYPE_LINES.size() < MAX_CACHED_CONTENT_TYPES) {
+			CONTENT_TYPE_LINES.putIfAbsent(mimeType, Arrays.copyOfRange(buffer, start, length));
+		}
+		return this;
+	}
+	
+	/**
+	 * Appends the header line with the given name and numeric value.
+	 * 
+	 * @param  name  name of the header
+	 * @param  value value of the header
+	 * @return       reference to this object
+	 */
+	public ResponseHeaderWriter headerLine(String name, long value) {
+		return append(name).append(": ").append(value).crlf();
+	}
+	
+	/**
+	 * Appends the header line with the given name and value.
+	 * 
+	 * @param  name  name of the header
+	 * @param  value value of the header
+	 * @return       reference to this object
+	 */
+	public ResponseHeaderWriter headerLine(String name, String value) {
+		return append(name).append(": ").append(value).crlf();
+	}
+	
+	/**
+	 * Appends the given string encoded as ISO-8859-1. Characters which cannot
+	 * be encoded are replaced with {@code '?'}.
+	 * 
+	 * @param  s string to be appended
+	 * @return   reference to this object
+	 */
+	public ResponseHeaderWriter append(String s) {
+		ensureCapacity(s.length());
+		for (int i = 0, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			buffer[length++] = (byte) (c <= 0xFF ? c : '?');
+		}
+		return this;
+	}
+	
+	/**
+	 * Appends the given character encoded as ISO-8859-1.
+	 * 
+	 * @param  c character to be appended
+	 * @return   reference to this object
+	 */
+	public ResponseHeaderWriter append(char c) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) (c <= 0xFF ? c : '?');
+		return this;
+	}
+	
+	/**
+	 * Appends the decimal representation of the given number.
+	 * 
+	 * @param  value number to be appended
+	 * @return       reference to this object
+	 */
+	public ResponseHeaderWriter append(long value) {
+		if (value < 0) {
+			return append(Long.toString(value));
+		}
+		
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		ensureCapacity(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+		return this;
+	}
+	
+	/**
+	 * Appends the given bytes.
+	 * 
+	 * @param  bytes bytes to be appended
+	 * @return       reference to this object
+	 */
+	public ResponseHeaderWriter append(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+		return this;
+	}
+	
+	/**
+	 * Appends the line terminator.
+	 * 
+	 * @return reference to this object
+	 */
+	public ResponseHeaderWriter crlf() {
+		return append(CRLF);
+	}
+	
+	/**
+	 * Writes the assembled header to the given output stream and empties the
+	 * buffer.
+	 * 
+	 * @param  os output stream to which the header is written
+	 * @throws IOException if I/O error occurs
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		try {
+			os.write(buffer, 0, length);
+		} finally {
+			length = 0;
+		}
+	}
+	
+	/**
+	 * Grows the buffer if it cannot hold the given number of additional bytes.
+	 * 
+	 * @param additional number of additional bytes
+	 */
+	private void ensureCapacity(int additional) {
+		if (length + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + additional));
+		}
+	}
+	
+}
@@ -0,0 +1,437 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Router which maps URL paths to handlers. Routes are kept in a trie whose
+ * edges are the segments of the path, so the cost of routing depends only on
+ * the number of segments of the path and not on the number of routes.
+ * <p>
+ * Route is either exact, in which case it matches only the given path, or a
+ * prefix, in which case it matches the given path and all paths below it.
+ * Segment of the form {@code {name}} matches any single segment, whose value
+ * is then available as a path parameter with the given name. When more routes
+ * match a path, exact route is preferred over a prefix, literal segment over a
+ * parameter, and longer prefix over a shorter one. Paths which are not matched
+ * by any route are routed to the fallback handler.
+ * <p>
+ * Routes should be added before the router is used. Routing is thread-safe as
+ * long as no routes are added at the same time.
+ * 
+ * @author Matija Frandolić
+ * @param <H> type of the handlers
+ */
+public class Router<H> {
+	
+	/**
+	 * Root of the trie, which corresponds to the path {@code /}.
+	 */
+	private Node<H> root = new Node<>();
+	
+	/**
+	 * Handler of the paths which are not matched by any route.
+	 */
+	private H fallback;
+	
+	/**
+	 * Maximum number of path parameters of any route.
+	 */
+	private int maxParameters;
+	
+	/**
+	 * Adds the route which matches only the given path.
+	 * 
+	 * @param  pattern path, which may contain parameter segments
+	 * @param  handler handler of the path
+	 * @throws NullPointerException if the pattern or the handler is {@code null}
+	 * @throws IllegalArgumentException if the pattern is invalid or the same
+	 *                                  route was already added
+	 */
+	public void addExact(String pattern, H handler) {
+		Node<H> node = nodeFor(pattern);
+		if (node.exact != null) {
+			throw new IllegalArgumentException("Route already exists: " + pattern + ".");
+		}
+		node.exact = new Route<>(Objects.requireNonNull(handler), pattern, parameterNames(pattern));
+	}
+	
+	/**
+	 * Adds the route which matches the given path and all paths below it. Part
+	 * of the path below the prefix is available as the remainder of the match.
+	 * 
+	 * @param  pattern prefix of the paths, which may contain parameter segments
+	 *                 and may end with a slash
+	 * @param  handler handler of the paths
+	 * @throws NullPointerException if the pattern or the handler is {@code null}
+	 * @throws IllegalArgumentException if the pattern is invalid or the same
+	 *                                  route was already added
+	 */
+	public void addPrefix(String pattern, H handler) {
+		if (pattern.length() > 1 && pattern.endsWith("/")) {
+			pattern = pattern.substring(0, pattern.length() - 1);
+		}
+		Node<H> node = pattern.equals("/") ? root : nodeFor(pattern);
+		if (node.prefix != null) {
+			throw new IllegalArgumentException("Route already exists: " + pattern + "/.");
+		}
+		node.prefix = new Route<>(
+			Objects.requireNonNull(handler), (pattern.equals("/") ? "" : pattern) + "/*", parameterNames(pattern)
+		);
+	}
+	
+	/**
+	 * Sets the handler of the paths which are not matched by any route.
+	 * 
+	 * @param handler handler of the paths which are not matched
+	 */
+	public void setFallback(H handler) {
+		this.fallback = handler;
+	}
+	
+	/**
+	 * Routes the given path. If the path is not matched by any route, returned
+	 * match holds the fallback handler, which may be {@code null}.
+	 * 
+	 * @param  path path to be routed
+	 * @return      the match of the path
+	 */
+	public Match<H> route(String path) {
+		if (path.startsWith("/")) {
+			String[] values = maxParameters == 0 ? null : new String[maxParameters];
+			Match<H> match = match(root, path, 1, values, 0);
+			if (match != null) {
+				return match;
+			}
+		}
+		return new Match<>(fallback, null, path, Collections.emptyMap(), path);
+	}
+	
+	/**
+	 * Resolves the segments {@code .} and {@code ..} of the given path, so that
+	 * the path is routed and served the same way as the resource it refers to.
+	 * Path which does not contain such segments is returned as it is.
+	 * 
+	 * @param  path path to be normalized
+	 * @return      the normalized path, or {@code null} if the path refers to
+	 *              a parent of the root
+	 */
+	public static String normalize(String path) {
+		if (!path.startsWith("/") || !path.contains("/.")) {
+			return path;
+		}
+		
+		String[] segments = path.substring(1).split("/", -1);
+		List<String> normalized = new ArrayList<>(segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			if (segment.equals("..")) {
+				if (normalized.isEmpty()) {
+					return null;
+				}
+				normalized.remove(normalized.size() - 1);
+			} else if (!segment.equals(".")) {
+				normalized.add(segment);
+				continue;
+			}
+			// path which ends with . or .. refers to a directory
+			if (i == segments.length - 1) {
+				normalized.add("");
+			}
+		}
+		return "/" + String.join("/", normalized);
+	}
+	
+	/**
+	 * Matches the part of the path which starts at the given position against
+	 * the subtree of the given node.
+	 * 
+	 * @param  node   node which corresponds to the part of the path before
+	 *                the given position
+	 * @param  path   path to be routed
+	 * @param  start  position of the next segment, or a position after the end
+	 *                of the path if there are no more segments
+	 * @param  values values of the parameters matched so far
+	 * @param  count  number of the parameters matched so far
+	 * @return        the match, or {@code null} if no route matches
+	 */
+	private Match<H> match(Node<H> node, String path, int start, String[] values, int count) {
+		if (start > path.length()) {
+			Route<H> route = node.exact != null ? node.exact : node.prefix;
+			return route == null ? null : route.match(path, values, "");
+		}
+		
+		int end = path.indexOf('/', start);
+		if (end < 0) {
+			end = path.length();
+		}
+		String segment = path.substring(start, end);
+		
+		Node<H> child = node.children == null ? null : node.children.get(segment);
+		if (child != null) {
+			Match<H> match = match(child, path, end + 1, values, count);
+			if (match != null) {
+				return match;
+			}
+		}
+		if (node.parameter != null) {
+			values[count] = segment;
+			Match<H> match = match(node.parameter, path, end + 1, values, count + 1);
+			if (match != null) {
+				return match;
+			}
+		}
+		return node.prefix == null ? null : node.prefix.match(path, values, path.substring(start));
+	}
+	
+	/**
+	 * Returns the node which corresponds to the given pattern, creating the
+	 * missing nodes.
+	 * 
+	 * @param  pattern pattern of the path
+	 * @return         the node which corresponds to the pattern
+	 * @throws IllegalArgumentException if the pattern does not start with a slash
+	 */
+	private Node<H> nodeFor(String pattern) {
+		if (!pattern.startsWith("/")) {
+			throw new IllegalArgumentException("Route must start with '/': " + pattern + ".");
+		}
+		
+		Node<H> node = root;
+		int parameters = 0;
+		for (String segment : pattern.substring(1).split("/", -1)) {
+			if (isParameter(segment)) {
+				if (node.parameter == null) {
+					node.parameter = new Node<>();
+				}
+				node = node.parameter;
+				parameters++;
+			} else {
+				if (node.children == null) {
+					node.children = new HashMap<>();
+				}
+				node = node.children.computeIfAbsent(segment, s -> new Node<>());
+			}
+		}
+		maxParameters = Math.max(maxParameters, parameters);
+		return node;
+	}
+	
+	/**
+	 * Returns the names of the parameters of the given pattern, in order.
+	 * 
+	 * @param  pattern pattern of the path
+	 * @return         the names of the parameters
+	 */
+	private static String[] parameterNames(String pattern) {
+		return Arrays.stream(pattern.substring(1).split("/", -1))
+			.filter(Router::isParameter)
+			.map(s -> s.substring(1, s.length() - 1))
+			.toArray(String[]::new);
+	}
+	
+	/**
+	 * Returns {@code true} if the given segment of a pattern is a parameter.
+	 * 
+	 * @param  segment segment of a pattern
+	 * @return         {@code true} if the segment is a parameter
+	 */
+	private static boolean isParameter(String segment) {
+		return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+	}
+	
+	/**
+	 * Result of routing a path.
+	 * 
+	 * @param <H> type of the handler
+	 */
+	public static class Match<H> {
+		
+		/**
+		 * Handler of the path.
+		 */
+		private H handler;
+		
+		/**
+		 * Pattern of the matched route, or {@code null} for the fallback.
+		 */
+		private String pattern;
+		
+		/**
+		 * Routed path.
+		 */
+		private String path;
+		
+		/**
+		 * Values of the path parameters by name.
+		 */
+		private Map<String, String> parameters;
+		
+		/**
+		 * Part of the path below the matched prefix.
+		 */
+		private String remainder;
+		
+		/**
+		 * Constructs a new {@code Match} from the given arguments.
+		 * 
+		 * @param handler    handler of the path
+		 * @param pattern    pattern of the matched route, or {@code null} for
+		 *                   the fallback
+		 * @param path       routed path
+		 * @param parameters values of the path parameters by name
+		 * @param remainder  part of the path below the matched prefix
+		 */
+		Match(H handler, String pattern, String path, Map<String, String> parameters, String remainder) {
+			this.handler = handler;
+			this.pattern = pattern;
+			this.path = path;
+			this.parameters = parameters;
+			this.remainder = remainder;
+		}
+		
+		/**
+		 * Returns the handler of the path.
+		 * 
+		 * @return the handler of the path
+		 */
+		public H getHandler() {
+			return handler;
+		}
+		
+		/**
+		 * Returns the pattern of the matched route, which identifies the route
+		 * regardless of the values of its parameters. Pattern of a prefix route
+		 * ends with {@code /*}. For the fallback handler, it is {@code null}.
+		 * 
+		 * @return the pattern of the matched route, or {@code null}
+		 */
+		public String getPattern() {
+			return pattern;
+		}
+		
+		/**
+		 * Returns the routed path.
+		 * 
+		 * @return the routed path
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * Returns an unmodifiable map of values of the path parameters by name.
+		 * 
+		 * @return the values of the path parameters
+		 */
+		public Map<String, String> getParameters() {
+			return parameters;
+		}
+		
+		/**
+		 * Returns the part of the path below the matched prefix, without the
+		 * leading slash. For exact routes, it is an empty string, and for the
+		 * fallback handler, it is the whole path.
+		 * 
+		 * @return the part of the path below the matched prefix
+		 */
+		public String getRemainder() {
+			return remainder;
+		}
+		
+	}
+	
+	/**
+	 * Route stored in a node of the trie.
+	 * 
+	 * @param <H> type of the handler
+	 */
+	private static class Route<H> {
+		
+		/**
+		 * Handler of the route.
+		 */
+		private H handler;
+		
+		/**
+		 * Pattern of the route.
+		 */
+		private String pattern;
+		
+		/**
+		 * Names of the path parameters of the route, in order.
+		 */
+		private String[] parameterNames;
+		
+		/**
+		 * Constructs a new {@code Route} from the given arguments.
+		 * 
+		 * @param handler        handler of the route
+		 * @param pattern        pattern of the route
+		 * @param parameterNames names of the path parameters of the route
+		 */
+		public Route(H handler, String pattern, String[] parameterNames) {
+			this.handler = handler;
+			this.pattern = pattern;
+			this.parameterNames = parameterNames;
+		}
+		
+		/**
+		 * Creates the match of the given path by this route.
+		 * 
+		 * @param  path      routed path
+		 * @param  values    values of the path parameters, in order
+		 * @param  remainder part of the path below the matched prefix
+		 * @return           the match of the path
+		 */
+		public Match<H> match(String path, String[] values, String remainder) {
+			if (parameterNames.length == 0) {
+				return new Match<>(handler, pattern, path, Collections.emptyMap(), remainder);
+			}
+			Map<String, String> parameters = new LinkedHashMap<>();
+			for (int i = 0; i < parameterNames.length; i++) {
+				parameters.put(parameterNames[i], values[i]);
+			}
+			return new Match<>(handler, pattern, path, Collections.unmodifiableMap(parameters), remainder);
+		}
+		
+	}
+	
+	/**
+	 * Node of the trie.
+	 * 
+	 * @param <H> type of the handlers
+	 */
+	private static class Node<H> {
+		
+		/**
+		 * Children of this node by literal segment, or {@code null} if there
+		 * are none.
+		 */
+		private Map<String, Node<H>> children;
+		
+		/**
+		 * Child of this node which matches any segment, or {@code null}.
+		 */
+		private Node<H> parameter;
+		
+		/**
+		 * Route which matches exactly the path of this node, or {@code null}.
+		 */
+		private Route<H> exact;
+		
+		/**
+		 * Route which matches the path of this node and all paths below it,
+		 * or {@code null}.
+		 */
+		private Route<H> prefix;
+		
+	}
+	
+}
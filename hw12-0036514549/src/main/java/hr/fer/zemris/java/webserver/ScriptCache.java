@@ -0,0 +1,313 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptProgram;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * Cache of parsed {@code SmartScript} documents, together with the programs
+ * they are compiled into. Documents are kept by the path of the script file
+ * and are parsed and compiled again only if the last modified time or the
+ * size of the file changed since it was last parsed. Script which is already
+ * being parsed for another request is not parsed again; the request waits
+ * for that document instead. Cache holds at most a fixed number of documents
+ * and evicts the least recently used one when it is full. Numbers of cache
+ * hits and misses are counted. This class is thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class ScriptCache {
+	
+	/**
+	 * Model of a cached document.
+	 */
+	private static class CacheEntry {
+		
+		/**
+		 * Parsed document.
+		 */
+		DocumentNode documentNode;
+		
+		/**
+		 * Script which the document is compiled into.
+		 */
+		CompiledScript program;
+		
+		/**
+		 * Last modified time of the file when it was parsed.
+		 */
+		FileTime lastModified;
+		
+		/**
+		 * Size of the file when it was parsed.
+		 */
+		long size;
+		
+		/**
+		 * Checks whether the document was parsed from the file with the given
+		 * attributes.
+		 * 
+		 * @param  attributes current attributes of the file
+		 * @return            {@code true} if the file has not changed since it
+		 *                    was parsed, {@code false} otherwise
+		 */
+		boolean matches(BasicFileAttributes attributes) {
+			return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+		}
+		
+	}
+	
+	/**
+	 * Maximum number of cached documents.
+	 */
+	private int capacity;
+	
+	/**
+	 * Function which compiles the parsed documents.
+	 */
+	private Function<DocumentNode, CompiledScript> compiler;
+	
+	/**
+	 * Map of cached documents in access order.
+	 */
+	private Map<Path, CacheEntry> entries;
+	
+	/**
+	 * Map of documents which are currently being parsed.
+	 */
+	private Map<Path, CompletableFuture<CacheEntry>> loading = new HashMap<>();
+	
+	/**
+	 * Number of requests for which the cached document, or the document parsed
+	 * for another request, was used.
+	 */
+	private LongAdder hits = new LongAdder();
+	
+	/**
+	 * Number of requests for which the document had to be parsed.
+	 */
+	private LongAdder misses = new LongAdder();
+	
+	/**
+	 * Constructs a new {@code ScriptCache} which holds at most the given number
+	 * of documents and compiles them into {@link ScriptProgram}s.
+	 * 
+	 * @param  capacity maximum number of cached documents
+	 * @throws IllegalArgumentException if capacity is negative
+	 */
+	public ScriptCache(int capacity) {
+		this(capacity, ScriptProgram::compile);
+	}
+	
+	/**
+	 * Constructs a new {@code ScriptCache} which holds at most the given number
+	 * of documents and compiles them with the given function.
+	 * 
+	 * @param  capacity maximum number of cached documents
+	 * @param  compiler function which compiles the parsed documents
+	 * @throws IllegalArgumentException if capacity is negative
+	 */
+	public ScriptCache(int capacity, Function<DocumentNode, CompiledScript> compiler) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative.");
+		}
+		this.capacity = capacity;
+		this.compiler = compiler;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, CacheEntry> eldest) {
+				return size() > ScriptCache.this.capacity;
+			}
+			
+		};
+	}
+	
+	/**
+	 * Returns the parsed document of the script at the given path. Script is
+	 * parsed if it is not cached or if it was modified since it was cached.
+	 * 
+	 * @param  scriptPath path to the script
+	 * @return            parsed document of the script
+	 * @throws IOException if I/O error occurs
+	 * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+	 *                     if the script cannot be parsed
+	 */
+	public DocumentNode get(Path scriptPath) throws IOException {
+		return entry(scriptPath).documentNode;
+	}
+	
+	/**
+	 * Returns the compiled script at the given path. Script is parsed and
+	 * compiled if it is not cached or if it was modified since it was cached.
+	 * 
+	 * @param  scriptPath path to the script
+	 * @return            compiled script
+	 * @throws IOException if I/O error occurs
+	 * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+	 *                     if the script cannot be parsed
+	 */
+	public CompiledScript getProgram(Path scriptPath) throws IOException {
+		return entry(scriptPath).program;
+	}
+	
+	/**
+	 * Returns the cache entry of the script at the given path, parsing and
+	 * compiling the script if it is not cached or if it was modified since it
+	 * was cached. If the script is already being parsed for another request,
+	 * that document is awaited instead.
+	 * 
+	 * @param  scriptPath path to the script
+	 * @return            cache entry of the script
+	 * @throws IOException if I/O error occurs
+	 */
+	private CacheEntry entry(Path scriptPath) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(scriptPath, BasicFileAttributes.class);
+		
+		CompletableFuture<CacheEntry> future;
+		while (true) {
+			synchronized (entries) {
+				CacheEntry entry = entries.get(scriptPath);
+				if (entry != null && entry.matches(attributes)) {
+					hits.increment();
+					return entry;
+				}
+				
+				future = loading.get(scriptPath);
+				if (future == null) {
+					loading.put(scriptPath, new CompletableFuture<>());
+					break;
+				}
+			}
+			
+			CacheEntry entry = await(future);
+			if (entry.matches(attributes)) {
+				hits.increment();
+				return entry;
+			}
+			// script was parsed before it was modified, so it is parsed again
+		}
+		
+		misses.increment();
+		CacheEntry entry = new CacheEntry();
+		try (Reader reader = new InputStreamReader(Files.newInputStream(scriptPath), StandardCharsets.UTF_8)) {
+			entry.documentNode = new SmartScriptParser(reader).getDocumentNode();
+			entry.program = compiler.apply(entry.documentNode);
+		} catch (UncheckedIOException e) {
+			failLoading(scriptPath, e.getCause());
+			throw e.getCause();
+		} catch (IOException | RuntimeException | Error e) {
+			failLoading(scriptPath, e);
+			throw e;
+		}
+		entry.lastModified = attributes.lastModifiedTime();
+		entry.size = attributes.size();
+		
+		synchronized (entries) {
+			entries.put(scriptPath, entry);
+			future = loading.remove(scriptPath);
+		}
+		future.complete(entry);
+		return entry;
+	}
+	
+	/**
+	 * Waits for the document which is being parsed for another request.
+	 * 
+	 * @param  future future which is completed with the cache entry of the
+	 *                document
+	 * @return        cache entry of the document
+	 * @throws IOException if I/O error occurred while the script was read
+	 */
+	private static CacheEntry await(CompletableFuture<CacheEntry> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+	}
+	
+	/**
+	 * Completes the loading of the script at the given path with the given
+	 * exception, which is then thrown to the requests waiting for it.
+	 * 
+	 * @param scriptPath path to the script
+	 * @param e          exception which occurred while the script was parsed
+	 */
+	private void failLoading(Path scriptPath, Throwable e) {
+		CompletableFuture<CacheEntry> future;
+		synchronized (entries) {
+			future = loading.remove(scriptPath);
+		}
+		future.completeExceptionally(e);
+	}
+	
+	/**
+	 * Returns the number of requests for which the cached document was used.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of requests for which the document had to be parsed.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * Returns the share of lookups which found the script in the cache, or 0
+	 * if there were no lookups yet.
+	 * 
+	 * @return the ratio of hits to all lookups
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+	
+	/**
+	 * Returns the number of currently cached documents.
+	 * 
+	 * @return the number of currently cached documents
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+}
@@ -0,0 +1,301 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Recorder of operational metrics of {@link SmartHttpServer}. Requests are
+ * counted and their latencies recorded per route. Number of bytes written,
+ * number of active connections, number of tasks waiting for a worker thread
+ * and the time they waited, and number of rejected requests are recorded as
+ * well. Other values, such as the number of sessions,
+ * can be registered as gauges which are read when the report is generated.
+ * <p>
+ * All counters are striped ({@link LongAdder}), so recording from many
+ * threads at once is cheap. Number of distinct routes is limited; requests
+ * for routes beyond the limit are recorded under {@link #OTHER_ROUTE}. This
+ * class is thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class ServerMetrics {
+	
+	/**
+	 * Route under which requests for routes beyond the limit are recorded.
+	 */
+	public static final String OTHER_ROUTE = "(other)";
+	
+	/**
+	 * Percentiles of latencies which are reported.
+	 */
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	
+	/**
+	 * Labels of the reported percentiles, as quantiles.
+	 */
+	private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+	
+	/**
+	 * Maximum number of distinct routes.
+	 */
+	private int maxRoutes;
+	
+	/**
+	 * Histograms of latencies by route.
+	 */
+	private Map<String, LatencyHistogram> routes = new ConcurrentHashMap<>();
+	
+	/**
+	 * Number of bytes written to clients.
+	 */
+	private LongAdder bytesWritten = new LongAdder();
+	
+	/**
+	 * Number of currently open connections.
+	 */
+	private LongAdder activeConnections = new LongAdder();
+	
+	/**
+	 * Number of tasks waiting for a worker thread.
+	 */
+	private LongAdder queuedTasks = new LongAdder();
+	
+	/**
+	 * Histogram of times that tasks waited for a worker thread.
+	 */
+	private LatencyHistogram queueWait = new LatencyHistogram();
+	
+	/**
+	 * Number of requests rejected because the server was saturated.
+	 */
+	private LongAdder rejectedRequests = new LongAdder();
+	
+	/**
+	 * Gauges by name, in the order in which they are reported.
+	 */
+	private Map<String, Supplier<Number>> gauges = new TreeMap<>();
+	
+	/**
+	 * Constructs a new {@code ServerMetrics} which records at most the given
+	 * number of distinct routes.
+	 * 
+	 * @param  maxRoutes maximum number of distinct routes
+	 * @throws IllegalArgumentException if the number of routes is not positive
+	 */
+	public ServerMetrics(int maxRoutes) {
+		if (maxRoutes <= 0) {
+			throw new IllegalArgumentException("Maximum number of routes must be positive.");
+		}
+		this.maxRoutes = maxRoutes;
+	}
+	
+	/**
+	 * Records a request for the given route which took the given time.
+	 * 
+	 * @param route route of the request
+	 * @param nanos duration of the request (in nanoseconds)
+	 */
+	public void recordRequest(String route, long nanos) {
+		LatencyHistogram histogram = routes.get(route);
+		if (histogram == null) {
+			if (routes.size() >= maxRoutes) {
+				route = OTHER_ROUTE;
+			}
+			histogram = routes.computeIfAbsent(route, r -> new LatencyHistogram());
+		}
+		histogram.record(nanos / 1000);
+	}
+	
+	/**
+	 * Adds the given number of bytes to the number of bytes written to clients.
+	 * 
+	 * @param count number of bytes written
+	 */
+	public void addBytesWritten(long count) {
+		bytesWritten.add(count);
+	}
+	
+	/**
+	 * Records that a connection was opened.
+	 */
+	public void connectionOpened() {
+		activeConnections.increment();
+	}
+	
+	/**
+	 * Records that a connection was closed.
+	 */
+	public void connectionClosed() {
+		activeConnections.decrement();
+	}
+	
+	/**
+	 * Records that a task was submitted to the worker threads.
+	 */
+	public void taskQueued() {
+		queuedTasks.increment();
+	}
+	
+	/**
+	 * Records that a task was taken by a worker thread after waiting for the
+	 * given time.
+	 * 
+	 * @param waitNanos time that the task waited (in nanoseconds)
+	 */
+	public void taskStarted(long waitNanos) {
+		queuedTasks.decrement();
+		queueWait.record(waitNanos / 1000);
+	}
+	
+	/**
+	 * Records that a task which was counted as queued was rejected by the
+	 * worker threads, and so was its request.
+	 */
+	public void taskRejected() {
+		queuedTasks.decrement();
+		requestRejected();
+	}
+	
+	/**
+	 * Records that a request was rejected because the server was saturated.
+	 */
+	public void requestRejected() {
+		rejectedRequests.increment();
+	}
+	
+	/**
+	 * Registers the gauge with the given name, whose value is read from the
+	 * given supplier when the report is generated.
+	 * 
+	 * @param name  name of the gauge
+	 * @param value supplier of the value of the gauge
+	 */
+	public void registerGauge(String name, Supplier<Number> value) {
+		synchronized (gauges) {
+			gauges.put(name, value);
+		}
+	}
+	
+	/**
+	 * Returns the histogram of latencies of the given route, or {@code null}
+	 * if no requests were recorded for it.
+	 * 
+	 * @param  route route of the requests
+	 * @return       the histogram of latencies, or {@code null}
+	 */
+	public LatencyHistogram getHistogram(String route) {
+		return routes.get(route);
+	}
+	
+	/**
+	 * Returns the number of bytes written to clients.
+	 * 
+	 * @return the number of bytes written to clients
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+	
+	/**
+	 * Returns the number of currently open connections.
+	 * 
+	 * @return the number of currently open connections
+	 */
+	public long getActiveConnections() {
+		return activeConnections.sum();
+	}
+	
+	/**
+	 * Returns the number of tasks waiting for a worker thread.
+	 * 
+	 * @return the number of tasks waiting for a worker thread
+	 */
+	public long getQueuedTasks() {
+		return queuedTasks.sum();
+	}
+	
+	/**
+	 * Returns the histogram of times that tasks waited for a worker thread.
+	 * 
+	 * @return the histogram of times that tasks waited for a worker thread
+	 */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+	
+	/**
+	 * Returns the number of requests rejected because the server was saturated.
+	 * 
+	 * @return the number of rejected requests
+	 */
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+	
+	/**
+	 * Generates the report of all metrics in a simple text format, one value
+	 * per line. Latencies are reported in microseconds.
+	 * 
+	 * @return the report of all metrics
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(routes).entrySet()) {
+			String route = entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"");
+			LatencyHistogram histogram = entry.getValue();
+			sb.append("requests_total{route=\"").append(route).append("\"} ")
+				.append(histogram.getCount()).append('\n');
+			appendHistogram(sb, "request_latency_us", "route=\"" + route + "\"", histogram);
+		}
+		
+		sb.append("requests_rejected_total ").append(getRejectedRequests()).append('\n');
+		appendHistogram(sb, "queue_wait_us", null, queueWait);
+		
+		sb.append("bytes_written_total ").append(getBytesWritten()).append('\n');
+		sb.append("active_connections ").append(getActiveConnections()).append('\n');
+		sb.append("worker_queue_depth ").append(getQueuedTasks()).append('\n');
+		
+		synchronized (gauges) {
+			for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet()) {
+				Number value = gauge.getValue().get();
+				sb.append(gauge.getKey()).append(' ');
+				if (value instanceof Double || value instanceof Float) {
+					sb.append(String.format(Locale.ROOT, "%.4f", value.doubleValue()));
+				} else {
+					sb.append(value);
+				}
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Appends the percentiles, mean and maximum of the given histogram to the
+	 * report, under the given name and with the given labels.
+	 * 
+	 * @param sb        builder of the report
+	 * @param name      name of the histogram
+	 * @param labels    labels of the histogram, or {@code null} if it has none
+	 * @param histogram histogram to be reported
+	 */
+	private static void appendHistogram(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+		String prefix = labels == null ? "" : labels + ",";
+		String suffix = labels == null ? " " : "{" + labels + "} ";
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			sb.append(name).append('{').append(prefix)
+				.append("quantile=\"").append(QUANTILES[i]).append("\"} ")
+				.append(histogram.getValueAtPercentile(PERCENTILES[i])).append('\n');
+		}
+		sb.append(name).append("_mean").append(suffix)
+			.append(String.format(Locale.ROOT, "%.1f", histogram.getMean())).append('\n');
+		sb.append(name).append("_max").append(suffix)
+			.append(histogram.getMax()).append('\n');
+	}
+	
+}
@@ -0,0 +1,216 @@
+package hr.fer.zemris.java.webserver;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread-safe store of sessions of {@link SmartHttpServer}. Sessions are kept
+ * on the heap in a concurrent map, so looking up a session does not require
+ * locking.
+ * <p>
+ * Expired sessions are removed by a background thread that uses a timing wheel:
+ * each session is placed into the bucket of the tick in which it expires, and
+ * on every tick only the sessions in the current bucket are examined. Sessions
+ * that were used in the meantime are moved to the bucket of their new expiry
+ * time, while the others are removed. Using a session therefore only updates
+ * its expiry time, and the cost of expiry does not depend on the number of
+ * sessions that are not due.
+ * 
+ * @author Matija Frandolić
+ */
+public class SessionStore implements ISessionStore {
+	
+	/**
+	 * Model of a session.
+	 */
+	static class SessionMapEntry {
+		
+		/**
+		 * Session ID.
+		 */
+		String sid;
+		
+		/**
+		 * Address or domain name of the host.
+		 */
+		String host;
+		
+		/**
+		 * Time until this session is valid.
+		 */
+		volatile long validUntil;
+		
+		/**
+		 * Map of permanent parameters for this session.
+		 */
+		Map <String, String> map;
+		
+	}
+	
+	/**
+	 * Length of the session ID.
+	 */
+	static final int SID_LENGTH = 20;
+	
+	/**
+	 * Map of remembered sessions.
+	 */
+	private Map<String, SessionMapEntry> sessions = new ConcurrentHashMap<>();
+	
+	/**
+	 * Duration of session (in milliseconds).
+	 */
+	private long timeout;
+	
+	/**
+	 * Duration of a single tick of the timing wheel (in milliseconds).
+	 */
+	private long tickDuration;
+	
+	/**
+	 * Buckets of the timing wheel. Bucket with index {@code tick % wheel.size()}
+	 * holds the sessions which expire just before the given tick.
+	 */
+	private List<Queue<SessionMapEntry>> wheel;
+	
+	/**
+	 * Thread which removes expired sessions.
+	 */
+	private Thread sessionCleanup;
+	
+	/**
+	 * Object used to generate session ID for new sessions.
+	 */
+	private SecureRandom sessionRandom = new SecureRandom();
+	
+	/**
+	 * Constructs a new {@code SessionStore} whose sessions last for the given
+	 * duration and starts the thread which removes expired sessions.
+	 * 
+	 * @param  timeout duration of session (in seconds)
+	 * @throws IllegalArgumentException if timeout is not positive
+	 */
+	public SessionStore(int timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Session timeout must be positive.");
+		}
+		this.timeout = timeout * 1000L;
+		this.tickDuration = Math.max(1000, this.timeout / 4096);
+		
+		// wheel must span more than one timeout, so that a new expiry time
+		// never falls into a bucket that was already passed in this round
+		int wheelSize = (int) (this.timeout / tickDuration) + 3;
+		wheel = new ArrayList<>(wheelSize);
+		for (int i = 0; i < wheelSize; i++) {
+			wheel.add(new ConcurrentLinkedQueue<>());
+		}
+		
+		sessionCleanup = new Thread(this::expireSessions, "session-cleanup");
+		sessionCleanup.setDaemon(true);
+		sessionCleanup.start();
+	}
+	
+	@Override
+	public SessionMapEntry get(String sid, String host) {
+		SessionMapEntry entry = sessions.get(sid);
+		if (entry == null || !host.equals(entry.host)) {
+			return null;
+		}
+		
+		long now = System.currentTimeMillis();
+		if (entry.validUntil < now) {
+			sessions.remove(sid, entry);
+			return null;
+		}
+		
+		entry.validUntil = now + timeout;
+		return entry;
+	}
+	
+	@Override
+	public SessionMapEntry create(String host) {
+		SessionMapEntry entry = new SessionMapEntry();
+		entry.host = host;
+		entry.validUntil = System.currentTimeMillis() + timeout;
+		entry.map = new ConcurrentHashMap<String, String>();
+		
+		do {
+			entry.sid = generateRandomSid(sessionRandom);
+		} while (sessions.putIfAbsent(entry.sid, entry) != null);
+		
+		schedule(entry);
+		return entry;
+	}
+	
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+	
+	@Override
+	public void close() {
+		sessionCleanup.interrupt();
+	}
+	
+	/**
+	 * Places the given session into the bucket of the tick in which it expires.
+	 * 
+	 * @param entry session to be placed
+	 */
+	private void schedule(SessionMapEntry entry) {
+		long tick = entry.validUntil / tickDuration + 1;
+		wheel.get((int) (tick % wheel.size())).add(entry);
+	}
+	
+	/**
+	 * Advances the timing wheel tick by tick and examines the sessions in the
+	 * bucket of each tick. Runs on the cleanup thread until it is interrupted
+	 * by {@link #close()}.
+	 */
+	private void expireSessions() {
+		long tick = System.currentTimeMillis() / tickDuration;
+		
+		while (true) {
+			try {
+				Thread.sleep(Math.max(0, (tick + 1) * tickDuration - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			long now = System.currentTimeMillis();
+			for (long nowTick = now / tickDuration; tick <= nowTick; tick++) {
+				Queue<SessionMapEntry> bucket = wheel.get((int) (tick % wheel.size()));
+				// sessions that are added to the bucket in the meantime are left for the next round
+				for (int i = bucket.size(); i > 0; i--) {
+					SessionMapEntry entry = bucket.poll();
+					if (entry.validUntil < now) {
+						sessions.remove(entry.sid, entry);
+					} else if (sessions.get(entry.sid) == entry) {
+						schedule(entry);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generates random session ID that is a string that consists of 20 upper
+	 * case letters.
+	 * 
+	 * @param  random generator of random numbers
+	 * @return        session ID that was randomly generated
+	 */
+	static String generateRandomSid(SecureRandom random) {
+		char[] sid = new char[SID_LENGTH];
+		for (int i = 0; i < SID_LENGTH; i++) {
+			sid[i] = (char) (random.nextInt('Z' - 'A' + 1) + 'A');
+		}
+		return new String(sid);
+	}
+	
+}
@@ -1,39 +1,73 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptClassCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptProgram;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.SessionStore.SessionMapEntry;
+import hr.fer.zemris.java.webserver.StaticFileCache.StaticFile;
+import hr.fer.zemris.java.webserver.WorkerResponseCache.CachedResponse;
+import hr.fer.zemris.java.webserver.workers.MetricsWorker;
 
 /**
  * Implementation of a simple HTTP server. Server is configured by a special
  * {@code server.properties} file which is expected as a command line argument.
  * This server is capable of remembering currently active sessions. It also
  * uses multithreading for processing each clients requests in a separate thread.
+ * In {@code nio} mode, connections are served by a selector based event loop
+ * and only complete requests are handed to the thread pool.
+ * <p>
+ * In blocking mode, a persistent connection keeps its thread while it waits
+ * for the next request, until {@link #keepAliveTimeout} expires. With the
+ * {@code fixed} executor, idle clients can therefore take up the whole pool,
+ * so persistent connections are meant for {@code nio} mode or the
+ * {@code virtual} executor.
  * 
  * @author Matija Frandolić
  */
@@ -59,6 +93,69 @@ public class SmartHttpServer {
 	 */
 	private int workerThreads;
 	
+	/**
+	 * Kind of executor that runs client workers, either {@code fixed} (fixed
+	 * thread pool) or {@code virtual} (new virtual thread for each task).
+	 */
+	private String executor;
+	
+	/**
+	 * Maximum number of clients (in {@code blocking} mode) or requests (in 
+	 * {@code nio} mode) that are processed concurrently by {@code virtual} executor.
+	 */
+	private int maxConcurrency;
+	
+	/**
+	 * Maximum number of tasks waiting for a thread of {@code fixed} executor,
+	 * or of the platform threads that {@code virtual} executor falls back to.
+	 */
+	private int maxQueuedRequests;
+	
+	/**
+	 * Maximum number of clients (in {@code blocking} mode) or requests (in 
+	 * {@code nio} mode) that are admitted at once, either waiting or being
+	 * processed. Others are answered with 503 Service Unavailable.
+	 */
+	private int maxInFlight;
+	
+	/**
+	 * Number of seconds after which rejected clients are advised to retry.
+	 */
+	private int retryAfter;
+	
+	/**
+	 * Mode in which the server accepts and serves connections, either
+	 * {@code blocking} or {@code nio}.
+	 */
+	private String mode;
+	
+	/**
+	 * Time (in seconds) after which an idle persistent connection is closed.
+	 * In blocking mode, the thread serving the connection waits for that long.
+	 */
+	private int keepAliveTimeout;
+	
+	/**
+	 * Maximum number of requests served over a single persistent connection.
+	 */
+	private int maxKeepAliveRequests;
+	
+	/**
+	 * Maximum allowed size of the request header (in bytes).
+	 */
+	private int maxHeaderSize;
+	
+	/**
+	 * Maximum allowed number of header lines of the request.
+	 */
+	private int maxHeaders;
+	
+	/**
+	 * Size of the buffer of a chunk of content whose length is unknown, or 0
+	 * if such content is not chunked.
+	 */
+	private int chunkSize;
+	
 	/**
 	 * Duration of session (in seconds).
 	 */
@@ -72,13 +169,29 @@ public class SmartHttpServer {
 	/**
 	 * Thread on which the server is running.
 	 */
-	private ServerThread serverThread;
+	private Thread serverThread;
 	
 	/**
 	 * Thread pool with for client worker threads.
 	 */
 	private ExecutorService threadPool;
 	
+	/**
+	 * Semaphore that limits the number of concurrently processed tasks, or
+	 * {@code null} if the number is limited by the thread pool itself.
+	 */
+	private Semaphore concurrencyLimit;
+	
+	/**
+	 * Semaphore that limits the number of admitted tasks.
+	 */
+	private Semaphore admission;
+	
+	/**
+	 * Complete response that is sent to clients which are not admitted.
+	 */
+	private byte[] serviceUnavailableResponse;
+	
 	/**
 	 * Path to root directory from which the files are served.
 	 */
@@ -90,14 +203,52 @@ public class SmartHttpServer {
 	private Map<String, IWebWorker> workersMap = new HashMap<>();
 	
 	/**
-	 * Map of remembered sessions.
+	 * Registry of workers that are requested by their class name.
+	 */
+	private WorkerRegistry workerRegistry = new WorkerRegistry(
+		"hr.fer.zemris.java.webserver.workers", SmartHttpServer.class.getClassLoader()
+	);
+	
+	/**
+	 * Kind of the store of remembered sessions, {@code heap} or {@code offheap}.
+	 */
+	private String sessionStore;
+	
+	/**
+	 * Store of remembered sessions, created when the server is started.
+	 */
+	private ISessionStore sessions;
+	
+	/**
+	 * Cache of parsed scripts.
+	 */
+	private ScriptCache scriptCache;
+	
+	/**
+	 * Cache of static files.
+	 */
+	private StaticFileCache staticFileCache;
+	
+	/**
+	 * Cache of responses of cacheable workers, or {@code null} if disabled.
+	 */
+	private WorkerResponseCache workerResponseCache;
+	
+	/**
+	 * Operational metrics of the server.
+	 */
+	private ServerMetrics metrics = new ServerMetrics(256);
+	
+	/**
+	 * Future of a response that was created synchronously.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
+	private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
 	
 	/**
-	 * Object used to generate session ID for new sessions.
+	 * Router of requests, built from the mappings of workers and the rules
+	 * for the other paths when the server is constructed.
 	 */
-	private Random sessionRandom = new Random();
+	private Router<RouteHandler> router = new Router<>();
 	
 	/**
 	 * Constructs a new {@code SmartHttpServer} and configures it according to the
@@ -118,8 +269,39 @@ public class SmartHttpServer {
 		domainName = serverProperties.getProperty("server.domainName");
 		port = Integer.parseInt(serverProperties.getProperty("server.port"));
 		workerThreads = Integer.parseInt(serverProperties.getProperty("server.workerThreads"));
+		executor = serverProperties.getProperty("server.executor", "fixed").trim();
+		if (!executor.equals("fixed") && !executor.equals("virtual")) {
+			throw new IllegalArgumentException("Unknown executor: " + executor + ".");
+		}
+		maxConcurrency = Integer.parseInt(serverProperties.getProperty("server.maxConcurrency", "10000"));
+		maxQueuedRequests = Integer.parseInt(serverProperties.getProperty("server.maxQueuedRequests", "1000"));
+		maxInFlight = Integer.parseInt(serverProperties.getProperty("server.maxInFlight", "10000"));
+		retryAfter = Integer.parseInt(serverProperties.getProperty("server.retryAfter", "1"));
+		mode = serverProperties.getProperty("server.mode", "blocking").trim();
+		if (!mode.equals("blocking") && !mode.equals("nio")) {
+			throw new IllegalArgumentException("Unknown server mode: " + mode + ".");
+		}
+		keepAliveTimeout = Integer.parseInt(serverProperties.getProperty("server.keepAliveTimeout", "5"));
+		maxKeepAliveRequests = Integer.parseInt(serverProperties.getProperty("server.maxKeepAliveRequests", "100"));
+		maxHeaderSize = Integer.parseInt(serverProperties.getProperty("server.maxHeaderSize", "16384"));
+		maxHeaders = Integer.parseInt(serverProperties.getProperty("server.maxHeaders", "100"));
+		chunkSize = Integer.parseInt(serverProperties.getProperty("server.chunkSize", "8192"));
 		sessionTimeout = Integer.parseInt(serverProperties.getProperty("session.timeout"));
-		documentRoot = Paths.get(serverProperties.getProperty("server.documentRoot"));
+		documentRoot = Paths.get(serverProperties.getProperty("server.documentRoot")).toAbsolutePath().normalize();
+		scriptCache = new ScriptCache(
+			Integer.parseInt(serverProperties.getProperty("server.scriptCacheSize", "64")),
+			Boolean.parseBoolean(serverProperties.getProperty("server.compileScripts", "false"))
+				? ScriptClassCompiler::compile
+				: ScriptProgram::compile
+		);
+		staticFileCache = new StaticFileCache(
+			Long.parseLong(serverProperties.getProperty("server.staticCacheSize", "16777216")),
+			Long.parseLong(serverProperties.getProperty("server.staticCacheMaxFileSize", "1048576"))
+		);
+		long workerCacheSize = Long.parseLong(serverProperties.getProperty("server.workerCacheSize", "4194304"));
+		if (workerCacheSize > 0) {
+			workerResponseCache = new WorkerResponseCache(workerCacheSize);
+		}
 
 		Properties mimeProperties = new Properties();
 		Properties workersProperties = new Properties();
@@ -145,20 +327,59 @@ public class SmartHttpServer {
 			workersMap.put(key, iww);
 		}
 		
-		Thread sessionCleanup = new Thread(() -> {
-			while (true) {
-				sessions.values().removeIf(
-					entry -> entry.validUntil < System.currentTimeMillis()
-				);
-				try {
-					Thread.sleep(5 * 60 * 1000);
-				} catch (InterruptedException e) {
-					// ignore
-				}
+		sessionStore = serverProperties.getProperty("session.store", "heap").trim();
+		if (!sessionStore.equals("heap") && !sessionStore.equals("offheap")) {
+			throw new IllegalArgumentException("Unknown session store: " + sessionStore + ".");
+		}
+		serviceUnavailableResponse = createServiceUnavailableResponse();
+		
+		workersMap.putIfAbsent("/metrics", new MetricsWorker(metrics));
+		metrics.registerGauge("sessions", () -> sessions.size());
+		metrics.registerGauge("script_cache_hits", scriptCache::getHits);
+		metrics.registerGauge("script_cache_misses", scriptCache::getMisses);
+		metrics.registerGauge("script_cache_hit_ratio", scriptCache::getHitRatio);
+		metrics.registerGauge("script_compile_fallbacks", ScriptClassCompiler::getFallbacks);
+		metrics.registerGauge("static_cache_hits", staticFileCache::getHits);
+		metrics.registerGauge("static_cache_misses", staticFileCache::getMisses);
+		metrics.registerGauge("static_cache_bytes", staticFileCache::getCachedBytes);
+		if (workerResponseCache != null) {
+			metrics.registerGauge("worker_cache_hits", workerResponseCache::getHits);
+			metrics.registerGauge("worker_cache_misses", workerResponseCache::getMisses);
+			metrics.registerGauge("worker_cache_coalesced", workerResponseCache::getCoalesced);
+			metrics.registerGauge("worker_cache_bytes", workerResponseCache::getCachedBytes);
+		}
+		
+		buildRouter();
+	}
+	
+	/**
+	 * Adds the routes of the server to the router. Mappings of workers are
+	 * exact routes, workers requested by their class name are served below
+	 * {@code /ext/}, files below {@code /private} may only be dispatched
+	 * internally and all other paths are served from the document root.
+	 */
+	private void buildRouter() {
+		for (Map.Entry<String, IWebWorker> entry : workersMap.entrySet()) {
+			IWebWorker worker = entry.getValue();
+			router.addExact(entry.getKey(), (cw, match, directCall) -> cw.serveWorker(worker, match));
+		}
+		router.addPrefix("/ext/", (cw, match, directCall) -> cw.serveExtWorker(match));
+		router.addPrefix("/private", (cw, match, directCall) -> {
+			if (directCall) {
+				cw.sendError(404, "Not Found");
+			} else {
+				cw.serveFile(match.getPath(), false);
 			}
+			return COMPLETED;
+		});
+		router.addExact("/", (cw, match, directCall) -> {
+			cw.sendError(403, "Forbidden");
+			return COMPLETED;
+		});
+		router.setFallback((cw, match, directCall) -> {
+			cw.serveFile(match.getPath(), directCall);
+			return COMPLETED;
 		});
-		sessionCleanup.setDaemon(true);
-		sessionCleanup.start();
 	}
 	
 	/**
@@ -166,18 +387,156 @@ public class SmartHttpServer {
 	 */
 	protected synchronized void start() {
 		if (serverThread == null || !serverThread.isAlive()) {
-			serverThread = new ServerThread();
-			threadPool = Executors.newFixedThreadPool(workerThreads);
+			serverThread = mode.equals("nio") ? new SelectorServerThread() : new ServerThread();
+			threadPool = createThreadPool();
+			admission = new Semaphore(maxInFlight);
+			sessions = sessionStore.equals("offheap")
+				? new OffHeapSessionStore(sessionTimeout)
+				: new SessionStore(sessionTimeout);
 			serverThread.start();
 		}
 	}
 	
 	/**
-	 * Stops the server.
+	 * Creates the executor that runs client workers, as configured. Executor 
+	 * {@code fixed} has a bounded queue of waiting tasks and rejects new tasks
+	 * once it is full. Executor {@code virtual} runs each task in a new virtual
+	 * thread if the runtime supports them, in which case the number of 
+	 * concurrently running tasks is limited by {@link #maxConcurrency} permits
+	 * that tasks wait for. Otherwise it falls back to a pool of at most 
+	 * {@link #maxConcurrency} platform threads with a bounded queue, so waiting
+	 * tasks never hold a thread, and prints a warning about it.
+	 * 
+	 * @return the executor that runs client workers
+	 */
+	private ExecutorService createThreadPool() {
+		if (executor.equals("fixed")) {
+			concurrencyLimit = null;
+			return new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(maxQueuedRequests));
+		}
+		
+		try {
+			ExecutorService virtualExecutor = (ExecutorService) Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor")
+				.invoke(null);
+			concurrencyLimit = new Semaphore(maxConcurrency);
+			return virtualExecutor;
+		} catch (ReflectiveOperationException e) {
+			System.err.println("Virtual threads are not supported by this runtime, using a pool of "
+				+ maxConcurrency + " platform threads instead.");
+			concurrencyLimit = null;
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(maxQueuedRequests));
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+	
+	/**
+	 * Submits the given task to the thread pool if the server is not saturated.
+	 * Task is rejected if the maximum number of tasks is already admitted or the
+	 * queue of the thread pool is full. Admitted task is counted as queued until
+	 * it starts running, which happens once a worker thread and a permit of the 
+	 * concurrency limit, if there is one, are available. Tasks wait for a permit
+	 * only on virtual threads; platform threads are limited by the pool itself.
+	 * 
+	 * @param  task task to be run
+	 * @return      {@code true} if the task was admitted, {@code false} if it 
+	 *              was rejected
+	 */
+	private boolean submitTask(Runnable task) {
+		if (!admission.tryAcquire()) {
+			metrics.requestRejected();
+			return false;
+		}
+		
+		Semaphore limit = concurrencyLimit;
+		long queuedAt = System.nanoTime();
+		metrics.taskQueued();
+		try {
+			threadPool.execute(() -> {
+				try {
+					if (limit != null) {
+						limit.acquireUninterruptibly();
+					}
+					metrics.taskStarted(System.nanoTime() - queuedAt);
+					try {
+						task.run();
+					} finally {
+						if (limit != null) {
+							limit.release();
+						}
+					}
+				} finally {
+					admission.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			admission.release();
+			metrics.taskRejected();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Creates the complete response that is sent to clients which are not
+	 * admitted because the server is saturated. Connection is closed after it.
+	 * 
+	 * @return the bytes of the response
+	 */
+	private byte[] createServiceUnavailableResponse() {
+		byte[] body = "503 Service Unavailable".getBytes(StandardCharsets.UTF_8);
+		ResponseHeaderWriter hw = new ResponseHeaderWriter();
+		hw.statusLine(503, "Service Unavailable");
+		hw.contentTypeLine("text/plain", "UTF-8");
+		hw.headerLine("Content-Length", body.length);
+		hw.headerLine("Retry-After", retryAfter);
+		hw.headerLine("Connection", "close");
+		hw.crlf();
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			hw.writeTo(os);
+			os.write(body);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return os.toByteArray();
+	}
+	
+	/**
+	 * Sends the response for clients which are not admitted to the given
+	 * client and closes the connection. Request is not read, apart from the
+	 * bytes which have already arrived, which are discarded so that closing the
+	 * connection does not reset it before the client reads the response.
+	 * 
+	 * @param client connection of the rejected client
+	 */
+	private void rejectClient(SocketChannel client) {
+		try (client) {
+			client.write(ByteBuffer.wrap(serviceUnavailableResponse));
+			metrics.addBytesWritten(serviceUnavailableResponse.length);
+			client.shutdownOutput();
+			
+			InputStream is = client.socket().getInputStream();
+			int available = is.available();
+			if (available > 0) {
+				is.skip(available);
+			}
+		} catch (IOException e) {
+			// client is rejected anyway
+		}
+	}
+	
+	/**
+	 * Stops the server and the removal of expired sessions.
 	 */
 	protected synchronized void stop() {
 		serverThread.interrupt();
 		threadPool.shutdown();
+		sessions.close();
 	}
 	
 	/**
@@ -187,17 +546,19 @@ public class SmartHttpServer {
 	protected class ServerThread extends Thread {
 		@Override
 		public void run() {
-			try {
-				ServerSocket serverSocket = new ServerSocket();
-				serverSocket.bind(new InetSocketAddress(
+			try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				serverChannel.bind(new InetSocketAddress(
 						InetAddress.getByName(address), port)
 				);
 				while(!isInterrupted()) {
-					Socket client = serverSocket.accept();
-					ClientWorker cw = new ClientWorker(client);
-					threadPool.submit(cw);
+					SocketChannel client = serverChannel.accept();
+					ClientWorker cw = new ClientWorker(client.socket());
+					if (!submitTask(cw)) {
+						rejectClient(client);
+					}
 				}
-				serverSocket.close();
+			} catch (ClosedByInterruptException e) {
+				// server was stopped
 			} catch (IOException e) {
 				throw new UncheckedIOException(e);
 			}
@@ -205,56 +566,831 @@ public class SmartHttpServer {
 	}
 	
 	/**
-	 * Returns an instance of {@link IWebWorker} that is created according to its
-	 * fully qualified class name.
-	 * 
-	 * @param  fqcn fully qualified class name of the wanted worker
-	 * @return      an instance of {@code IWebWorker}
-	 * @throws RuntimeException if it is not possible to complete this operation
+	 * Implementation of {@link Thread} that represents thread on which the
+	 * server is running in {@code nio} mode. A single selector is used to accept
+	 * connections, read requests and write responses using non-blocking I/O,
+	 * while complete requests are processed by {@link ClientWorker}s in the
+	 * thread pool. This way, idle or slow clients do not occupy worker threads.
 	 */
-	private IWebWorker getWorkerInstance(String fqcn) {
-		try {
-			Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-			Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
-			return (IWebWorker) newObject;			
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+	protected class SelectorServerThread extends Thread {
+		
+		/**
+		 * Selector used for all the channels of this server.
+		 */
+		private Selector selector;
+		
+		/**
+		 * Tasks submitted by worker threads that must be run on this thread,
+		 * since only this thread is allowed to change interest operations.
+		 */
+		private Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+		
+		@Override
+		public void run() {
+			try (Selector selector = Selector.open();
+				 ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				
+				this.selector = selector;
+				serverChannel.bind(new InetSocketAddress(
+						InetAddress.getByName(address), port)
+				);
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				
+				long lastSweep = System.currentTimeMillis();
+				while (!isInterrupted()) {
+					selector.select(1000);
+					
+					Runnable task;
+					while ((task = pendingTasks.poll()) != null) {
+						task.run();
+					}
+					
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept(serverChannel);
+							continue;
+						}
+						
+						ChannelConnection connection = (ChannelConnection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						} catch (IOException e) {
+							connection.close();
+						}
+					}
+					
+					long now = System.currentTimeMillis();
+					if (now - lastSweep >= 1000) {
+						closeIdleConnections(now);
+						lastSweep = now;
+					}
+				}
+				
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof ChannelConnection) {
+						((ChannelConnection) key.attachment()).close();
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		/**
+		 * Accepts a pending connection, if there is one, and registers it
+		 * with the selector for reading.
+		 * 
+		 * @param  serverChannel server channel on which the connection is pending
+		 * @throws IOException   if I/O error occurs
+		 */
+		private void accept(ServerSocketChannel serverChannel) throws IOException {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new ChannelConnection(this, channel, key));
+			metrics.connectionOpened();
 		}
+		
+		/**
+		 * Closes all connections that have been idle for longer than the
+		 * keep-alive timeout.
+		 * 
+		 * @param now current time in milliseconds
+		 */
+		private void closeIdleConnections(long now) {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof ChannelConnection) {
+					ChannelConnection connection = (ChannelConnection) key.attachment();
+					if (connection.isIdle() && now - connection.lastActive > keepAliveTimeout * 1000L) {
+						connection.close();
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Schedules the given task to be run on this thread and wakes up the
+		 * selector. This method can be called from any thread.
+		 * 
+		 * @param task task to be run on this thread
+		 */
+		void schedule(Runnable task) {
+			pendingTasks.add(task);
+			selector.wakeup();
+		}
+		
 	}
 	
 	/**
-	 * Model of a session.
+	 * Model of a single client connection in {@code nio} mode. Request header is
+	 * accumulated from non-blocking reads and, once complete, processed by a
+	 * {@link ClientWorker} in the thread pool. Response produced by the worker
+	 * is queued and written to the channel by the selector thread. Persistent
+	 * connections serve pipelined requests one at a time, in order.
 	 */
-	private static class SessionMapEntry {
+	private class ChannelConnection {
 		
 		/**
-		 * Session ID.
+		 * Maximum number of bytes of the response that can be queued for writing
+		 * before the worker that produces the response is blocked.
 		 */
-		String sid;
+		private static final int MAX_PENDING_BYTES = 256 * 1024;
 		
 		/**
-		 * Address or domain name of the host. 
+		 * Thread that owns the selector this connection is registered with.
+		 */
+		private SelectorServerThread owner;
+		
+		/**
+		 * Channel of this connection.
+		 */
+		private SocketChannel channel;
+		
+		/**
+		 * Selection key of the channel.
+		 */
+		private SelectionKey key;
+		
+		/**
+		 * Buffer used for reading from the channel. Bytes of pipelined requests
+		 * are kept in it until the current request is served.
+		 */
+		private ByteBuffer readBuffer = ByteBuffer.allocate(Math.min(4096, maxHeaderSize));
+		
+		/**
+		 * Parser of the requests received over this connection.
+		 */
+		private HttpRequestParser parser = new HttpRequestParser(maxHeaderSize, maxHeaders);
+		
+		/**
+		 * Writer of the response headers sent over this connection.
+		 */
+		private ResponseHeaderWriter headerWriter = new ResponseHeaderWriter();
+		
+		/**
+		 * Position in the read buffer up to which the end of the request header
+		 * has already been searched for.
 		 */
-		String host;
+		private int scanned;
 		
 		/**
-		 * Time until this session is valid.
+		 * Flag that indicates whether the request is currently being processed.
 		 */
-		long validUntil;
+		private boolean processing;
 		
 		/**
-		 * Map of permanent parameters for this session.
+		 * Queue of response parts that are waiting to be written.
 		 */
-		Map <String, String> map;
+		private Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+		
+		/**
+		 * Number of bytes in the queued buffers.
+		 */
+		private long pendingBytes;
+		
+		/**
+		 * Flag that indicates whether the response of the current request has
+		 * been completely queued.
+		 */
+		private volatile boolean responseComplete;
+		
+		/**
+		 * Flag that indicates whether the connection should be closed once all
+		 * queued buffers are written.
+		 */
+		private volatile boolean closeAfterWrite;
+		
+		/**
+		 * Number of requests received over this connection.
+		 */
+		private int requestCount;
+		
+		/**
+		 * Time of the last activity on this connection (in milliseconds).
+		 */
+		private long lastActive = System.currentTimeMillis();
+		
+		/**
+		 * Constructs a new {@code ChannelConnection} from the given arguments.
+		 * 
+		 * @param owner   thread that owns the selector
+		 * @param channel channel of this connection
+		 * @param key     selection key of the channel
+		 */
+		public ChannelConnection(SelectorServerThread owner, SocketChannel channel, SelectionKey key) {
+			this.owner = owner;
+			this.channel = channel;
+			this.key = key;
+		}
+		
+		/**
+		 * Reads available bytes from the channel and submits the request for
+		 * processing once its header is complete. Called by the selector thread.
+		 * 
+		 * @throws IOException if I/O error occurs
+		 */
+		public void read() throws IOException {
+			int r = channel.read(readBuffer);
+			if (r == -1) {
+				close();
+				return;
+			}
+			lastActive = System.currentTimeMillis();
+			parse();
+		}
+		
+		/**
+		 * Searches the buffered bytes for the end of the request header and
+		 * submits the request for processing once its header is complete. If the
+		 * header exceeds the allowed size, it is submitted as it is, so that the
+		 * worker can reject it. Called by the selector thread.
+		 */
+		private void parse() {
+			if (processing) {
+				return;
+			}
+			
+			byte[] data = readBuffer.array();
+			int end = HttpRequestParser.findHeaderEnd(data, scanned, readBuffer.position());
+			if (end < 0 && readBuffer.hasRemaining()) {
+				scanned = Math.max(0, readBuffer.position() - 2);
+				return;
+			}
+			if (end < 0 && readBuffer.capacity() < maxHeaderSize) {
+				scanned = Math.max(0, readBuffer.position() - 2);
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(2 * readBuffer.capacity(), maxHeaderSize));
+				readBuffer.flip();
+				readBuffer = larger.put(readBuffer);
+				return;
+			}
+			
+			if (end < 0) {
+				end = readBuffer.position();
+			}
+			byte[] request = Arrays.copyOf(data, end);
+			readBuffer.flip();
+			readBuffer.position(end);
+			readBuffer.compact();
+			scanned = 0;
+			submit(request);
+		}
+		
+		/**
+		 * Submits the given complete request to the thread pool. Response may be
+		 * completed on another thread after the task has returned. Reading is
+		 * suspended until the response is written.
+		 * 
+		 * @param request bytes of the request header
+		 */
+		private void submit(byte[] request) {
+			processing = true;
+			responseComplete = false;
+			key.interestOps(0);
+			
+			boolean allowKeepAlive = ++requestCount < maxKeepAliveRequests;
+			
+			ChannelOutputStream os = new ChannelOutputStream(this);
+			boolean admitted = submitTask(() -> {
+				CompletableFuture<Boolean> response;
+				try {
+					ClientWorker cw = new ClientWorker(new ByteArrayInputStream(request), os, parser, headerWriter);
+					response = cw.serveRequest(allowKeepAlive);
+				} catch (IOException e) {
+					// connection will be closed
+					response = CompletableFuture.completedFuture(false);
+				} catch (RuntimeException e) {
+					os.complete(false);
+					throw e;
+				}
+				response.whenComplete((keepAlive, error) -> os.complete(error == null && keepAlive));
+			});
+			
+			if (!admitted) {
+				synchronized (this) {
+					pendingBytes += serviceUnavailableResponse.length;
+					pendingWrites.add(new BufferWrite(ByteBuffer.wrap(serviceUnavailableResponse)));
+				}
+				closeAfterWrite = true;
+				responseComplete = true;
+				enableWrite();
+			}
+		}
+		
+		/**
+		 * Queues the given buffer for writing. If too many bytes are already
+		 * queued, the calling thread is blocked until some of them are written.
+		 * Called by worker threads.
+		 * 
+		 * @param  buffer buffer to be written
+		 * @throws IOException if the connection has been closed
+		 */
+		public void enqueue(ByteBuffer buffer) throws IOException {
+			synchronized (this) {
+				while (pendingBytes > MAX_PENDING_BYTES && channel.isOpen()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while writing response.");
+					}
+				}
+				if (!channel.isOpen()) {
+					throw new IOException("Connection has been closed.");
+				}
+				pendingBytes += buffer.remaining();
+				pendingWrites.add(new BufferWrite(buffer));
+			}
+			owner.schedule(this::enableWrite);
+		}
+		
+		/**
+		 * Queues the given file region for writing. Region is transferred
+		 * directly from the file to the channel and does not count towards the
+		 * limit of queued bytes. Region is added under the same lock under which
+		 * {@link #close()} releases the queued parts, so it is either released
+		 * by it or not added at all. Called by worker threads.
+		 * 
+		 * @param  file     channel of the file, closed once the region is written
+		 *                  or the connection is closed
+		 * @param  position position of the region in the file
+		 * @param  count    size of the region
+		 * @throws IOException if the connection has been closed
+		 */
+		public void enqueue(FileChannel file, long position, long count) throws IOException {
+			synchronized (this) {
+				if (!channel.isOpen()) {
+					file.close();
+					throw new IOException("Connection has been closed.");
+				}
+				pendingWrites.add(new FileRegionWrite(file, position, count));
+			}
+			owner.schedule(this::enableWrite);
+		}
+		
+		/**
+		 * Marks the response of the current request as completely queued. Unless
+		 * the connection is kept alive, it is closed once all queued buffers are 
+		 * written. Called by worker threads.
+		 * 
+		 * @param keepAlive {@code true} if the connection should be kept alive
+		 */
+		public void finish(boolean keepAlive) {
+			closeAfterWrite = !keepAlive;
+			responseComplete = true;
+			owner.schedule(this::enableWrite);
+		}
+		
+		/**
+		 * Returns {@code true} if this connection is waiting for the next request.
+		 * 
+		 * @return {@code true} if this connection is waiting for the next request
+		 */
+		public boolean isIdle() {
+			return !processing;
+		}
+		
+		/**
+		 * Registers interest for writing. Called by the selector thread.
+		 */
+		private void enableWrite() {
+			if (key.isValid()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+		
+		/**
+		 * Writes as many queued bytes as the channel accepts without blocking.
+		 * Called by the selector thread.
+		 * 
+		 * @throws IOException if I/O error occurs
+		 */
+		public void write() throws IOException {
+			boolean complete = responseComplete;
+			PendingWrite pending;
+			while ((pending = pendingWrites.peek()) != null) {
+				long written = pending.writeTo(channel);
+				metrics.addBytesWritten(written);
+				if (pending instanceof BufferWrite) {
+					synchronized (this) {
+						pendingBytes -= written;
+						notifyAll();
+					}
+				}
+				if (!pending.isDone()) {
+					return;
+				}
+				pending.release();
+				pendingWrites.poll();
+			}
+			lastActive = System.currentTimeMillis();
+			
+			if (!complete) {
+				key.interestOps(0);
+			} else if (closeAfterWrite) {
+				close();
+			} else {
+				processing = false;
+				key.interestOps(SelectionKey.OP_READ);
+				parse();
+			}
+		}
+		
+		/**
+		 * Closes this connection, releases the queued response parts and wakes
+		 * up any worker waiting to write. Workers queue the parts while holding
+		 * the same lock, so no part can be queued after they are released.
+		 */
+		public synchronized void close() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			metrics.connectionClosed();
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			PendingWrite pending;
+			while ((pending = pendingWrites.poll()) != null) {
+				pending.release();
+			}
+			notifyAll();
+		}
+		
+	}
+	
+	/**
+	 * Handler of the requests for the paths of a route.
+	 */
+	@FunctionalInterface
+	private interface RouteHandler {
+		
+		/**
+		 * Starts serving the request for the matched path.
+		 * 
+		 * @param  worker     client worker which serves the request
+		 * @param  match      match of the requested path
+		 * @param  directCall if {@code true}, it represents that the path was
+		 *                    requested directly by the client
+		 * @return            future which is completed once the content of the
+		 *                    response has been written
+		 * @throws Exception  if any exception occurs
+		 */
+		CompletableFuture<Void> handle(ClientWorker worker, Router.Match<RouteHandler> match, boolean directCall)
+				throws Exception;
+		
+	}
+	
+	/**
+	 * Model of a part of the response that is waiting to be written to the
+	 * channel by the selector thread.
+	 */
+	private interface PendingWrite {
+		
+		/**
+		 * Writes as many bytes as the channel accepts without blocking.
+		 * 
+		 * @param  channel channel to which the bytes are written
+		 * @return         number of bytes written
+		 * @throws IOException if I/O error occurs
+		 */
+		long writeTo(SocketChannel channel) throws IOException;
+		
+		/**
+		 * Returns {@code true} if everything has been written.
+		 * 
+		 * @return {@code true} if everything has been written
+		 */
+		boolean isDone();
+		
+		/**
+		 * Releases resources held by this part.
+		 */
+		void release();
 		
 	}
 	
+	/**
+	 * Implementation of {@link PendingWrite} that writes the content of a buffer.
+	 */
+	private static class BufferWrite implements PendingWrite {
+		
+		/**
+		 * Buffer that is written.
+		 */
+		private ByteBuffer buffer;
+		
+		/**
+		 * Constructs a new {@code BufferWrite} for the given buffer.
+		 * 
+		 * @param buffer buffer that is written
+		 */
+		public BufferWrite(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public long writeTo(SocketChannel channel) throws IOException {
+			return channel.write(buffer);
+		}
+		
+		@Override
+		public boolean isDone() {
+			return !buffer.hasRemaining();
+		}
+		
+		@Override
+		public void release() {
+			// nothing to release
+		}
+		
+	}
+	
+	/**
+	 * Implementation of {@link PendingWrite} that transfers a region of a file
+	 * directly to the channel.
+	 */
+	private static class FileRegionWrite implements PendingWrite {
+		
+		/**
+		 * Channel of the file.
+		 */
+		private FileChannel file;
+		
+		/**
+		 * Position in the file from which the next byte is transferred.
+		 */
+		private long position;
+		
+		/**
+		 * Number of bytes that remain to be transferred.
+		 */
+		private long remaining;
+		
+		/**
+		 * Constructs a new {@code FileRegionWrite} from the given arguments.
+		 * 
+		 * @param file     channel of the file
+		 * @param position position of the region in the file
+		 * @param count    size of the region
+		 */
+		public FileRegionWrite(FileChannel file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.remaining = count;
+		}
+		
+		@Override
+		public long writeTo(SocketChannel channel) throws IOException {
+			long written = file.transferTo(position, remaining, channel);
+			if (written == 0 && position >= file.size()) {
+				throw new EOFException("File is shorter than expected.");
+			}
+			position += written;
+			remaining -= written;
+			return written;
+		}
+		
+		@Override
+		public boolean isDone() {
+			return remaining == 0;
+		}
+		
+		@Override
+		public void release() {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		
+	}
+	
+	/**
+	 * Implementation of {@link OutputStream} that buffers written bytes and
+	 * passes them to a {@link ChannelConnection} to be written by the selector
+	 * thread. Each stream carries a single response. Closing this stream closes 
+	 * the connection once everything is written.
+	 */
+	private static class ChannelOutputStream extends OutputStream implements IFileTransferTarget {
+		
+		/**
+		 * Size of the buffer.
+		 */
+		private static final int BUFFER_SIZE = 8192;
+		
+		/**
+		 * Connection to which the bytes are passed.
+		 */
+		private ChannelConnection connection;
+		
+		/**
+		 * Buffer for the written bytes.
+		 */
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		
+		/**
+		 * Flag that indicates whether this stream has been closed.
+		 */
+		private boolean closed;
+		
+		/**
+		 * Constructs a new {@code ChannelOutputStream} for the given connection.
+		 * 
+		 * @param connection connection to which the bytes are passed
+		 */
+		public ChannelOutputStream(ChannelConnection connection) {
+			this.connection = connection;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put((byte) b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len >= BUFFER_SIZE) {
+				flush();
+				connection.enqueue(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+				return;
+			}
+			if (len > buffer.remaining()) {
+				flush();
+			}
+			buffer.put(b, off, len);
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			if (buffer.position() == 0) {
+				return;
+			}
+			buffer.flip();
+			connection.enqueue(buffer);
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		
+		@Override
+		public void transferFile(FileChannel file, long position, long count) throws IOException {
+			try {
+				flush();
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+			connection.enqueue(file, position, count);
+		}
+		
+		@Override
+		public void close() {
+			complete(false);
+		}
+		
+		/**
+		 * Completes the response carried by this stream.
+		 * 
+		 * @param keepAlive {@code true} if the connection should be kept alive
+		 *                  for the next request
+		 */
+		public void complete(boolean keepAlive) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				flush();
+			} catch (IOException e) {
+				// connection is already closed
+			}
+			connection.finish(keepAlive);
+		}
+		
+	}
+	
+	/**
+	 * Implementation of {@link OutputStream} that buffers bytes written to a
+	 * socket which has an associated channel. Regions of files are transferred 
+	 * directly to the channel.
+	 */
+	private static class SocketOutputStream extends BufferedOutputStream implements IFileTransferTarget {
+		
+		/**
+		 * Channel of the socket.
+		 */
+		private SocketChannel channel;
+		
+		/**
+		 * Metrics to which the number of written bytes is added.
+		 */
+		private ServerMetrics metrics;
+		
+		/**
+		 * Constructs a new {@code SocketOutputStream} for the given socket.
+		 * 
+		 * @param  socket  socket to which the bytes are written, must have 
+		 *                 an associated channel
+		 * @param  metrics metrics to which the number of written bytes is added
+		 * @throws IOException if I/O error occurs
+		 */
+		public SocketOutputStream(Socket socket, ServerMetrics metrics) throws IOException {
+			super(socket.getOutputStream());
+			this.channel = socket.getChannel();
+			this.metrics = metrics;
+		}
+		
+		@Override
+		public synchronized void write(int b) throws IOException {
+			super.write(b);
+			metrics.addBytesWritten(1);
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			metrics.addBytesWritten(len);
+		}
+		
+		@Override
+		public void transferFile(FileChannel file, long position, long count) throws IOException {
+			try (file) {
+				flush();
+				while (count > 0) {
+					long written = file.transferTo(position, count, channel);
+					if (written == 0 && position >= file.size()) {
+						throw new EOFException("File is shorter than expected.");
+					}
+					position += written;
+					count -= written;
+					metrics.addBytesWritten(written);
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns an instance of {@link IWebWorker} that is created according to its
+	 * fully qualified class name.
+	 * 
+	 * @param  fqcn fully qualified class name of the wanted worker
+	 * @return      an instance of {@code IWebWorker}
+	 * @throws RuntimeException if it is not possible to complete this operation
+	 */
+	private IWebWorker getWorkerInstance(String fqcn) {
+		try {
+			Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
+			Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
+			return (IWebWorker) newObject;			
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	/**
 	 * Implementation of {@link Runnable} and {@link IDispatcher} that represents
 	 * object which can process clients request and provide appropriate response.
 	 */
 	private class ClientWorker implements Runnable, IDispatcher {
 		
+		/**
+		 * Maximum number of ranges that can be requested at once.
+		 */
+		private static final int MAX_RANGES = 16;
+		
+		/**
+		 * Route under which latencies of requests for missing resources are
+		 * recorded, so that arbitrary paths do not use up the routes of metrics.
+		 */
+		private static final String NOT_FOUND_ROUTE = "(not found)";
+		
+		/**
+		 * Route under which latencies of requests for paths which refer to a
+		 * parent of the root are recorded.
+		 */
+		private static final String INVALID_PATH_ROUTE = "(invalid path)";
+		
 		/**
 		 * Client socket.
 		 */
@@ -270,6 +1406,22 @@ public class SmartHttpServer {
 		 */
 		private OutputStream ostream;
 		
+		/**
+		 * Parser of the requests received over the connection.
+		 */
+		private HttpRequestParser parser;
+		
+		/**
+		 * Writer of the response headers sent over the connection.
+		 */
+		private ResponseHeaderWriter headerWriter;
+		
+		/**
+		 * Flag that indicates whether the client accepts content compressed
+		 * using gzip.
+		 */
+		private boolean gzipAccepted;
+		
 		/**
 		 * HTTP version.
 		 */
@@ -310,10 +1462,27 @@ public class SmartHttpServer {
 		 */
 		private String SID;
 		
+		/**
+		 * Session of the current request.
+		 */
+		private SessionMapEntry session;
+		
 		/**
 		 * Request context to which the response is written.
 		 */
 		private RequestContext context;
+		
+		/**
+		 * Route under which the latency of the current request is recorded:
+		 * pattern of the matched route, or the path if it is served by the
+		 * fallback handler.
+		 */
+		private String route;
+		
+		/**
+		 * Number of requests served over the connection.
+		 */
+		private int served;
 	
 		/**
 		 * Constructs a new {@code ClientWorker} from the given client socket.
@@ -322,129 +1491,395 @@ public class SmartHttpServer {
 		 */
 		public ClientWorker(Socket csocket) {
 			this.csocket = csocket;
+			this.parser = new HttpRequestParser(maxHeaderSize, maxHeaders);
+			this.headerWriter = new ResponseHeaderWriter();
+		}
+		
+		/**
+		 * Constructs a new {@code ClientWorker} that reads the request from the
+		 * given input stream and writes the response to the given output stream.
+		 * Closing the output stream is expected to end the connection. Parser and
+		 * header writer are those of the connection, so they are reused by all
+		 * the requests received over it.
+		 * 
+		 * @param istream      input stream from which the request is read
+		 * @param ostream      output stream to which the response is written
+		 * @param parser       parser of the requests received over the connection
+		 * @param headerWriter writer of the response headers sent over the connection
+		 */
+		public ClientWorker(InputStream istream, OutputStream ostream, 
+				HttpRequestParser parser, ResponseHeaderWriter headerWriter) {
+			this.istream = istream;
+			this.ostream = ostream;
+			this.parser = parser;
+			this.headerWriter = headerWriter;
 		}
 		
+		/**
+		 * Serves the requests received over the connection until it should be
+		 * closed. If a response is completed asynchronously, the thread is 
+		 * released and this worker is submitted again once the response is
+		 * completed, so it continues with the next request.
+		 */
 		@Override
 		public void run() {
-			List<String> request;
+			boolean suspended = false;
 			try {
-				istream = new BufferedInputStream(csocket.getInputStream());
-				ostream = new BufferedOutputStream(csocket.getOutputStream());
-				request = readRequest();
+				if (csocket != null && istream == null) {
+					metrics.connectionOpened();
+					csocket.setSoTimeout(keepAliveTimeout * 1000);
+					istream = csocket.getInputStream();
+					ostream = csocket.getChannel() != null 
+						? new SocketOutputStream(csocket, metrics)
+						: new BufferedOutputStream(csocket.getOutputStream());
+				}
+				
+				while (true) {
+					CompletableFuture<Boolean> response = serveRequest(++served < maxKeepAliveRequests);
+					if (!response.isDone()) {
+						suspended = true;
+						response.whenComplete(this::resume);
+						return;
+					}
+					if (!join(response)) {
+						return;
+					}
+				}
+			} catch (SocketTimeoutException e) {
+				// connection was idle for too long
 			} catch (IOException e) {
 				throw new UncheckedIOException(e);
+			} finally {
+				if (!suspended) {
+					closeConnection();
+				}
 			}
-
-			if (request.isEmpty()) {
-				sendError(400, "Bad Request");
-				return;
+		}
+		
+		/**
+		 * Continues serving the connection after a response was completed
+		 * asynchronously. Connection is closed if it should not be kept alive
+		 * or if the response failed. If the worker cannot be submitted again
+		 * because the server is saturated, the client is rejected the same way
+		 * as a new connection before the connection is closed.
+		 * 
+		 * @param keepAlive {@code true} if the connection should be kept alive
+		 * @param error     exception which completed the response, or {@code null}
+		 */
+		private void resume(Boolean keepAlive, Throwable error) {
+			if (error == null && keepAlive) {
+				if (submitTask(this)) {
+					return;
+				}
+				rejectClient();
+			}
+			closeConnection();
+		}
+		
+		/**
+		 * Sends the response for clients which are not admitted. Requests which
+		 * have already arrived are not served; their bytes are discarded so that
+		 * closing the connection does not reset it before the client reads the
+		 * response.
+		 */
+		private void rejectClient() {
+			try {
+				ostream.write(serviceUnavailableResponse);
+				ostream.flush();
+				csocket.shutdownOutput();
+				
+				int available = istream.available();
+				if (available > 0) {
+					istream.skip(available);
+				}
+			} catch (IOException e) {
+				// client is rejected anyway
+			}
+		}
+		
+		/**
+		 * Closes the connection served by this worker.
+		 */
+		private void closeConnection() {
+			try {
+				closeResources();
+			} catch (IOException e) {
+				// ignore
+			}
+			if (csocket != null) {
+				metrics.connectionClosed();
+			}
+		}
+		
+		/**
+		 * Waits for the given completed response and returns whether the
+		 * connection should be kept alive, rethrowing the exception which 
+		 * completed the response as it was thrown.
+		 * 
+		 * @param  response future of the response
+		 * @return          {@code true} if the connection should be kept alive
+		 * @throws IOException if I/O error occurred while completing the response
+		 */
+		private boolean join(CompletableFuture<Boolean> response) throws IOException {
+			try {
+				return response.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) cause).getCause();
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException(cause);
 			}
+		}
+		
+		/**
+		 * Reads a single request from the input stream and starts writing the
+		 * response to the output stream. State of the previous request is 
+		 * discarded first, so this method can be called repeatedly on a 
+		 * persistent connection once the previous response is completed.
+		 * Requests are served in the order in which they were received.
+		 * 
+		 * @param  allowKeepAlive if {@code false}, connection is closed after
+		 *                        this request regardless of what client requested
+		 * @return                future which is completed once the response is
+		 *                        completed, with {@code true} if the connection
+		 *                        should be kept alive for the next request
+		 * @throws IOException if I/O error occurs
+		 */
+		private CompletableFuture<Boolean> serveRequest(boolean allowKeepAlive) throws IOException {
+			resetState();
 			
-			String[] firstLine = request.get(0).split(" ");
-			if (firstLine.length != 3) {
-				sendError(400, "Bad Request");
-				return;
+			try {
+				if (!parser.readRequest(istream)) {
+					return CompletableFuture.completedFuture(false);
+				}
+			} catch (HttpRequestParserException e) {
+				sendError(e.getStatusCode(), e.getStatusText());
+				return CompletableFuture.completedFuture(false);
 			}
+			long start = System.nanoTime();
 			
-			method = firstLine[0].toUpperCase();
-			version = firstLine[2].toUpperCase();
+			method = parser.getMethod();
+			version = parser.getVersion();
 			if (!method.equals("GET") || 
 				!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1")) {
 				sendError(400, "Bad Request");
-				return;
+				return CompletableFuture.completedFuture(false);
 			}
 			
 			host = domainName;
-			for (String header : request) {
-				if (header.startsWith("Host:")) {
-					host = header.split(":")[1].trim();
-				}
+			String hostHeader = parser.getHeader("Host");
+			if (hostHeader != null && !hostHeader.isEmpty()) {
+				int indexOfColon = hostHeader.indexOf(':');
+				host = indexOfColon < 0 ? hostHeader : hostHeader.substring(0, indexOfColon).trim();
 			}
 			
-			synchronized(SmartHttpServer.this) {
-				checkSession(request);
-			}
+			boolean keepAlive = version.equals("HTTP/1.1") 
+				? !parser.headerEquals("Connection", "close")
+				: parser.headerEquals("Connection", "keep-alive");
 			
-			String requestedPath = firstLine[1];
-			String path = requestedPath;
-			String paramString = null;
-			int indexOfQuestionMark = requestedPath.indexOf("?");
-			if (indexOfQuestionMark > 0) {
-				path = requestedPath.substring(0, indexOfQuestionMark);
-				paramString = requestedPath.substring(indexOfQuestionMark + 1);
-			}
+			checkSession();
+			
+			String path = parser.getPath();
+			parser.parseParameters(params);
+			gzipAccepted = acceptsGzip(parser.getHeader("Accept-Encoding"));
 			
-			parseParameters(paramString);
+			createContext();
+			context.setKeepAlive(allowKeepAlive && keepAlive);
 			
+			CompletableFuture<Void> response;
 			try {
-				internalDispatchRequest(path, true);
+				response = internalDispatchRequest(path, true);
+			} catch (IOException | RuntimeException e) {
+				throw e;
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
+			
+			return response.thenApply(v -> {
+				try {
+					return completeRequest(start);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		
+		/**
+		 * Completes the response of the current request once its content has
+		 * been written.
+		 * 
+		 * @param  start value of {@link System#nanoTime()} when the request was read
+		 * @return       {@code true} if the connection should be kept alive for
+		 *               the next request
+		 * @throws IOException if I/O error occurs
+		 */
+		private boolean completeRequest(long start) throws IOException {
+			context.finish();
+			if (session != null) {
+				sessions.update(session);
+			}
+			metrics.recordRequest(
+				context.getStatusCode() == 404 ? NOT_FOUND_ROUTE : route, System.nanoTime() - start
+			);
+			if (!parser.hasBufferedInput() && istream.available() == 0) {
+				ostream.flush();
+			}
+			return context.isKeepAlive();
+		}
+		
+		/**
+		 * Discards the state of the previously served request.
+		 */
+		private void resetState() {
+			version = null;
+			method = null;
+			gzipAccepted = false;
+			host = null;
+			params = new HashMap<>();
+			tempParams = new HashMap<>();
+			permPrams = new HashMap<>();
+			outputCookies = new ArrayList<>();
+			SID = null;
+			session = null;
+			context = null;
+			route = null;
 		}
 		
 		@Override
 		public void dispatchRequest(String urlPath) throws Exception {
-			internalDispatchRequest(urlPath, false);
+			try {
+				internalDispatchRequest(urlPath, false).get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+			}
 		}
 		
 		/**
-		 * Processes the request for the resource with the given URL.
+		 * Starts processing the request for the resource with the given URL.
+		 * Segments {@code .} and {@code ..} of the URL are resolved before it is
+		 * routed, and URL which refers to a parent of the root is rejected.
 		 * 
 		 * @param  urlPath    URL of the requested resource
 		 * @param  directCall if {@code true}, it represents that this resource 
 		 *                    was requested directly by the client
+		 * @return            future which is completed once the content of the
+		 *                    response has been written
 		 * @throws Exception  if any exception occurs
 		 */
-		private void internalDispatchRequest(String urlPath, boolean directCall) throws Exception {
-			if (urlPath.startsWith("/ext/")) {
-				String className = urlPath.replace("/ext/", "");
-				String fqcn = "hr.fer.zemris.java.webserver.workers." + className;
-				try {
-					IWebWorker iww = getWorkerInstance(fqcn);
-					createContext();
-					iww.processRequest(context);
-					closeResources();
-				} catch (RuntimeException e) {
-					sendError(404, "Not Found");
+		private CompletableFuture<Void> internalDispatchRequest(String urlPath, boolean directCall) throws Exception {
+			String path = Router.normalize(urlPath);
+			if (path == null) {
+				if (directCall) {
+					route = INVALID_PATH_ROUTE;
 				}
-				return;
+				sendError(400, "Bad Request");
+				return COMPLETED;
 			}
+			Router.Match<RouteHandler> match = router.route(path);
+			if (directCall) {
+				route = match.getPattern() == null ? path : match.getPattern();
+			}
+			return match.getHandler().handle(this, match, directCall);
+		}
+		
+		/**
+		 * Serves the request by the given worker. Path parameters of the match
+		 * are added to the parameters of the request. Response of a cacheable
+		 * worker is taken from the cache of responses, unless the response has
+		 * already been started by another worker. Other workers are called 
+		 * through the asynchronous interface.
+		 * 
+		 * @param  worker    worker which processes the request
+		 * @param  match     match of the requested path
+		 * @return           future which is completed once the content of the
+		 *                   response has been written
+		 * @throws Exception if any exception occurs
+		 */
+		private CompletableFuture<Void> serveWorker(IWebWorker worker, Router.Match<RouteHandler> match)
+				throws Exception {
+			params.putAll(match.getParameters());
+			createContext();
 			
-			IWebWorker worker = workersMap.get(urlPath);
-			if (worker != null) {
-				createContext();
-				worker.processRequest(context);
-				closeResources();
-				return;
+			if (worker instanceof ICacheableWorker && workerResponseCache != null && !context.isHeaderGenerated()) {
+				ICacheableWorker cacheable = (ICacheableWorker) worker;
+				CachedResponse response = workerResponseCache.get(
+					WorkerResponseCache.key(match.getPath(), cacheable, params),
+					cacheable.getCacheTimeToLive(),
+					() -> CachedResponse.create(worker, params, permPrams, outputCookies, tempParams, this, SID)
+				);
+				response.writeTo(context);
+				return COMPLETED;
 			}
 			
-			if (urlPath.startsWith("/private") && directCall) {
+			return IAsyncWebWorker.adapt(worker).processRequestAsync(context);
+		}
+		
+		/**
+		 * Serves the request by the worker whose class name is the remainder
+		 * of the given match, or sends an error if there is no such worker.
+		 * 
+		 * @param  match     match of the requested path
+		 * @return           future which is completed once the content of the
+		 *                   response has been written
+		 * @throws Exception if any exception occurs
+		 */
+		private CompletableFuture<Void> serveExtWorker(Router.Match<RouteHandler> match) throws Exception {
+			IWebWorker iww;
+			try {
+				iww = workerRegistry.get(match.getRemainder());
+			} catch (RuntimeException e) {
+				iww = null;
+			}
+			if (iww == null) {
 				sendError(404, "Not Found");
-				return;
+				return COMPLETED;
 			}
-			
-			if (urlPath.equals("/")) {
+			return serveWorker(iww, match);
+		}
+		
+		/**
+		 * Serves the file or executes the script with the given URL from the
+		 * document root.
+		 * 
+		 * @param  urlPath    URL of the requested file
+		 * @param  directCall if {@code true}, it represents that this file 
+		 *                    was requested directly by the client
+		 * @throws Exception  if any exception occurs
+		 */
+		private void serveFile(String urlPath, boolean directCall) throws Exception {
+			Path resolvedPath = documentRoot.resolve(urlPath.substring(1)).normalize();
+			if (!resolvedPath.startsWith(documentRoot)) {
 				sendError(403, "Forbidden");
 				return;
 			}
 			
-			Path resolvedPath = documentRoot.resolve(urlPath.substring(1));
-			
-			if (!Files.isRegularFile(resolvedPath) || !Files.isReadable(resolvedPath)) {
-				sendError(404, "Not Found");
-				return;
-			}
-
 			String extension = "";
-			int indexOfDot = resolvedPath.getFileName().toString().lastIndexOf("."); 
+			String fileName = resolvedPath.getFileName() == null ? "" : resolvedPath.getFileName().toString();
+			int indexOfDot = fileName.lastIndexOf("."); 
 			if (indexOfDot > 0) {
-				extension = resolvedPath.getFileName().toString().substring(indexOfDot + 1);
+				extension = fileName.substring(indexOfDot + 1);
 			}
 			
 			if (extension.equals("smscr")) {
+				if (!Files.isRegularFile(resolvedPath) || !Files.isReadable(resolvedPath)) {
+					sendError(404, "Not Found");
+					return;
+				}
 				executeScript(resolvedPath);
-				closeResources();
+				return;
+			}
+			
+			StaticFile file = staticFileCache.get(resolvedPath);
+			if (file == null) {
+				sendError(404, "Not Found");
 				return;
 			}
 			
@@ -453,23 +1888,162 @@ public class SmartHttpServer {
 				mimeType = "application/octet-stream";
 			}
 			
+			boolean compressible = RequestContext.isCompressible(mimeType);
+			byte[] content = file.getContent();
+			String eTag = file.getETag();
+			long length = file.getSize();
+			Path filePath = resolvedPath;
+			boolean gzip = false;
+			
+			List<ByteRange> ranges = null;
+			String range = directCall ? parser.getHeader("Range") : null;
+			if (range != null && isIfRangeSatisfied(file, parser.getHeader("If-Range"))) {
+				ranges = ByteRange.parse(range, file.getSize(), MAX_RANGES);
+			}
+			
+			if (compressible && gzipAccepted && ranges == null) {
+				if (content != null) {
+					byte[] gzipped = file.getGzippedContent();
+					if (gzipped != null) {
+						content = gzipped;
+						eTag = file.getGzippedETag();
+						length = gzipped.length;
+						gzip = true;
+					}
+				} else {
+					StaticFile gzipped = staticFileCache.get(resolvedPath.resolveSibling(fileName + ".gz"));
+					if (gzipped != null && gzipped.getLastModifiedMillis() >= file.getLastModifiedMillis()) {
+						content = gzipped.getContent();
+						eTag = gzipped.getETag();
+						length = gzipped.getSize();
+						filePath = resolvedPath.resolveSibling(fileName + ".gz");
+						gzip = true;
+					}
+				}
+			}
+			
 			createContext();
+			context.setGzipAllowed(false);
 			context.setMimeType(mimeType);
-			
-			InputStream is = Files.newInputStream(resolvedPath);
-			long length = Files.size(resolvedPath);
 			context.setContentLength(length);
+			if (gzip) {
+				context.setHeader("Content-Encoding", "gzip");
+			}
+			if (compressible) {
+				context.setHeader("Vary", "Accept-Encoding");
+			}
+			context.setHeader("Accept-Ranges", "bytes");
+			context.setHeader("ETag", eTag);
+			context.setHeader("Last-Modified", file.getLastModifiedText());
 			
-			byte[] buf = new byte[1024];
-			while (true) {
-				int r = is.read(buf);
-				if (r < 1) {
-					break;
-				}
-				context.write(buf, 0, r);
+			if (directCall && file.isNotModified(
+					parser.getHeader("If-None-Match"), parser.getHeader("If-Modified-Since"))) {
+				context.setStatusCode(304);
+				context.setStatusText("Not Modified");
+				return;
+			}
+			
+			if (ranges != null) {
+				sendRanges(ranges, file, filePath, mimeType);
+			} else if (content != null) {
+				context.write(content);
+			} else {
+				context.writeFile(filePath, 0, length);
+			}
+		}
+		
+		/**
+		 * Returns {@code true} if the {@code Range} header of the request should
+		 * be honoured according to the given value of the {@code If-Range}
+		 * header, that is if the client has the current version of the file.
+		 * Entity tags are compared using the strong comparison.
+		 * 
+		 * @param  file    requested file
+		 * @param  ifRange value of the {@code If-Range} header, or {@code null}
+		 * @return         {@code true} if the {@code Range} header should be honoured
+		 */
+		private boolean isIfRangeSatisfied(StaticFile file, String ifRange) {
+			if (ifRange == null) {
+				return true;
+			}
+			ifRange = ifRange.trim();
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+				return ifRange.equals(file.getETag());
+			}
+			return ifRange.equals(file.getLastModifiedText());
+		}
+		
+		/**
+		 * Sends the given ranges of the given file as partial content. Single
+		 * range is sent as it is, while multiple ranges are sent as parts of a
+		 * {@code multipart/byteranges} response. If there are no ranges, the
+		 * request cannot be satisfied. Ranges of files whose content is not
+		 * cached are transferred directly from the file.
+		 * 
+		 * @param  ranges   ranges to be sent
+		 * @param  file     requested file
+		 * @param  filePath path to the file
+		 * @param  mimeType type of the file
+		 * @throws IOException if I/O error occurs
+		 */
+		private void sendRanges(List<ByteRange> ranges, StaticFile file, Path filePath, String mimeType)
+				throws IOException {
+			long totalLength = file.getSize();
+			
+			if (ranges.isEmpty()) {
+				context.setStatusCode(416);
+				context.setStatusText("Range Not Satisfiable");
+				context.setHeader("Content-Range", "bytes */" + totalLength);
+				context.setContentLength(0L);
+				return;
+			}
+			
+			context.setStatusCode(206);
+			context.setStatusText("Partial Content");
+			
+			if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				context.setHeader("Content-Range", range.toContentRange(totalLength));
+				context.setContentLength(range.getLength());
+				writeRange(range, file, filePath);
+				return;
+			}
+			
+			String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+			byte[][] partHeaders = new byte[ranges.size()][];
+			byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			long length = end.length;
+			for (int i = 0; i < ranges.size(); i++) {
+				partHeaders[i] = ("\r\n--" + boundary + "\r\n" +
+					"Content-Type: " + mimeType + "\r\n" +
+					"Content-Range: " + ranges.get(i).toContentRange(totalLength) + "\r\n\r\n"
+				).getBytes(StandardCharsets.ISO_8859_1);
+				length += partHeaders[i].length + ranges.get(i).getLength();
 			}
 			
-			closeResources();
+			context.setMimeType("multipart/byteranges; boundary=" + boundary);
+			context.setContentLength(length);
+			for (int i = 0; i < ranges.size(); i++) {
+				context.write(partHeaders[i]);
+				writeRange(ranges.get(i), file, filePath);
+			}
+			context.write(end);
+		}
+		
+		/**
+		 * Writes the given range of the given file as content of the response.
+		 * 
+		 * @param  range    range to be written
+		 * @param  file     requested file
+		 * @param  filePath path to the file
+		 * @throws IOException if I/O error occurs
+		 */
+		private void writeRange(ByteRange range, StaticFile file, Path filePath) throws IOException {
+			if (file.getContent() != null) {
+				context.write(file.getContent(), (int) range.getStart(), (int) range.getLength());
+			} else {
+				context.writeFile(filePath, range.getStart(), range.getLength());
+			}
 		}
 		
 		/**
@@ -480,12 +2054,17 @@ public class SmartHttpServer {
 				context = new RequestContext(ostream, params, permPrams, 
 					outputCookies, tempParams, this, SID
 				);
+				context.setHeaderWriter(headerWriter);
+				context.setGzipAllowed(gzipAccepted);
+				if ("HTTP/1.1".equals(version)) {
+					context.setChunkSize(chunkSize);
+				}
 			}
 		}
 		
 		/**
 		 * Flushes output stream and closes output stream, input stream and
-		 * client socket.
+		 * client socket (if there is one).
 		 * 
 		 * @throws IOException if I/O error occurs
 		 */
@@ -493,12 +2072,14 @@ public class SmartHttpServer {
 			ostream.flush();
 			ostream.close();
 			istream.close();
-			csocket.close();
+			if (csocket != null) {
+				csocket.close();
+			}
 		}
 		
 		/**
-		 * Sends empty HTTP response with the given status code and status text.
-		 * This method closes resources held by this {@code ClientWorker}.
+		 * Sends HTTP response with the given status code and status text, whose
+		 * content is the status code followed by the status text.
 		 * 
 		 * @param statusCode status code of the response
 		 * @param statusText status text of the response
@@ -507,233 +2088,96 @@ public class SmartHttpServer {
 			createContext();
 			context.setStatusCode(statusCode);
 			context.setStatusText(statusText);
+			byte[] body = (statusCode + " " + statusText).getBytes(StandardCharsets.UTF_8);
+			context.setContentLength((long) body.length);
 			try {
-				context.write(statusCode + " " + statusText);
-				closeResources();
+				context.write(body);
 			} catch (IOException e) {
 				throw new UncheckedIOException(e);
 			}
 		}
 		
 		/**
-		 * Parses the parameters from the given string.
+		 * Returns {@code true} if the given value of the {@code Accept-Encoding}
+		 * header accepts content compressed using gzip, either explicitly or
+		 * through the wildcard.
 		 * 
-		 * @param paramString string from which to parse the parameters
-		 */
-		private void parseParameters(String paramString) {
-			if (paramString == null) {
-				return;
-			}
-			for (String param : paramString.split("&")) {
-				String key = param;
-				String value = "";
-				int indexOfEqualsSign = param.indexOf("=");
-				if (indexOfEqualsSign > 0) {
-					key = param.substring(0, indexOfEqualsSign);
-					value = param.substring(indexOfEqualsSign + 1);
-				}
-				params.put(key, value);
-			}
-		}
-		
-		/**
-		 * Reads the HTTP request and returns list of strings that represent
-		 * lines of the request.
-		 *  
-		 * @return list of strings that represent lines of the request
-		 * @throws IOException if I/O error occurs
+		 * @param  acceptEncoding value of the {@code Accept-Encoding} header, or {@code null}
+		 * @return                {@code true} if gzip is accepted
 		 */
-		private List<String> readRequest() throws IOException {
-			byte[] requestBytes = extractRequestBytes();
-			
-			if (requestBytes != null) {
-				String requestString = new String(requestBytes, StandardCharsets.ISO_8859_1);
-				return extractRequestHeader(requestString);
-			} else {
-				return new ArrayList<>();
+		private boolean acceptsGzip(String acceptEncoding) {
+			if (acceptEncoding == null) {
+				return false;
 			}
-		}
-		
-		/**
-		 * Returns the byte array that contains data from the HTTP request.
-		 * 
-		 * @return the byte array that contains data from the HTTP request
-		 * @throws IOException if I/O error occurs
-		 */
-		private byte[] extractRequestBytes() throws IOException {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int state = 0;
 			
-		l:	while (true) {
-				int b = istream.read();
-				
-				if (b == -1) {
-					return null;
-				}
-				if (b != 13) {
-					bos.write(b);
+			boolean wildcard = false;
+			for (String coding : acceptEncoding.split(",")) {
+				String[] parts = coding.split(";");
+				String name = parts[0].trim();
+				boolean accepted = true;
+				for (int i = 1; i < parts.length; i++) {
+					String parameter = parts[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							accepted = Double.parseDouble(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							accepted = false;
+						}
+					}
 				}
 				
-				switch(state) {
-				case 0: 
-					if (b==13) { state=1; } else if (b == 10) state = 4;
-					break;
-				case 1: 
-					if (b==10) { state=2; } else state = 0;
-					break;
-				case 2: 
-					if (b==13) { state=3; } else state = 0;
-					break;
-				case 3: 
-					if (b==10) { break l; } else state = 0;
-					break;
-				case 4: 
-					if (b==10) { break l; } else state = 0;
-					break;
-				}
-			}
-			
-			return bos.toByteArray();
-		}
-		
-		/**
-		 * Reads the HTTP request that is contained in the given string and returns 
-		 * list of strings that represent lines of the request.
-		 * 
-		 * @param  requestHeader string that represents whole HTTP request
-		 * @return               list of strings that represent lines of the request
-		 */
-		private List<String> extractRequestHeader(String requestHeader) {
-			List<String> headers = new ArrayList<String>();
-			String currentLine = null;
-			
-			for (String s : requestHeader.split("\n")) {
-				if (s.isEmpty()) {
-					break;
+				if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+					return accepted;
 				}
-				char c = s.charAt(0);
-				if(c == ' ' || c == '\t') {
-					currentLine += s;
-				} else {
-					if(currentLine != null) {
-						headers.add(currentLine);
-					}
-					currentLine = s;
+				if (name.equals("*")) {
+					wildcard = accepted;
 				}
 			}
-			
-			if (!currentLine.isEmpty()) {
-				headers.add(currentLine);
-			}
-			return headers;
+			return wildcard;
 		}
 		
 		/**
-		 * Executes the script based on the given URL of the script.
+		 * Executes the script based on the given URL of the script. Compiled 
+		 * script is taken from the script cache.
 		 * 
 		 * @param  scriptPath  URL of the script to be executed
 		 * @throws IOException if I/O error occurs
 		 */
 		private void executeScript(Path scriptPath) throws IOException {
-			String documentBody = new String(
-				Files.readAllBytes(scriptPath), 
-				StandardCharsets.UTF_8
-			);
+			CompiledScript program = scriptCache.getProgram(scriptPath);
 			createContext();
-			new SmartScriptEngine(
-				new SmartScriptParser(documentBody).getDocumentNode(), 
-				context
-			).execute();
+			new SmartScriptEngine(program, context).execute();
 		}
 		
 		/**
 		 * Checks whether the session already exists for the client, based on the
-		 * received HTTP request.
-		 * 
-		 * @param request list of strings that represent lines of the request
+		 * {@code sid} cookie of the received HTTP request.
 		 */
-		private void checkSession(List<String> request) {
-			boolean foundCookie = false;
+		private void checkSession() {
+			String sidCandidate = parser.getCookie("sid");
 			
-			for (String headerLine : request) {
-				if (!headerLine.startsWith("Cookie:")) {
-					continue;
-				}
-				
-				foundCookie = true;
-				headerLine = headerLine.replace("Cookie:", "");
-				String[] cookieParams = headerLine.split(";");
-				String sidCandidate = null;
-				
-				for (String param : cookieParams) {
-					String key = param;
-					String value = "";
-					int indexOfEqualsSign = param.indexOf("=");
-					if (indexOfEqualsSign > 0) {
-						key = param.substring(0, indexOfEqualsSign).trim();
-						value = param.substring(indexOfEqualsSign + 1);
-					}
-					if (key.equals("sid") && value.startsWith("\"") && value.endsWith("\"")) {
-						sidCandidate = value.substring(1, value.length() - 1);
-					}
-				}
-				
-				if (sidCandidate == null) {
-					createNewSession();
-				} else {
-					SessionMapEntry possibleSession = sessions.get(sidCandidate);
-					
-					if (possibleSession == null || !host.equals(possibleSession.host)) {
-						createNewSession();
-					} else if (possibleSession.validUntil < System.currentTimeMillis()) {
-						sessions.remove(sidCandidate);
-						createNewSession();						
-					} else {
-						possibleSession.validUntil = System.currentTimeMillis() + 
-						                             sessionTimeout * 1000;
-						SID = possibleSession.sid;
-					}
-				}
-				
-				permPrams = sessions.get(SID).map;
+			if (sidCandidate != null && sidCandidate.length() >= 2 &&
+				sidCandidate.startsWith("\"") && sidCandidate.endsWith("\"")) {
+				session = sessions.get(sidCandidate.substring(1, sidCandidate.length() - 1), host);
 			}
 			
-			if (!foundCookie) {
+			if (session == null) {
 				createNewSession();
-				permPrams = sessions.get(SID).map;
+			} else {
+				SID = session.sid;
+				permPrams = session.map;
 			}
 		}
 		
 		/**
-		 * Creates new session if one does not already exist.
+		 * Creates new session and adds the cookie with its session ID to the 
+		 * response.
 		 */
 		private void createNewSession() {
-			SID = generateRandomSid();
-			SessionMapEntry entry = new SessionMapEntry();
-			entry.sid = SID;
-			entry.host = host;
-			entry.validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-			entry.map = new ConcurrentHashMap<String, String>();
+			session = sessions.create(host);
+			SID = session.sid;
+			permPrams = session.map;
 			outputCookies.add(new RCCookie("sid", SID, null, host, "/", true));
-			sessions.put(SID, entry);
-		}
-		
-		/**
-		 * Generates random session ID that is a string that consists of 20 upper 
-		 * case letters.
-		 * 
-		 * @return session ID that was randomly generated
-		 */
-		private String generateRandomSid() {
-			StringBuilder sb = new StringBuilder();
-			final int length = 20;
-			
-			for (int i = 0; i < length; i++) {
-				char randomUpper = (char) (sessionRandom.nextInt('Z' - 'A' + 1) + 'A');
-				sb.append(randomUpper);
-			}
-			
-			return sb.toString();
 		}
 		
 	}
@@ -0,0 +1,369 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of static files. Content of files which are not larger than the given
+ * limit is kept in memory, as long as the total size of cached content does not
+ * exceed the capacity of the cache; the least recently used files are evicted
+ * first. Cached file is read again only if its last modified time or size
+ * changed since it was cached. For every file, the validators used for
+ * conditional requests ({@code ETag} and {@code Last-Modified}) are provided.
+ * Content of a cached file is compressed using gzip when it is first requested
+ * in that form, and the compressed content is kept together with the original
+ * one, so it is discarded when the file changes. Compressed content is not
+ * counted towards the capacity, but it is only kept if it is smaller than the
+ * original. This class is thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class StaticFileCache {
+	
+	/**
+	 * Format of dates in HTTP headers.
+	 */
+	private static final DateTimeFormatter HTTP_DATE_FORMAT =
+		DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+	
+	/**
+	 * Model of a static file.
+	 */
+	public static class StaticFile {
+		
+		/**
+		 * Size of the file.
+		 */
+		private long size;
+		
+		/**
+		 * Last modified time of the file.
+		 */
+		private FileTime lastModified;
+		
+		/**
+		 * Value of the {@code ETag} header for the file.
+		 */
+		private String eTag;
+		
+		/**
+		 * Value of the {@code Last-Modified} header for the file.
+		 */
+		private String lastModifiedText;
+		
+		/**
+		 * Content of the file, or {@code null} if it is not cached.
+		 */
+		private byte[] content;
+		
+		/**
+		 * Content of the file compressed using gzip, or {@code null} if it has
+		 * not been compressed or compression does not make it smaller.
+		 */
+		private volatile byte[] gzippedContent;
+		
+		/**
+		 * Flag that indicates whether the content has been compressed.
+		 */
+		private volatile boolean compressed;
+		
+		/**
+		 * Constructs a new {@code StaticFile} from the given arguments.
+		 * 
+		 * @param attributes attributes of the file
+		 * @param content    content of the file, or {@code null} if it is not cached
+		 */
+		private StaticFile(BasicFileAttributes attributes, byte[] content) {
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime();
+			this.eTag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified.toMillis()) + "\"";
+			this.lastModifiedText = HTTP_DATE_FORMAT.format(lastModified.toInstant());
+			this.content = content;
+		}
+		
+		/**
+		 * Returns the size of the file.
+		 * 
+		 * @return the size of the file
+		 */
+		public long getSize() {
+			return size;
+		}
+		
+		/**
+		 * Returns the last modified time of the file (in milliseconds since the
+		 * epoch).
+		 * 
+		 * @return the last modified time of the file
+		 */
+		public long getLastModifiedMillis() {
+			return lastModified.toMillis();
+		}
+		
+		/**
+		 * Returns the value of the {@code ETag} header for the file.
+		 * 
+		 * @return the value of the {@code ETag} header
+		 */
+		public String getETag() {
+			return eTag;
+		}
+		
+		/**
+		 * Returns the value of the {@code ETag} header for the content of the
+		 * file compressed using gzip.
+		 * 
+		 * @return the value of the {@code ETag} header for compressed content
+		 */
+		public String getGzippedETag() {
+			return eTag.substring(0, eTag.length() - 1) + "-gz\"";
+		}
+		
+		/**
+		 * Returns the value of the {@code Last-Modified} header for the file.
+		 * 
+		 * @return the value of the {@code Last-Modified} header
+		 */
+		public String getLastModifiedText() {
+			return lastModifiedText;
+		}
+		
+		/**
+		 * Returns the content of the file, or {@code null} if it is not cached.
+		 * 
+		 * @return the content of the file, or {@code null} if it is not cached
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+		
+		/**
+		 * Returns the content of the file compressed using gzip, or {@code null}
+		 * if the content is not cached or compression does not make it smaller.
+		 * Content is compressed on the first call.
+		 * 
+		 * @return the compressed content, or {@code null}
+		 */
+		public byte[] getGzippedContent() {
+			if (content == null) {
+				return null;
+			}
+			if (!compressed) {
+				synchronized (this) {
+					if (!compressed) {
+						byte[] gzipped = gzip(content);
+						gzippedContent = gzipped.length < content.length ? gzipped : null;
+						compressed = true;
+					}
+				}
+			}
+			return gzippedContent;
+		}
+		
+		/**
+		 * Returns {@code true} if the client already has the current version of
+		 * the file, according to the given values of the {@code If-None-Match}
+		 * and {@code If-Modified-Since} headers of the request. If the first one
+		 * is present, the second one is ignored.
+		 * 
+		 * @param  ifNoneMatch     value of the {@code If-None-Match} header, or {@code null}
+		 * @param  ifModifiedSince value of the {@code If-Modified-Since} header, or {@code null}
+		 * @return                 {@code true} if the file was not modified
+		 */
+		public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+			if (ifNoneMatch != null) {
+				for (String tag : ifNoneMatch.split(",")) {
+					tag = tag.trim();
+					if (tag.startsWith("W/")) {
+						tag = tag.substring(2);
+					}
+					if (tag.equals("*") || tag.equals(eTag) || tag.equals(getGzippedETag())) {
+						return true;
+					}
+				}
+				return false;
+			}
+			
+			if (ifModifiedSince != null) {
+				try {
+					Instant since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+						.toInstant();
+					return lastModified.toMillis() / 1000 <= since.getEpochSecond();
+				} catch (DateTimeParseException e) {
+					return false;
+				}
+			}
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * Compresses the given data using gzip.
+	 * 
+	 * @param  data data to be compressed
+	 * @return      compressed data
+	 */
+	private static byte[] gzip(byte[] data) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 32);
+		try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+			gos.write(data);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Maximum total size of cached content (in bytes).
+	 */
+	private long capacity;
+	
+	/**
+	 * Maximum size of a file whose content is cached (in bytes).
+	 */
+	private long maxFileSize;
+	
+	/**
+	 * Total size of cached content (in bytes).
+	 */
+	private long cachedBytes;
+	
+	/**
+	 * Map of cached files in access order.
+	 */
+	private Map<Path, StaticFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * Number of requests for which the cached content was used.
+	 */
+	private LongAdder hits = new LongAdder();
+	
+	/**
+	 * Number of requests for which the file had to be read.
+	 */
+	private LongAdder misses = new LongAdder();
+	
+	/**
+	 * Constructs a new {@code StaticFileCache} with the given limits.
+	 * 
+	 * @param  capacity    maximum total size of cached content (in bytes)
+	 * @param  maxFileSize maximum size of a file whose content is cached (in bytes)
+	 * @throws IllegalArgumentException if either of the limits is negative
+	 */
+	public StaticFileCache(long capacity, long maxFileSize) {
+		if (capacity < 0 || maxFileSize < 0) {
+			throw new IllegalArgumentException("Limits must not be negative.");
+		}
+		this.capacity = capacity;
+		this.maxFileSize = Math.min(maxFileSize, Math.min(capacity, Integer.MAX_VALUE - 8));
+	}
+	
+	/**
+	 * Returns the file at the given path, or {@code null} if it is not a regular
+	 * readable file. Content of the file is read and cached if it is small
+	 * enough and not already cached.
+	 * 
+	 * @param  path path to the file
+	 * @return      the file, or {@code null} if it is not a regular readable file
+	 */
+	public StaticFile get(Path path) {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+		if (!attributes.isRegularFile()) {
+			return null;
+		}
+		
+		synchronized (entries) {
+			StaticFile file = entries.get(path);
+			if (file != null &&
+				file.lastModified.equals(attributes.lastModifiedTime()) &&
+				file.size == attributes.size()) {
+				hits.increment();
+				return file;
+			}
+		}
+		
+		if (attributes.size() > maxFileSize) {
+			return Files.isReadable(path) ? new StaticFile(attributes, null) : null;
+		}
+		
+		misses.increment();
+		byte[] content;
+		try {
+			content = Files.readAllBytes(path);
+		} catch (IOException e) {
+			return null;
+		}
+		if (content.length != attributes.size()) {
+			// file was modified while being read, so it is served but not cached
+			return new StaticFile(attributes, null);
+		}
+		
+		StaticFile file = new StaticFile(attributes, content);
+		synchronized (entries) {
+			StaticFile previous = entries.put(path, file);
+			if (previous != null) {
+				cachedBytes -= previous.size;
+			}
+			cachedBytes += file.size;
+			
+			Iterator<StaticFile> it = entries.values().iterator();
+			while (cachedBytes > capacity && it.hasNext()) {
+				cachedBytes -= it.next().size;
+				it.remove();
+			}
+		}
+		return file;
+	}
+	
+	/**
+	 * Returns the number of requests for which the cached content was used.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of requests for which the file had to be read.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * Returns the total size of cached content (in bytes).
+	 * 
+	 * @return the total size of cached content
+	 */
+	public long getCachedBytes() {
+		synchronized (entries) {
+			return cachedBytes;
+		}
+	}
+	
+}
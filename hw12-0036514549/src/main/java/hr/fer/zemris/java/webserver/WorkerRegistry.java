@@ -0,0 +1,212 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link IWebWorker}s that are requested by their class name from
+ * a single package. Each class name is resolved only once. Workers without
+ * instance fields are stateless, so a single shared instance is created for
+ * them. Other workers are created for every request using a cached constructor
+ * handle. Class names which could not be resolved are remembered as well, so
+ * repeated requests for them do not load classes again. This class is
+ * thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class WorkerRegistry {
+	
+	/**
+	 * Model of a resolved class name.
+	 */
+	private static class Resolution {
+		
+		/**
+		 * Resolution of a class name that does not represent a worker.
+		 */
+		static final Resolution MISS = new Resolution(null, null);
+		
+		/**
+		 * Shared instance of a stateless worker, or {@code null}.
+		 */
+		final IWebWorker instance;
+		
+		/**
+		 * Constructor of a worker that is not stateless, or {@code null}.
+		 */
+		final MethodHandle constructor;
+		
+		/**
+		 * Constructs a new {@code Resolution} from the given arguments.
+		 * 
+		 * @param instance    shared instance of a stateless worker
+		 * @param constructor constructor of a worker that is not stateless
+		 */
+		Resolution(IWebWorker instance, MethodHandle constructor) {
+			this.instance = instance;
+			this.constructor = constructor;
+		}
+		
+	}
+	
+	/**
+	 * Maximum number of remembered misses. When it is reached, remembered
+	 * misses are forgotten, so requests for random names cannot exhaust memory.
+	 */
+	private static final int MAX_MISSES = 1024;
+	
+	/**
+	 * Package of the workers, including the trailing dot.
+	 */
+	private String packagePrefix;
+	
+	/**
+	 * Class loader used to load the workers.
+	 */
+	private ClassLoader classLoader;
+	
+	/**
+	 * Map of resolved worker classes.
+	 */
+	private Map<String, Resolution> workers = new ConcurrentHashMap<>();
+	
+	/**
+	 * Map of class names which do not represent a worker.
+	 */
+	private Map<String, Resolution> misses = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructs a new {@code WorkerRegistry} of workers from the given package.
+	 * 
+	 * @param packageName name of the package of the workers
+	 * @param classLoader class loader used to load the workers
+	 */
+	public WorkerRegistry(String packageName, ClassLoader classLoader) {
+		this.packagePrefix = packageName + ".";
+		this.classLoader = classLoader;
+	}
+	
+	/**
+	 * Returns the worker with the given class name (relative to the package of
+	 * this registry), or {@code null} if there is no such worker.
+	 * 
+	 * @param  className name of the worker class
+	 * @return           the worker, or {@code null} if there is no such worker
+	 * @throws RuntimeException if the worker could not be instantiated
+	 */
+	public IWebWorker get(String className) {
+		Resolution resolution = workers.get(className);
+		if (resolution == null) {
+			if (misses.containsKey(className)) {
+				return null;
+			}
+			resolution = resolve(className);
+			if (resolution == Resolution.MISS) {
+				if (misses.size() >= MAX_MISSES) {
+					misses.clear();
+				}
+				misses.put(className, resolution);
+				return null;
+			}
+			workers.putIfAbsent(className, resolution);
+		}
+		
+		if (resolution.instance != null) {
+			return resolution.instance;
+		}
+		try {
+			return (IWebWorker) resolution.constructor.invoke();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Loads the worker class with the given name and prepares the means of
+	 * obtaining its instances.
+	 * 
+	 * @param  className name of the worker class
+	 * @return           resolution of the class name, or {@link Resolution#MISS}
+	 *                   if it does not represent a worker
+	 */
+	private Resolution resolve(String className) {
+		if (!isValidClassName(className)) {
+			return Resolution.MISS;
+		}
+		
+		try {
+			Class<?> workerClass = Class.forName(packagePrefix + className, true, classLoader);
+			if (!IWebWorker.class.isAssignableFrom(workerClass) ||
+				Modifier.isAbstract(workerClass.getModifiers())) {
+				return Resolution.MISS;
+			}
+			
+			MethodHandle constructor = MethodHandles.publicLookup()
+				.findConstructor(workerClass, MethodType.methodType(void.class))
+				.asType(MethodType.methodType(IWebWorker.class));
+			
+			if (isStateless(workerClass)) {
+				return new Resolution((IWebWorker) constructor.invoke(), null);
+			}
+			return new Resolution(null, constructor);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return Resolution.MISS;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the given class and its superclasses declare no
+	 * instance fields.
+	 * 
+	 * @param  c class to be checked
+	 * @return   {@code true} if the class declares no instance fields
+	 */
+	private static boolean isStateless(Class<?> c) {
+		for (; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns {@code true} if the given string is a syntactically valid
+	 * (possibly qualified) class name, so that malformed names are rejected
+	 * without trying to load them.
+	 * 
+	 * @param  className string to be checked
+	 * @return           {@code true} if the string is a valid class name
+	 */
+	private static boolean isValidClassName(String className) {
+		boolean partStart = true;
+		for (int i = 0; i < className.length(); i++) {
+			char c = className.charAt(i);
+			if (c == '.') {
+				if (partStart) {
+					return false;
+				}
+				partStart = true;
+			} else if (partStart ? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c)) {
+				partStart = false;
+			} else {
+				return false;
+			}
+		}
+		return !partStart;
+	}
+	
+}
@@ -0,0 +1,410 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * Cache of responses of {@link ICacheableWorker}s. Responses are kept by a key
+ * built from the requested path and the values of the parameters selected by
+ * the worker, for the time to live declared by the worker. Only successful
+ * responses are kept, as long as their total size does not exceed the capacity
+ * of the cache; the least recently used responses are evicted first.
+ * <p>
+ * Concurrent requests for a response which is not cached are coalesced, so
+ * the response is created by the first of them while the others wait for it
+ * and share it, whether it is successful or not. Numbers of cache hits, misses
+ * and coalesced requests are counted. This class is thread-safe.
+ * 
+ * @author Matija Frandolić
+ */
+public class WorkerResponseCache {
+	
+	/**
+	 * Model of a response created by a worker, without the status line and
+	 * the standard headers, which are generated again when it is sent.
+	 */
+	public static class CachedResponse {
+		
+		/**
+		 * Status code of the response.
+		 */
+		private int statusCode;
+		
+		/**
+		 * Status text of the response.
+		 */
+		private String statusText;
+		
+		/**
+		 * Type of the content.
+		 */
+		private String mimeType;
+		
+		/**
+		 * Encoding of the content.
+		 */
+		private String encoding;
+		
+		/**
+		 * Additional headers of the response.
+		 */
+		private Map<String, String> headers;
+		
+		/**
+		 * Content of the response.
+		 */
+		private byte[] content;
+		
+		/**
+		 * Constructs a new {@code CachedResponse} from the given values.
+		 * 
+		 * @param statusCode status code of the response
+		 * @param statusText status text of the response
+		 * @param mimeType   type of the content
+		 * @param encoding   encoding of the content
+		 * @param headers    additional headers of the response
+		 * @param content    content of the response
+		 */
+		public CachedResponse(int statusCode, String statusText, String mimeType,
+				String encoding, Map<String, String> headers, byte[] content) {
+			this.statusCode = statusCode;
+			this.statusText = statusText;
+			this.mimeType = mimeType;
+			this.encoding = encoding;
+			this.headers = headers;
+			this.content = content;
+		}
+		
+		/**
+		 * Creates the response by calling the given worker with a context
+		 * which collects the response instead of sending it. Parameters,
+		 * cookies and dispatcher of the request are given to that context, so
+		 * cookies added by the worker are sent with this response only.
+		 * 
+		 * @param  worker               worker which creates the response
+		 * @param  parameters           map of parameters
+		 * @param  persistentParameters map of persistent parameters
+		 * @param  outputCookies        list of cookies
+		 * @param  temporaryParameters  map of temporary parameters
+		 * @param  dispatcher           dispatcher of the request
+		 * @param  sid                  session ID
+		 * @return                      the response created by the worker
+		 * @throws Exception if any exception occurs
+		 */
+		public static CachedResponse create(IWebWorker worker, Map<String, String> parameters,
+				Map<String, String> persistentParameters, List<RCCookie> outputCookies,
+				Map<String, String> temporaryParameters, IDispatcher dispatcher, String sid)
+				throws Exception {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			RequestContext context = new RequestContext(os, parameters, persistentParameters,
+				outputCookies, temporaryParameters, dispatcher, sid);
+			context.setHeaderOmitted();
+			worker.processRequest(context);
+			context.finish();
+			
+			Map<String, String> headers = context.getHeaders();
+			return new CachedResponse(
+				context.getStatusCode(),
+				context.getStatusText(),
+				context.getMimeType(),
+				context.getEncoding(),
+				headers == null ? Collections.emptyMap() : new HashMap<>(headers),
+				os.toByteArray()
+			);
+		}
+		
+		/**
+		 * Sends this response through the given context, which must not have
+		 * generated the header yet.
+		 * 
+		 * @param  context context through which the response is sent
+		 * @throws IOException if I/O error occurs
+		 */
+		public void writeTo(RequestContext context) throws IOException {
+			context.setStatusCode(statusCode);
+			context.setStatusText(statusText);
+			context.setMimeType(mimeType);
+			context.setEncoding(encoding);
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				context.setHeader(header.getKey(), header.getValue());
+			}
+			context.setContentLength((long) content.length);
+			context.write(content);
+		}
+		
+		/**
+		 * Returns the status code of the response.
+		 * 
+		 * @return the status code of the response
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+		
+		/**
+		 * Returns the content of the response. Returned array must not be modified.
+		 * 
+		 * @return the content of the response
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+		
+	}
+	
+	/**
+	 * Model of a cached response.
+	 */
+	private static class CacheEntry {
+		
+		/**
+		 * Cached response.
+		 */
+		final CachedResponse response;
+		
+		/**
+		 * Value of {@link System#nanoTime()} after which the response expires.
+		 */
+		final long expiresAt;
+		
+		/**
+		 * Constructs a new {@code CacheEntry} from the given arguments.
+		 * 
+		 * @param response  cached response
+		 * @param expiresAt value of {@link System#nanoTime()} after which the
+		 *                  response expires
+		 */
+		CacheEntry(CachedResponse response, long expiresAt) {
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+		
+	}
+	
+	/**
+	 * Model of an action which creates a response.
+	 */
+	@FunctionalInterface
+	public interface ResponseLoader {
+		
+		/**
+		 * Creates the response.
+		 * 
+		 * @return the created response
+		 * @throws Exception if any exception occurs
+		 */
+		CachedResponse load() throws Exception;
+		
+	}
+	
+	/**
+	 * Maximum total size of cached content (in bytes).
+	 */
+	private long capacity;
+	
+	/**
+	 * Total size of cached content (in bytes).
+	 */
+	private long cachedBytes;
+	
+	/**
+	 * Map of cached responses in access order.
+	 */
+	private Map<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * Map of responses which are currently being created.
+	 */
+	private Map<String, CompletableFuture<CachedResponse>> loading = new HashMap<>();
+	
+	/**
+	 * Number of requests for which the cached response was used.
+	 */
+	private LongAdder hits = new LongAdder();
+	
+	/**
+	 * Number of requests for which the response had to be created.
+	 */
+	private LongAdder misses = new LongAdder();
+	
+	/**
+	 * Number of requests which waited for the response created for another
+	 * request.
+	 */
+	private LongAdder coalesced = new LongAdder();
+	
+	/**
+	 * Constructs a new {@code WorkerResponseCache} with the given capacity.
+	 * 
+	 * @param  capacity maximum total size of cached content (in bytes)
+	 * @throws IllegalArgumentException if capacity is negative
+	 */
+	public WorkerResponseCache(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative.");
+		}
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Returns the key of the response of the given worker to the request for
+	 * the given path with the given parameters. Lengths of the parts of the
+	 * key are included, so different requests cannot have the same key.
+	 * 
+	 * @param  path       requested path
+	 * @param  worker     worker which creates the response
+	 * @param  parameters parameters of the request
+	 * @return            the key of the response
+	 */
+	public static String key(String path, ICacheableWorker worker, Map<String, String> parameters) {
+		List<String> names = worker.getCacheKeyParameters();
+		if (names.isEmpty()) {
+			return path;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(path.length()).append(':').append(path);
+		for (String name : names) {
+			String value = parameters.get(name);
+			if (value == null) {
+				sb.append('|');
+			} else {
+				sb.append(value.length()).append(':').append(value);
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the response with the given key. If it is not cached, it is
+	 * created by the given loader, unless it is already being created for
+	 * another request, in which case that response is awaited.
+	 * 
+	 * @param  key        key of the response
+	 * @param  timeToLive time for which the response is kept (in seconds)
+	 * @param  loader     action which creates the response
+	 * @return            the response
+	 * @throws Exception if the loader throws an exception
+	 */
+	public CachedResponse get(String key, int timeToLive, ResponseLoader loader) throws Exception {
+		CompletableFuture<CachedResponse> future;
+		synchronized (entries) {
+			CacheEntry entry = entries.get(key);
+			if (entry != null) {
+				if (System.nanoTime() - entry.expiresAt < 0) {
+					hits.increment();
+					return entry.response;
+				}
+				remove(key);
+			}
+			
+			future = loading.get(key);
+			if (future == null) {
+				loading.put(key, new CompletableFuture<>());
+			}
+		}
+		
+		if (future != null) {
+			coalesced.increment();
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+			}
+		}
+		
+		misses.increment();
+		CachedResponse response;
+		try {
+			response = loader.load();
+		} catch (Exception | Error e) {
+			synchronized (entries) {
+				future = loading.remove(key);
+			}
+			future.completeExceptionally(e);
+			throw e;
+		}
+		
+		synchronized (entries) {
+			future = loading.remove(key);
+			if (response.statusCode == 200 && timeToLive > 0 && response.content.length <= capacity) {
+				long expiresAt = System.nanoTime() + timeToLive * 1_000_000_000L;
+				remove(key);
+				entries.put(key, new CacheEntry(response, expiresAt));
+				cachedBytes += response.content.length;
+				
+				Iterator<CacheEntry> it = entries.values().iterator();
+				while (cachedBytes > capacity && it.hasNext()) {
+					cachedBytes -= it.next().response.content.length;
+					it.remove();
+				}
+			}
+		}
+		future.complete(response);
+		return response;
+	}
+	
+	/**
+	 * Removes the response with the given key from the cache, if it is cached.
+	 * Must be called while holding the lock of the cache.
+	 * 
+	 * @param key key of the response
+	 */
+	private void remove(String key) {
+		CacheEntry previous = entries.remove(key);
+		if (previous != null) {
+			cachedBytes -= previous.response.content.length;
+		}
+	}
+	
+	/**
+	 * Returns the number of requests for which the cached response was used.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of requests for which the response had to be created.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * Returns the number of requests which waited for the response created
+	 * for another request.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+	
+	/**
+	 * Returns the total size of cached content (in bytes).
+	 * 
+	 * @return the total size of cached content
+	 */
+	public long getCachedBytes() {
+		synchronized (entries) {
+			return cachedBytes;
+		}
+	}
+	
+}
@@ -0,0 +1,330 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.webserver.LatencyHistogram;
+
+/**
+ * Client of the benchmark which sends requests to the server one after another,
+ * each as soon as the response to the previous one has been read (closed loop).
+ * Client either reuses a single persistent connection for all of its requests,
+ * or opens a new connection for each request and asks the server to close it.
+ * Session cookie received from the server is sent with subsequent requests,
+ * as a browser would do.
+ * <p>
+ * Latencies of requests which are started and finished within the measurement
+ * period are recorded, both in total and for each path.
+ * 
+ * @author Matija Frandolić
+ */
+class BenchmarkClient implements Runnable {
+	
+	/**
+	 * Address of the server.
+	 */
+	private String host;
+	
+	/**
+	 * Port of the server.
+	 */
+	private int port;
+	
+	/**
+	 * Flag that indicates whether the connection is kept alive between requests.
+	 */
+	private boolean keepAlive;
+	
+	/**
+	 * Paths which are requested, in the order in which they are requested.
+	 */
+	private List<String> paths;
+	
+	/**
+	 * Time (from {@link System#nanoTime()}) at which the measurement starts.
+	 */
+	private long measureStart;
+	
+	/**
+	 * Time (from {@link System#nanoTime()}) at which the measurement ends.
+	 */
+	private long measureEnd;
+	
+	/**
+	 * Histogram of latencies of all requests.
+	 */
+	private LatencyHistogram total;
+	
+	/**
+	 * Histograms of latencies by path.
+	 */
+	private Map<String, LatencyHistogram> byPath;
+	
+	/**
+	 * Counter of failed requests.
+	 */
+	private LongAdder errors;
+	
+	/**
+	 * Current connection, or {@code null} if there is none.
+	 */
+	private Socket socket;
+	
+	/**
+	 * Input stream of the current connection.
+	 */
+	private InputStream in;
+	
+	/**
+	 * Output stream of the current connection.
+	 */
+	private OutputStream out;
+	
+	/**
+	 * Value of the session cookie, or {@code null} if none was received.
+	 */
+	private String sid;
+	
+	/**
+	 * Buffer into which lines of the response are read.
+	 */
+	private byte[] line = new byte[8192];
+	
+	/**
+	 * Buffer into which the content of the response is read and discarded.
+	 */
+	private byte[] skipBuffer = new byte[16384];
+	
+	/**
+	 * Constructs a new {@code BenchmarkClient}. Paths are requested in random
+	 * order, which is determined by the given seed.
+	 * 
+	 * @param host         address of the server
+	 * @param port         port of the server
+	 * @param keepAlive    {@code true} if the connection should be kept alive
+	 * @param paths        paths which are requested
+	 * @param seed         seed of the order in which paths are requested
+	 * @param measureStart time at which the measurement starts
+	 * @param measureEnd   time at which the measurement ends
+	 * @param total        histogram of latencies of all requests
+	 * @param byPath       histograms of latencies by path, one for each path
+	 * @param errors       counter of failed requests
+	 */
+	public BenchmarkClient(String host, int port, boolean keepAlive, List<String> paths, long seed,
+			long measureStart, long measureEnd, LatencyHistogram total,
+			Map<String, LatencyHistogram> byPath, LongAdder errors) {
+		this.host = host;
+		this.port = port;
+		this.keepAlive = keepAlive;
+		this.paths = new ArrayList<>(paths);
+		Collections.shuffle(this.paths, new Random(seed));
+		this.measureStart = measureStart;
+		this.measureEnd = measureEnd;
+		this.total = total;
+		this.byPath = byPath;
+		this.errors = errors;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			for (int i = 0; ; i = (i + 1) % paths.size()) {
+				String path = paths.get(i);
+				long start = System.nanoTime();
+				if (start >= measureEnd) {
+					break;
+				}
+				
+				boolean ok;
+				try {
+					ok = request(path);
+				} catch (IOException | NumberFormatException e) {
+					ok = false;
+					disconnect();
+				}
+				
+				long end = System.nanoTime();
+				if (start < measureStart || end > measureEnd) {
+					continue;
+				}
+				if (ok) {
+					long micros = (end - start) / 1000;
+					total.record(micros);
+					byPath.get(path).record(micros);
+				} else {
+					errors.increment();
+				}
+			}
+		} finally {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Sends a request for the given path and reads the whole response.
+	 * 
+	 * @param  path path which is requested
+	 * @return      {@code true} if the server responded with status 200
+	 * @throws IOException if I/O error occurs
+	 */
+	private boolean request(String path) throws IOException {
+		if (socket == null) {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedInputStream(socket.getInputStream(), 16384);
+			out = socket.getOutputStream();
+		}
+		
+		StringBuilder sb = new StringBuilder(128);
+		sb.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(host).append("\r\n");
+		if (!keepAlive) {
+			sb.append("Connection: close\r\n");
+		}
+		if (sid != null) {
+			sb.append("Cookie: sid=\"").append(sid).append("\"\r\n");
+		}
+		sb.append("\r\n");
+		out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		
+		String statusLine = readLine();
+		if (statusLine == null) {
+			throw new EOFException("Connection closed before the response.");
+		}
+		boolean ok = statusLine.startsWith("HTTP/1.1 200 ");
+		
+		long contentLength = -1;
+		boolean chunked = false;
+		boolean close = false;
+		String header;
+		while ((header = readLine()) != null && !header.isEmpty()) {
+			int colon = header.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = header.substring(0, colon).trim();
+			String value = header.substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length")) {
+				contentLength = Long.parseLong(value);
+			} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+				chunked = value.equalsIgnoreCase("chunked");
+			} else if (name.equalsIgnoreCase("Connection")) {
+				close = value.equalsIgnoreCase("close");
+			} else if (name.equalsIgnoreCase("Set-Cookie") && value.startsWith("sid=")) {
+				int end = value.indexOf(';');
+				sid = value.substring(4, end < 0 ? value.length() : end).replace("\"", "");
+			}
+		}
+		if (header == null) {
+			throw new EOFException("Connection closed in the header of the response.");
+		}
+		
+		if (chunked) {
+			long size;
+			while ((size = Long.parseLong(readRequiredLine().split(";")[0].trim(), 16)) > 0) {
+				skip(size);
+				readRequiredLine();
+			}
+			while (!readRequiredLine().isEmpty()) {
+				// trailer
+			}
+		} else if (contentLength >= 0) {
+			skip(contentLength);
+		} else {
+			while (in.read(skipBuffer) >= 0) {
+				// content ends when the connection is closed
+			}
+			close = true;
+		}
+		
+		if (close || !keepAlive) {
+			disconnect();
+		}
+		return ok;
+	}
+	
+	/**
+	 * Reads a line terminated by CRLF, without the terminator.
+	 * 
+	 * @return the line, or {@code null} if the end of the stream is reached
+	 *         before any byte is read
+	 * @throws IOException if I/O error occurs or the line is too long
+	 */
+	private String readLine() throws IOException {
+		int length = 0;
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b == '\n') {
+				if (length > 0 && line[length - 1] == '\r') {
+					length--;
+				}
+				return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+			}
+			if (length == line.length) {
+				throw new IOException("Line of the response is too long.");
+			}
+			line[length++] = (byte) b;
+		}
+		if (length == 0) {
+			return null;
+		}
+		throw new EOFException("Connection closed in the middle of a line.");
+	}
+	
+	/**
+	 * Reads a line terminated by CRLF, without the terminator.
+	 * 
+	 * @return the line
+	 * @throws IOException if I/O error occurs or the end of the stream is reached
+	 */
+	private String readRequiredLine() throws IOException {
+		String l = readLine();
+		if (l == null) {
+			throw new EOFException("Connection closed before the end of the response.");
+		}
+		return l;
+	}
+	
+	/**
+	 * Reads and discards the given number of bytes.
+	 * 
+	 * @param  count number of bytes to skip
+	 * @throws IOException if I/O error occurs or the stream ends before
+	 */
+	private void skip(long count) throws IOException {
+		while (count > 0) {
+			int r = in.read(skipBuffer, 0, (int) Math.min(count, skipBuffer.length));
+			if (r < 0) {
+				throw new EOFException("Connection closed in the content of the response.");
+			}
+			count -= r;
+		}
+	}
+	
+	/**
+	 * Closes the current connection, if there is one.
+	 */
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			socket = null;
+		}
+	}
+	
+}
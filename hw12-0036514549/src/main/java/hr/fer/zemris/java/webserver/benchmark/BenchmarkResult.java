@@ -0,0 +1,220 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Summary of a single run of the benchmark, which can be saved as a baseline
+ * and compared with the summary of a later run. Latencies are in microseconds.
+ * 
+ * @author Matija Frandolić
+ */
+public class BenchmarkResult {
+	
+	/**
+	 * Description of the configuration of the run.
+	 */
+	private String configuration;
+	
+	/**
+	 * Number of successful requests per second.
+	 */
+	private double throughput;
+	
+	/**
+	 * Median latency.
+	 */
+	private long p50;
+	
+	/**
+	 * 99th percentile of latency.
+	 */
+	private long p99;
+	
+	/**
+	 * 99.9th percentile of latency.
+	 */
+	private long p999;
+	
+	/**
+	 * Number of bytes allocated by the server per request, or -1 if unknown.
+	 */
+	private long bytesPerRequest;
+	
+	/**
+	 * Constructs a new {@code BenchmarkResult} from the given values.
+	 * 
+	 * @param configuration   description of the configuration of the run
+	 * @param throughput      number of successful requests per second
+	 * @param p50             median latency
+	 * @param p99             99th percentile of latency
+	 * @param p999            99.9th percentile of latency
+	 * @param bytesPerRequest number of bytes allocated by the server per
+	 *                        request, or -1 if unknown
+	 */
+	public BenchmarkResult(String configuration, double throughput,
+			long p50, long p99, long p999, long bytesPerRequest) {
+		this.configuration = configuration;
+		this.throughput = throughput;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.bytesPerRequest = bytesPerRequest;
+	}
+	
+	/**
+	 * Loads the result from the properties file at the given path.
+	 * 
+	 * @param  path path to the file
+	 * @return      the loaded result
+	 * @throws IOException if I/O error occurs
+	 * @throws IllegalArgumentException if the file does not contain a result
+	 */
+	public static BenchmarkResult load(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(path)) {
+			properties.load(is);
+		}
+		
+		try {
+			return new BenchmarkResult(
+				properties.getProperty("configuration", ""),
+				Double.parseDouble(properties.getProperty("throughput")),
+				Long.parseLong(properties.getProperty("latency.p50")),
+				Long.parseLong(properties.getProperty("latency.p99")),
+				Long.parseLong(properties.getProperty("latency.p999")),
+				Long.parseLong(properties.getProperty("allocation.bytesPerRequest", "-1"))
+			);
+		} catch (NullPointerException | NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid benchmark result: " + path + ".", e);
+		}
+	}
+	
+	/**
+	 * Saves the result to the properties file at the given path.
+	 * 
+	 * @param  path path to the file
+	 * @throws IOException if I/O error occurs
+	 */
+	public void save(Path path) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("configuration", configuration);
+		properties.setProperty("throughput", String.format(Locale.ROOT, "%.1f", throughput));
+		properties.setProperty("latency.p50", Long.toString(p50));
+		properties.setProperty("latency.p99", Long.toString(p99));
+		properties.setProperty("latency.p999", Long.toString(p999));
+		properties.setProperty("allocation.bytesPerRequest", Long.toString(bytesPerRequest));
+		
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		try (OutputStream os = Files.newOutputStream(path)) {
+			properties.store(os, "Baseline of SmartHttpServer benchmark");
+		}
+	}
+	
+	/**
+	 * Compares this result with the given baseline and returns descriptions of
+	 * regressions, that is of values which are worse than the baseline by more
+	 * than the given percentage. Throughput, median and 99th percentile of
+	 * latency and allocation per request are compared. 99.9th percentile is
+	 * too noisy to be compared in a short run, so it is only reported.
+	 * 
+	 * @param  baseline  result to compare with
+	 * @param  tolerance allowed difference, in percent
+	 * @return           descriptions of regressions, empty if there are none
+	 */
+	public List<String> regressionsAgainst(BenchmarkResult baseline, double tolerance) {
+		List<String> regressions = new ArrayList<>();
+		double factor = tolerance / 100;
+		
+		if (throughput < baseline.throughput * (1 - factor)) {
+			regressions.add(describe("throughput", baseline.throughput, throughput));
+		}
+		if (p50 > baseline.p50 * (1 + factor)) {
+			regressions.add(describe("p50 latency", baseline.p50, p50));
+		}
+		if (p99 > baseline.p99 * (1 + factor)) {
+			regressions.add(describe("p99 latency", baseline.p99, p99));
+		}
+		if (bytesPerRequest >= 0 && baseline.bytesPerRequest >= 0 &&
+				bytesPerRequest > baseline.bytesPerRequest * (1 + factor)) {
+			regressions.add(describe("allocation per request", baseline.bytesPerRequest, bytesPerRequest));
+		}
+		return regressions;
+	}
+	
+	/**
+	 * Returns the comparison of this result with the given baseline as a table
+	 * with one value per line.
+	 * 
+	 * @param  baseline result to compare with
+	 * @return          the comparison as text
+	 */
+	public String compareTo(BenchmarkResult baseline) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "%-24s %12s %12s %9s%n", "", "baseline", "current", "change"));
+		row(sb, "throughput (req/s)", baseline.throughput, throughput);
+		row(sb, "p50 latency (us)", baseline.p50, p50);
+		row(sb, "p99 latency (us)", baseline.p99, p99);
+		row(sb, "p99.9 latency (us)", baseline.p999, p999);
+		if (bytesPerRequest >= 0 && baseline.bytesPerRequest >= 0) {
+			row(sb, "allocation (B/req)", baseline.bytesPerRequest, bytesPerRequest);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the description of the configuration of the run.
+	 * 
+	 * @return the description of the configuration of the run
+	 */
+	public String getConfiguration() {
+		return configuration;
+	}
+	
+	/**
+	 * Appends a row of the comparison table to the given builder.
+	 * 
+	 * @param sb       builder to which the row is appended
+	 * @param name     name of the value
+	 * @param baseline value of the baseline
+	 * @param current  current value
+	 */
+	private static void row(StringBuilder sb, String name, double baseline, double current) {
+		sb.append(String.format(Locale.ROOT, "%-24s %12.1f %12.1f %+8.1f%%%n",
+			name, baseline, current, change(baseline, current)));
+	}
+	
+	/**
+	 * Returns the description of a regression of the given value.
+	 * 
+	 * @param  name     name of the value
+	 * @param  baseline value of the baseline
+	 * @param  current  current value
+	 * @return          the description of the regression
+	 */
+	private static String describe(String name, double baseline, double current) {
+		return String.format(Locale.ROOT, "%s: %.1f -> %.1f (%+.1f%%)",
+			name, baseline, current, change(baseline, current));
+	}
+	
+	/**
+	 * Returns the relative change from the baseline to the current value.
+	 * 
+	 * @param  baseline value of the baseline
+	 * @param  current  current value
+	 * @return          the change, in percent
+	 */
+	private static double change(double baseline, double current) {
+		return baseline == 0 ? 0 : (current - baseline) / baseline * 100;
+	}
+	
+}
@@ -0,0 +1,338 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.webserver.LatencyHistogram;
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Benchmark of {@link SmartHttpServer}. Server is started on localhost with the
+ * given configuration and the bundled web root, and is then driven by a number
+ * of concurrent clients, some of which keep their connections alive while the
+ * others open a new connection for each request. Clients request a mix of
+ * static files, workers and scripts. After a warm-up period, requests are
+ * measured for the given duration.
+ * <p>
+ * Throughput, latency percentiles and the allocation rate of the server threads
+ * are reported. Allocation is measured by summing the bytes allocated by each
+ * live thread other than the clients, so it is only accurate when the server
+ * runs on a fixed thread pool; threads which finish during the measurement are
+ * not counted.
+ * <p>
+ * The result is compared with the saved baseline, if there is one, and the
+ * program exits with status 2 if a regression is found. Baseline is saved if
+ * it does not exist yet or if {@code saveBaseline=true} is given.
+ * <p>
+ * Arguments are given as {@code key=value} pairs, all of which are optional:
+ * <ul>
+ * <li>{@code config} - path to the server configuration
+ *     (default {@code ./config/server.properties})</li>
+ * <li>{@code keepAliveClients} - number of clients that keep connections
+ *     alive (default 16)</li>
+ * <li>{@code closeClients} - number of clients that open a new connection
+ *     for each request (default 4)</li>
+ * <li>{@code warmup} - duration of the warm-up, in seconds (default 5)</li>
+ * <li>{@code duration} - duration of the measurement, in seconds (default 15)</li>
+ * <li>{@code baseline} - path to the baseline
+ *     (default {@code ./benchmark/baseline.properties})</li>
+ * <li>{@code saveBaseline} - whether to save the result as the new baseline
+ *     (default {@code false})</li>
+ * <li>{@code tolerance} - allowed difference from the baseline, in percent
+ *     (default 10)</li>
+ * <li>any {@code server.*} property, which overrides the one from the
+ *     configuration, for example {@code server.mode=nio}</li>
+ * </ul>
+ * Program should be run from the root directory of the module, so that the
+ * relative paths in the configuration are resolved correctly.
+ * 
+ * @author Matija Frandolić
+ */
+public class ServerBenchmark {
+	
+	/**
+	 * Paths which are requested, each as many times per round as it appears.
+	 */
+	private static final List<String> MIX = List.of(
+		"/index.html", "/index.html", "/index.html",
+		"/sample.txt", "/sample.txt",
+		"/fruits.png",
+		"/hello", "/hello",
+		"/calc?a=3&b=4", "/calc?a=3&b=4",
+		"/cw",
+		"/scripts/osnovni.smscr", "/scripts/osnovni.smscr",
+		"/scripts/fibonaccih.smscr"
+	);
+	
+	/**
+	 * Host on which the server is started.
+	 */
+	private static final String HOST = "127.0.0.1";
+	
+	/**
+	 * Main method of the program.
+	 * 
+	 * @param  args        command-line arguments ({@code key=value} pairs)
+	 * @throws IOException if I/O error occurs
+	 * @throws InterruptedException if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = new LinkedHashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq <= 0) {
+				System.out.println("Expected arguments in form key=value, got: " + arg);
+				System.exit(1);
+			}
+			options.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+		}
+		
+		Path config = Paths.get(options.getOrDefault("config", "./config/server.properties"));
+		int keepAliveClients = Integer.parseInt(options.getOrDefault("keepAliveClients", "16"));
+		int closeClients = Integer.parseInt(options.getOrDefault("closeClients", "4"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "15"));
+		Path baselinePath = Paths.get(options.getOrDefault("baseline", "./benchmark/baseline.properties"));
+		boolean saveBaseline = Boolean.parseBoolean(options.getOrDefault("saveBaseline", "false"));
+		double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "10"));
+		
+		Properties serverProperties = new Properties();
+		try (InputStream is = Files.newInputStream(config)) {
+			serverProperties.load(is);
+		}
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			if (option.getKey().startsWith("server.")) {
+				serverProperties.setProperty(option.getKey(), option.getValue());
+			}
+		}
+		int port = freePort();
+		serverProperties.setProperty("server.address", HOST);
+		serverProperties.setProperty("server.port", Integer.toString(port));
+		
+		Path serverConfig = Files.createTempFile("benchmark", ".properties");
+		serverConfig.toFile().deleteOnExit();
+		try (OutputStream os = Files.newOutputStream(serverConfig)) {
+			serverProperties.store(os, null);
+		}
+		
+		String configuration = String.format(Locale.ROOT,
+			"mode=%s executor=%s workerThreads=%s keepAliveClients=%d closeClients=%d duration=%d",
+			serverProperties.getProperty("server.mode", "blocking"),
+			serverProperties.getProperty("server.executor", "fixed"),
+			serverProperties.getProperty("server.workerThreads"),
+			keepAliveClients, closeClients, duration);
+		System.out.println("Configuration: " + configuration);
+		
+		BenchmarkServer server = new BenchmarkServer(serverConfig.toString());
+		server.start();
+		awaitServer(port);
+		
+		LatencyHistogram total = new LatencyHistogram();
+		Map<String, LatencyHistogram> byPath = new LinkedHashMap<>();
+		for (String path : MIX) {
+			byPath.putIfAbsent(path, new LatencyHistogram());
+		}
+		LongAdder errors = new LongAdder();
+		
+		long measureStart = System.nanoTime() + warmup * 1_000_000_000L;
+		long measureEnd = measureStart + duration * 1_000_000_000L;
+		List<Thread> clients = new ArrayList<>();
+		for (int i = 0; i < keepAliveClients + closeClients; i++) {
+			BenchmarkClient client = new BenchmarkClient(HOST, port, i < keepAliveClients, MIX, i,
+				measureStart, measureEnd, total, byPath, errors);
+			Thread thread = new Thread(client, "benchmark-client-" + i);
+			thread.setDaemon(true);
+			clients.add(thread);
+			thread.start();
+		}
+		
+		Set<Long> excludedThreads = new HashSet<>();
+		excludedThreads.add(Thread.currentThread().getId());
+		for (Thread client : clients) {
+			excludedThreads.add(client.getId());
+		}
+		
+		sleepUntil(measureStart);
+		long allocatedBefore = allocatedBytes(excludedThreads);
+		sleepUntil(measureEnd);
+		long allocatedAfter = allocatedBytes(excludedThreads);
+		
+		for (Thread client : clients) {
+			client.join();
+		}
+		server.stop();
+		
+		long requests = total.getCount();
+		double throughput = requests / (double) duration;
+		long allocated = allocatedAfter - allocatedBefore;
+		long bytesPerRequest = allocatedBefore < 0 || allocated < 0 || requests == 0
+			? -1 : allocated / requests;
+		
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Requests:    %d (%d errors)%n", requests, errors.sum());
+		System.out.printf(Locale.ROOT, "Throughput:  %.1f requests/s%n", throughput);
+		System.out.printf(Locale.ROOT, "Latency:     p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+			total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+			total.getValueAtPercentile(99.9), total.getMax());
+		if (bytesPerRequest >= 0) {
+			System.out.printf(Locale.ROOT, "Allocation:  %.1f MB/s (%d bytes/request)%n",
+				allocated / (double) duration / (1 << 20), bytesPerRequest);
+		} else {
+			System.out.println("Allocation:  not supported by this runtime");
+		}
+		
+		System.out.println();
+		System.out.printf(Locale.ROOT, "%-28s %10s %10s %10s %10s%n", "path", "requests", "p50", "p99", "p99.9");
+		for (Map.Entry<String, LatencyHistogram> entry : byPath.entrySet()) {
+			LatencyHistogram h = entry.getValue();
+			System.out.printf(Locale.ROOT, "%-28s %10d %10d %10d %10d%n", entry.getKey(), h.getCount(),
+				h.getValueAtPercentile(50), h.getValueAtPercentile(99), h.getValueAtPercentile(99.9));
+		}
+		
+		BenchmarkResult result = new BenchmarkResult(configuration, throughput,
+			total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+			total.getValueAtPercentile(99.9), bytesPerRequest);
+		
+		int status = 0;
+		if (Files.exists(baselinePath)) {
+			BenchmarkResult baseline = BenchmarkResult.load(baselinePath);
+			System.out.println();
+			if (!baseline.getConfiguration().equals(configuration)) {
+				System.out.println("Warning: baseline was measured with a different configuration: "
+					+ baseline.getConfiguration());
+			}
+			System.out.print(result.compareTo(baseline));
+			
+			List<String> regressions = result.regressionsAgainst(baseline, tolerance);
+			if (!regressions.isEmpty()) {
+				System.out.println();
+				System.out.println("Regressions beyond " + tolerance + "%:");
+				regressions.forEach(r -> System.out.println("  " + r));
+				status = 2;
+			}
+		}
+		
+		if (saveBaseline || !Files.exists(baselinePath)) {
+			result.save(baselinePath);
+			System.out.println();
+			System.out.println("Baseline saved to " + baselinePath + ".");
+		}
+		System.exit(status);
+	}
+	
+	/**
+	 * Returns a port on which nothing is currently listening.
+	 * 
+	 * @return a free port
+	 * @throws IOException if I/O error occurs
+	 */
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+	
+	/**
+	 * Waits until the server accepts connections on the given port.
+	 * 
+	 * @param  port port of the server
+	 * @throws IOException if the server does not start in 10 seconds
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	private static void awaitServer(int port) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (true) {
+			try {
+				new Socket(HOST, port).close();
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw e;
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+	
+	/**
+	 * Sleeps until the given time.
+	 * 
+	 * @param  nanoTime time (from {@link System#nanoTime()}) until which to sleep
+	 * @throws InterruptedException if the thread is interrupted while sleeping
+	 */
+	private static void sleepUntil(long nanoTime) throws InterruptedException {
+		long remaining;
+		while ((remaining = nanoTime - System.nanoTime()) > 0) {
+			Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes allocated so far by all live threads except
+	 * the given ones, or -1 if the runtime does not support measuring it.
+	 * 
+	 * @param  excluded IDs of threads which are not counted
+	 * @return          the number of allocated bytes, or -1
+	 */
+	private static long allocatedBytes(Set<Long> excluded) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		
+		long sum = 0;
+		for (long id : threads.getAllThreadIds()) {
+			if (!excluded.contains(id)) {
+				sum += Math.max(0, threads.getThreadAllocatedBytes(id));
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Server whose starting and stopping is accessible to the benchmark.
+	 */
+	private static class BenchmarkServer extends SmartHttpServer {
+		
+		/**
+		 * Constructs a new {@code BenchmarkServer} with the given configuration.
+		 * 
+		 * @param configFileName path to the configuration file
+		 */
+		public BenchmarkServer(String configFileName) {
+			super(configFileName);
+		}
+		
+		@Override
+		public synchronized void start() {
+			super.start();
+		}
+		
+		@Override
+		public synchronized void stop() {
+			super.stop();
+		}
+		
+	}
+	
+}
@@ -3,19 +3,20 @@ package hr.fer.zemris.java.webserver.workers;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
+import hr.fer.zemris.java.webserver.ICacheableWorker;
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
  * Implementation of {@link IWebWorker} that produces a PNG image with dimensions
- * 200x200 and with a single filled circle.
+ * 200x200 and with a single filled circle. Since the image is always the same,
+ * its response is cacheable.
  */
-public class CircleWorker implements IWebWorker {
+public class CircleWorker implements ICacheableWorker {
 
 	@Override
 	public void processRequest(RequestContext context) {
@@ -28,10 +29,8 @@ public class CircleWorker implements IWebWorker {
 		g2d.fillOval(0, 0, bim.getWidth(), bim.getHeight());
 		g2d.dispose();
 
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
-			ImageIO.write(bim, "png", bos);
-			context.write(bos.toByteArray());
+			ImageIO.write(bim, "png", context.getOutputStream());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
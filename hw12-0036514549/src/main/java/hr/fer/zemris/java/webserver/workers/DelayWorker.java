@@ -0,0 +1,44 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Implementation of {@link IAsyncWebWorker} that simulates a slow backend. It
+ * responds after the number of milliseconds given by the parameter called
+ * "ms" (1000 by default, at most 10000), without holding a thread while it
+ * waits.
+ */
+public class DelayWorker implements IAsyncWebWorker {
+	
+	/**
+	 * Maximum delay (in milliseconds).
+	 */
+	private static final long MAX_DELAY = 10_000;
+	
+	@Override
+	public CompletableFuture<Void> processRequestAsync(RequestContext context) {
+		long delay;
+		try {
+			delay = Math.min(Math.max(Long.parseLong(context.getParameter("ms")), 0), MAX_DELAY);
+		} catch (NumberFormatException e) {
+			delay = 1000;
+		}
+		long ms = delay;
+		
+		return CompletableFuture.runAsync(() -> {
+			context.setMimeType("text/plain");
+			try {
+				context.write("Responded after " + ms + " ms.\n");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+	}
+	
+}
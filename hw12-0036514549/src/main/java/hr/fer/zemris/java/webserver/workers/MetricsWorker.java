@@ -0,0 +1,47 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ServerMetrics;
+
+/**
+ * Implementation of {@link IWebWorker} that outputs the report of operational
+ * metrics of the server as plain text.
+ * 
+ * @author Matija Frandolić
+ */
+public class MetricsWorker implements IWebWorker {
+	
+	/**
+	 * Metrics which are reported.
+	 */
+	private ServerMetrics metrics;
+	
+	/**
+	 * Constructs a new {@code MetricsWorker} which reports the given metrics.
+	 * 
+	 * @param  metrics metrics which are reported
+	 * @throws NullPointerException if the given metrics are {@code null}
+	 */
+	public MetricsWorker(ServerMetrics metrics) {
+		this.metrics = Objects.requireNonNull(metrics, "Metrics must not be null.");
+	}
+	
+	@Override
+	public void processRequest(RequestContext context) {
+		byte[] report = metrics.report().getBytes(StandardCharsets.UTF_8);
+		context.setMimeType("text/plain");
+		context.setContentLength((long) report.length);
+		
+		try {
+			context.write(report);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+}
@@ -94,5 +94,38 @@ class ObjectMultistackTest {
 			multistack.peek("a");
 		});
 	}
+	
+	@Test
+	public void testSlots() {
+		int a = multistack.slot("a");
+		int b = multistack.slot("b");
+		
+		assertNotEquals(a, b);
+		assertEquals(a, multistack.slot("a"));
+		assertTrue(multistack.isEmpty(a));
+		
+		for (int i = 0; i < 100; i++) {
+			multistack.push(a, new ValueWrapper(i));
+		}
+		multistack.push("b", new ValueWrapper("def"));
+		
+		assertEquals(99, multistack.peek("a").getValue());
+		assertEquals("def", multistack.pop(b).getValue());
+		for (int i = 99; i >= 0; i--) {
+			assertEquals(i, multistack.pop(a).getValue());
+		}
+		assertTrue(multistack.isEmpty("a"));
+		assertThrows(NoSuchElementException.class, () -> multistack.peek(a));
+	}
+	
+	@Test
+	public void testManyKeys() {
+		for (int i = 0; i < 100; i++) {
+			multistack.push("k" + i, new ValueWrapper(i));
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, multistack.peek(multistack.slot("k" + i)).getValue());
+		}
+	}
 
 }
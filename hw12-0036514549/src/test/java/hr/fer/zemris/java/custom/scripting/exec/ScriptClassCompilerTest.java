@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+class ScriptClassCompilerTest {
+	
+	private static final String[] SCRIPTS = {
+		"plain text",
+		"a{$= 1 2 + \"2\" 3 * 2.5 @sin @dup @swap 7 ^ $}b",
+		"{$FOR i 1 3 $}{$FOR j 1 2 $}{$= i j $},{$END$}{$END$}",
+		"{$FOR i 1 3 $}{$FOR i 5 6 $}{$= i $}{$END$}{$= i $};{$END$}",
+		"{$FOR k 1.5 2.5 0.5 $}{$= k \"0.00\" @decfmt $};{$END$}",
+		"{$FOR i -1 10 3 $}[{$= i \"x\" \"0\" @paramGet i * $}]{$END$}",
+		"{$= \"n\" \"?\" @paramGet \"p\" \"0\" @pparamGet 1 + \"p\" @pparamSet \"t\" @tparamSet $}",
+		"{$= \"p\" @pparamDel \"t\" @tparamDel \"text/plain\" @setMimeType 8 3 - 2 / 4 * $}",
+		"before{$= 1 @unknown $}after",
+		"before{$= 1 + $}after",
+		"before{$= x $}after",
+		"{$FOR i 1 3 $}{$= i $}{$= 1 \"a\" / $}{$END$}",
+		"{$= 3 @dup @dup * * \"x\" @decfmt $}",
+		"{$FOR i 1.0 3.0 $}{$= i $},{$END$}",
+	};
+	
+	private static String run(CompiledScript script) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Map<String, String> persistent = new HashMap<>(Map.of("p", "41", "brojPoziva", "5"));
+		RequestContext context = new RequestContext(
+			os, new HashMap<>(Map.of("n", "Ivo", "a", "3", "b", "4", "x", "2")), persistent, new ArrayList<>()
+		);
+		context.setTemporaryParameter("t", "temp");
+		
+		String result;
+		try {
+			new SmartScriptEngine(script, context).execute();
+			result = "OK";
+		} catch (RuntimeException e) {
+			result = e.getMessage();
+		}
+		return result + "|" + os.toString(StandardCharsets.UTF_8) + "|" + persistent + "|"
+			+ context.getTemporaryParameterNames() + "|" + context.getTemporaryParameter("t");
+	}
+	
+	private static void assertEquivalent(String source) {
+		DocumentNode document = new SmartScriptParser(source).getDocumentNode();
+		CompiledScript compiled = ScriptClassCompiler.compile(document);
+		
+		assertTrue(compiled instanceof GeneratedScript, source);
+		assertEquals(run(ScriptProgram.compile(document)), run(compiled), source);
+	}
+	
+	@Test
+	public void testScriptsAreEquivalent() {
+		assumeTrue(ScriptClassCompiler.isAvailable());
+		
+		for (String source : SCRIPTS) {
+			assertEquivalent(source);
+		}
+	}
+	
+	@Test
+	public void testWebrootScriptsAreEquivalent() throws Exception {
+		assumeTrue(ScriptClassCompiler.isAvailable());
+		
+		List<Path> scripts;
+		try (Stream<Path> files = Files.list(Paths.get("webroot/scripts"))) {
+			scripts = files.filter(p -> p.toString().endsWith(".smscr")).collect(Collectors.toList());
+		}
+		assertFalse(scripts.isEmpty());
+		for (Path script : scripts) {
+			assertEquivalent(Files.readString(script));
+		}
+	}
+	
+	@Test
+	public void testCompiledScriptCanBeReused() {
+		assumeTrue(ScriptClassCompiler.isAvailable());
+		
+		CompiledScript compiled = ScriptClassCompiler.compile(
+			new SmartScriptParser("{$FOR i 1 2 $}{$= \"n\" \"?\" @paramGet i $}{$END$}").getDocumentNode()
+		);
+		assertEquals(run(compiled), run(compiled));
+	}
+	
+	@Test
+	public void testTooLargeScriptFallsBackToProgram() {
+		assumeTrue(ScriptClassCompiler.isAvailable());
+		
+		String script = "{$= 1 2 + \"x\" 3 * @dup $}".repeat(1000);
+		long fallbacks = ScriptClassCompiler.getFallbacks();
+		CompiledScript compiled = ScriptClassCompiler.compile(new SmartScriptParser(script).getDocumentNode());
+		
+		assertTrue(compiled instanceof ScriptProgram);
+		assertEquals(fallbacks + 1, ScriptClassCompiler.getFallbacks());
+	}
+	
+}
@@ -0,0 +1,71 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+class ScriptProgramTest {
+	
+	private static String run(ScriptProgram program, Map<String, String> parameters) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, new HashMap<>(), null);
+		try {
+			program.execute(context, new ObjectMultistack());
+		} finally {
+			context.write("");
+		}
+		String text = os.toString(StandardCharsets.UTF_8);
+		return text.substring(text.indexOf("\r\n\r\n") + 4);
+	}
+	
+	private static ScriptProgram compile(String script) {
+		return ScriptProgram.compile(new SmartScriptParser(script).getDocumentNode());
+	}
+	
+	@Test
+	public void testEcho() throws Exception {
+		ScriptProgram program = compile("a{$= 1 2 + \"2\" 3 * 2.5 @sin @dup @swap 7 ^ $}b");
+		assertEquals("a36" + Math.sin(2.5 * Math.PI / 180) + Math.sin(2.5 * Math.PI / 180) + "b",
+			run(program, Map.of()));
+	}
+	
+	@Test
+	public void testNestedLoops() throws Exception {
+		ScriptProgram program = compile(
+			"{$FOR i 1 3 $}{$FOR j 1 2 $}{$= i j $},{$END$}{$END$}{$FOR k 1.5 2.5 0.5 $}{$= k $};{$END$}"
+		);
+		assertEquals("11,12,21,22,31,32,1.5;2.0;2.5;", run(program, Map.of()));
+	}
+	
+	@Test
+	public void testProgramCanBeReused() throws Exception {
+		StringBuilder script = new StringBuilder("{$FOR i 1 2 $}");
+		for (int i = 0; i < 20; i++) {
+			script.append("{$= \"n\" \"?\" @paramGet i $}");
+		}
+		script.append("{$END$}");
+		ScriptProgram program = compile(script.toString());
+		
+		assertEquals("a1".repeat(20) + "a2".repeat(20), run(program, Map.of("n", "a")));
+		assertEquals("b1".repeat(20) + "b2".repeat(20), run(program, Map.of("n", "b")));
+	}
+	
+	@Test
+	public void testOutputIsWrittenBeforeError() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		ScriptProgram program = compile("before{$= 1 @unknown $}after");
+		
+		assertThrows(RuntimeException.class, () -> program.execute(context, new ObjectMultistack()));
+		assertTrue(os.toString(StandardCharsets.UTF_8).endsWith("before"));
+	}
+	
+}
@@ -843,5 +843,66 @@ class ValueWrapperTest {
 		assertTrue(v1.getValue() instanceof Integer);
 		assertTrue(v2.getValue() instanceof Boolean);
 	}
+	
+	@Test
+	public void testIntegerOverflowSaturates() {
+		ValueWrapper v1 = new ValueWrapper(Integer.MAX_VALUE);
+		v1.add(1);
+		assertEquals(Integer.MAX_VALUE, v1.getValue());
+		
+		v1.setValue(Integer.MIN_VALUE);
+		v1.multiply(2);
+		assertEquals(Integer.MIN_VALUE, v1.getValue());
+	}
+	
+	@Test
+	public void testDivideIntegerByZero() {
+		ValueWrapper v1 = new ValueWrapper(5);
+		v1.divide(0);
+		assertEquals(Integer.MAX_VALUE, v1.getValue());
+		
+		v1.setValue(-5);
+		v1.divide(0);
+		assertEquals(Integer.MIN_VALUE, v1.getValue());
+		
+		v1.setValue(0);
+		v1.divide(null);
+		assertEquals(0, v1.getValue());
+	}
+	
+	@Test
+	public void testNumCompareKeepsString() {
+		ValueWrapper v1 = new ValueWrapper("1");
+		
+		assertTrue(v1.numCompare("3") < 0);
+		assertEquals("1", v1.getValue());
+	}
+	
+	@Test
+	public void testLoopOverStrings() {
+		ValueWrapper v1 = new ValueWrapper("1");
+		String end = "5";
+		String step = "2";
+		StringBuilder sb = new StringBuilder();
+		
+		while (v1.numCompare(end) <= 0) {
+			sb.append(v1.getValue()).append(',');
+			v1.add(step);
+		}
+		
+		assertEquals("1,3,5,", sb.toString());
+		assertTrue(v1.getValue() instanceof Integer);
+	}
+	
+	@Test
+	public void testSetValueAfterOperation() {
+		ValueWrapper v1 = new ValueWrapper(1.5);
+		v1.add(1);
+		v1.setValue("x");
+		
+		assertEquals("x", v1.getValue());
+		assertThrows(RuntimeException.class, () -> v1.add(1));
+		assertEquals("x", v1.getValue());
+	}
 
 }
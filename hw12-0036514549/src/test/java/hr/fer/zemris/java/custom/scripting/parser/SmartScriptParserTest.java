@@ -0,0 +1,92 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+class SmartScriptParserTest {
+	
+	private static Reader slowReader(String text) {
+		return new Reader() {
+			
+			private int position;
+			
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				if (position == text.length()) {
+					return -1;
+				}
+				cbuf[off] = text.charAt(position++);
+				return 1;
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+	}
+	
+	@Test
+	public void testParseFromReader() {
+		String text = "a\\{b\\\\{$ FOR i 1 -2.5 \"x\\\"\" $}{$= i @sin \"s\" $}{$END$}c{";
+		
+		for (DocumentNode document : new DocumentNode[] {
+			new SmartScriptParser(text).getDocumentNode(),
+			new SmartScriptParser(new StringReader(text)).getDocumentNode(),
+			new SmartScriptParser(slowReader(text)).getDocumentNode()
+		}) {
+			assertEquals(3, document.numberOfChildren());
+			assertEquals("a{b\\", ((TextNode) document.getChild(0)).getText());
+			assertEquals("c{", ((TextNode) document.getChild(2)).getText());
+			
+			ForLoopNode loop = (ForLoopNode) document.getChild(1);
+			assertEquals("i", loop.getVariable().getName());
+			assertEquals("-2.5", loop.getEndExpression().asText());
+			assertEquals(3, ((EchoNode) loop.getChild(0)).getElements().length);
+		}
+	}
+	
+	@Test
+	public void testLargeTextAcrossBuffer() {
+		String text = "x".repeat(20_000) + "\\{" + "y".repeat(10_000);
+		DocumentNode document = new SmartScriptParser(new StringReader(text + "{$= 1 $}" + text)).getDocumentNode();
+		
+		assertEquals(3, document.numberOfChildren());
+		String expected = "x".repeat(20_000) + "{" + "y".repeat(10_000);
+		assertEquals(expected, ((TextNode) document.getChild(0)).getText());
+		assertEquals(expected, ((TextNode) document.getChild(2)).getText());
+	}
+	
+	@Test
+	public void testInvalidInput() {
+		assertThrows(SmartScriptParserException.class, () -> new SmartScriptParser(slowReader("text\\")));
+		assertThrows(SmartScriptParserException.class, () -> new SmartScriptParser(slowReader("{$FOR i 1 2 $}")));
+	}
+	
+	@Test
+	public void testReadErrorIsThrown() {
+		Reader reader = new Reader() {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				throw new IOException("failed");
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		
+		assertThrows(UncheckedIOException.class, () -> new SmartScriptParser(reader));
+	}
+	
+}
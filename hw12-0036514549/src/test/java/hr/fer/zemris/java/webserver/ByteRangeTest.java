@@ -0,0 +1,56 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangeTest {
+	
+	private static void assertRange(long start, long end, ByteRange range) {
+		assertEquals(start, range.getStart());
+		assertEquals(end, range.getEnd());
+	}
+	
+	@Test
+	public void testSingleRanges() {
+		assertRange(0, 9, ByteRange.parse("bytes=0-9", 100, 16).get(0));
+		assertRange(90, 99, ByteRange.parse("bytes=90-", 100, 16).get(0));
+		assertRange(90, 99, ByteRange.parse("bytes=-10", 100, 16).get(0));
+		assertRange(0, 99, ByteRange.parse("bytes=-200", 100, 16).get(0));
+		assertRange(50, 99, ByteRange.parse("BYTES=50-500", 100, 16).get(0));
+	}
+	
+	@Test
+	public void testRangesAreSortedAndMerged() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=50-59, 0-9, 5-19, 20-29", 100, 16);
+		
+		assertEquals(2, ranges.size());
+		assertRange(0, 29, ranges.get(0));
+		assertRange(50, 59, ranges.get(1));
+	}
+	
+	@Test
+	public void testUnsatisfiableRangesAreLeftOut() {
+		assertEquals(1, ByteRange.parse("bytes=100-200,0-0", 100, 16).size());
+		assertTrue(ByteRange.parse("bytes=100-200", 100, 16).isEmpty());
+		assertTrue(ByteRange.parse("bytes=-0", 100, 16).isEmpty());
+	}
+	
+	@Test
+	public void testInvalidHeaderIsIgnored() {
+		assertNull(ByteRange.parse("items=0-9", 100, 16));
+		assertNull(ByteRange.parse("bytes=9-0", 100, 16));
+		assertNull(ByteRange.parse("bytes=a-b", 100, 16));
+		assertNull(ByteRange.parse("bytes=--5", 100, 16));
+		assertNull(ByteRange.parse("bytes=5", 100, 16));
+		assertNull(ByteRange.parse("bytes=0-1,2-3,4-5", 100, 2));
+	}
+	
+	@Test
+	public void testContentRange() {
+		assertEquals("bytes 0-9/100", new ByteRange(0, 9).toContentRange(100));
+	}
+	
+}
@@ -0,0 +1,110 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkedOutputStreamTest {
+	
+	private static String chunked(int chunkSize, String... parts) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ChunkedOutputStream cos = new ChunkedOutputStream(os, chunkSize);
+		for (String part : parts) {
+			cos.write(part.getBytes(StandardCharsets.US_ASCII));
+		}
+		cos.finish();
+		return os.toString(StandardCharsets.US_ASCII);
+	}
+	
+	private static byte[] dechunk(byte[] data, int offset) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		while (true) {
+			int lineEnd = offset;
+			while (data[lineEnd] != '\r') {
+				lineEnd++;
+			}
+			int size = Integer.parseInt(new String(data, offset, lineEnd - offset, StandardCharsets.US_ASCII), 16);
+			offset = lineEnd + 2;
+			if (size == 0) {
+				assertEquals(offset + 2, data.length);
+				return os.toByteArray();
+			}
+			os.write(data, offset, size);
+			offset += size + 2;
+		}
+	}
+	
+	@Test
+	public void testSmallWritesAreBuffered() throws IOException {
+		assertEquals("5\r\nabcde\r\n1\r\nf\r\n0\r\n\r\n", chunked(5, "ab", "cde", "f"));
+		assertEquals("0\r\n\r\n", chunked(5));
+	}
+	
+	@Test
+	public void testLargeWriteIsSingleChunk() throws IOException {
+		assertEquals("1\r\na\r\n1a\r\nabcdefghijklmnopqrstuvwxyz\r\n0\r\n\r\n", 
+			chunked(4, "a", "abcdefghijklmnopqrstuvwxyz"));
+	}
+	
+	@Test
+	public void testContextChunksContentOfUnknownLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setKeepAlive(true);
+		rc.setChunkSize(16);
+		rc.write("Hello, ").write("world!");
+		rc.finish();
+		
+		String response = os.toString(StandardCharsets.US_ASCII);
+		assertTrue(response.contains("Transfer-Encoding: chunked\r\n"));
+		assertTrue(response.contains("Connection: keep-alive\r\n"));
+		assertFalse(response.contains("Content-Length"));
+		assertTrue(response.endsWith("\r\n\r\nd\r\nHello, world!\r\n0\r\n\r\n"));
+		assertTrue(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void testContextDoesNotChunkContentOfKnownLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setKeepAlive(true);
+		rc.setChunkSize(16);
+		rc.setContentLength(5L);
+		rc.write("Hello");
+		rc.finish();
+		
+		String response = os.toString(StandardCharsets.US_ASCII);
+		assertFalse(response.contains("Transfer-Encoding"));
+		assertTrue(response.endsWith("\r\n\r\nHello"));
+	}
+	
+	@Test
+	public void testContextChunksCompressedContent() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setKeepAlive(true);
+		rc.setChunkSize(64);
+		rc.setGzipAllowed(true);
+		String text = "All work and no play makes Jack a dull boy. ".repeat(100);
+		rc.write(text);
+		rc.finish();
+		
+		byte[] response = os.toByteArray();
+		String header = new String(response, StandardCharsets.US_ASCII);
+		int bodyStart = header.indexOf("\r\n\r\n") + 4;
+		assertTrue(header.substring(0, bodyStart).contains("Content-Encoding: gzip\r\n"));
+		assertTrue(rc.isKeepAlive());
+		
+		byte[] body = dechunk(response, bodyStart);
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+			assertEquals(text, new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+		}
+	}
+	
+}
@@ -0,0 +1,101 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HttpRequestParserTest {
+	
+	private static InputStream input(String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1));
+	}
+	
+	@Test
+	public void testRequestLineAndHeaders() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024, 10);
+		
+		assertTrue(parser.readRequest(input(
+			"get /a/b.html?x=1 http/1.1\r\nHost: localhost:5721\r\nX-Long: a\r\n  b\r\n\r\n"
+		)));
+		
+		assertEquals("GET", parser.getMethod());
+		assertEquals("/a/b.html", parser.getPath());
+		assertEquals("HTTP/1.1", parser.getVersion());
+		assertEquals("localhost:5721", parser.getHeader("host"));
+		assertEquals("a  b", parser.getHeader("X-Long"));
+		assertNull(parser.getHeader("Connection"));
+		assertFalse(parser.hasBufferedInput());
+	}
+	
+	@Test
+	public void testPipelinedRequests() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024, 10);
+		InputStream is = input("GET /a HTTP/1.1\n\nGET /b HTTP/1.1\nConnection: Close\n\n");
+		
+		assertTrue(parser.readRequest(is));
+		assertEquals("/a", parser.getPath());
+		assertTrue(parser.hasBufferedInput());
+		
+		assertTrue(parser.readRequest(is));
+		assertEquals("/b", parser.getPath());
+		assertTrue(parser.headerEquals("connection", "close"));
+		
+		assertFalse(parser.readRequest(is));
+	}
+	
+	@Test
+	public void testParametersAreDecoded() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024, 10);
+		parser.readRequest(input("GET /p?a=1+2&b=%C5%A1%3D&c&=d HTTP/1.0\r\n\r\n"));
+		
+		Map<String, String> params = new HashMap<>();
+		parser.parseParameters(params);
+		
+		assertEquals(Map.of("a", "1 2", "b", "š=", "c", "", "=d", ""), params);
+	}
+	
+	@Test
+	public void testCookie() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024, 10);
+		parser.readRequest(input("GET / HTTP/1.1\r\nCookie: a=1; sid=\"ABC\"\r\n\r\n"));
+		
+		assertEquals("\"ABC\"", parser.getCookie("sid"));
+		assertEquals("1", parser.getCookie("a"));
+		assertNull(parser.getCookie("b"));
+	}
+	
+	@Test
+	public void testMalformedRequestLineThrows() {
+		HttpRequestParser parser = new HttpRequestParser(1024, 10);
+		
+		HttpRequestParserException e = assertThrows(HttpRequestParserException.class,
+				() -> parser.readRequest(input("GET  /  HTTP/1.1\r\n\r\n")));
+		assertEquals(400, e.getStatusCode());
+	}
+	
+	@Test
+	public void testTooLargeHeaderThrows() {
+		HttpRequestParser parser = new HttpRequestParser(64, 10);
+		
+		HttpRequestParserException e = assertThrows(HttpRequestParserException.class,
+				() -> parser.readRequest(input("GET / HTTP/1.1\r\nX: " + "a".repeat(100) + "\r\n\r\n")));
+		assertEquals(431, e.getStatusCode());
+	}
+	
+	@Test
+	public void testTooManyHeadersThrows() {
+		HttpRequestParser parser = new HttpRequestParser(1024, 1);
+		
+		HttpRequestParserException e = assertThrows(HttpRequestParserException.class,
+				() -> parser.readRequest(input("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\n\r\n")));
+		assertEquals(431, e.getStatusCode());
+	}
+	
+}
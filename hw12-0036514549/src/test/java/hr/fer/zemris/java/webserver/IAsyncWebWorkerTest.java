@@ -0,0 +1,63 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+class IAsyncWebWorkerTest {
+	
+	@Test
+	void testAdaptSynchronousWorker() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		
+		CompletableFuture<Void> future = IAsyncWebWorker.adapt(c -> c.write("hello")).processRequestAsync(context);
+		
+		assertTrue(future.isDone());
+		assertTrue(os.toString(StandardCharsets.UTF_8).endsWith("hello"));
+	}
+	
+	@Test
+	void testAdaptFailingWorker() {
+		RequestContext context = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		
+		CompletableFuture<Void> future = IAsyncWebWorker.adapt(c -> {
+			throw new IOException("failed");
+		}).processRequestAsync(context);
+		
+		ExecutionException e = assertThrows(ExecutionException.class, future::get);
+		assertTrue(e.getCause() instanceof IOException);
+	}
+	
+	@Test
+	void testAdaptAsynchronousWorker() {
+		IAsyncWebWorker worker = c -> CompletableFuture.completedFuture(null);
+		assertSame(worker, IAsyncWebWorker.adapt(worker));
+	}
+	
+	@Test
+	void testSynchronousCall() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		IAsyncWebWorker worker = c -> CompletableFuture.runAsync(() -> {
+			try {
+				c.write("later");
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		
+		worker.processRequest(context);
+		assertTrue(os.toString(StandardCharsets.UTF_8).endsWith("later"));
+		
+		IAsyncWebWorker failing = c -> CompletableFuture.failedFuture(new IOException("failed"));
+		assertThrows(IOException.class, () -> failing.processRequest(context));
+	}
+	
+}
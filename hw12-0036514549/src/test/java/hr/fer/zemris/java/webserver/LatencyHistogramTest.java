@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+	
+	@Test
+	public void testEmptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0.0, histogram.getMean());
+	}
+	
+	@Test
+	public void testPercentilesAreWithinRelativeError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMax());
+		assertEquals(5000.5, histogram.getMean(), 1e-9);
+		for (double percentile : new double[] {50, 90, 99, 99.9}) {
+			long expected = (long) (percentile * 100);
+			long actual = histogram.getValueAtPercentile(percentile);
+			assertTrue(actual >= expected && actual <= expected + expected / 16, percentile + ": " + actual);
+		}
+		assertEquals(10000, histogram.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(3);
+		histogram.record(-5);
+		
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(3, histogram.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void testRoutesBeyondLimitAreGrouped() {
+		ServerMetrics metrics = new ServerMetrics(1);
+		metrics.recordRequest("/a", 1000);
+		metrics.recordRequest("/b", 2000);
+		
+		assertEquals(1, metrics.getHistogram("/a").getCount());
+		assertNull(metrics.getHistogram("/b"));
+		assertEquals(1, metrics.getHistogram(ServerMetrics.OTHER_ROUTE).getCount());
+		assertTrue(metrics.report().contains("requests_total{route=\"/a\"} 1"));
+	}
+	
+}
@@ -0,0 +1,109 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.SessionStore.SessionMapEntry;
+
+class OffHeapSessionStoreTest {
+	
+	@Test
+	public void testCreateAndGet() {
+		OffHeapSessionStore store = new OffHeapSessionStore(60);
+		SessionMapEntry session = store.create("localhost");
+		
+		assertEquals(20, session.sid.length());
+		assertEquals(session.sid, store.get(session.sid, "localhost").sid);
+		assertNull(store.get(session.sid, "www.localhost.com"));
+		assertNull(store.get("ABCDEFGHIJKLMNOPQRST", "localhost"));
+		assertNull(store.get("not a session id", "localhost"));
+		assertEquals(1, store.size());
+	}
+	
+	@Test
+	public void testHostsWithEqualHashCodesAreDistinguished() {
+		OffHeapSessionStore store = new OffHeapSessionStore(60);
+		SessionMapEntry session = store.create("Aa");
+		
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		assertNull(store.get(session.sid, "BB"));
+		assertNotNull(store.get(session.sid, "Aa"));
+	}
+	
+	@Test
+	public void testParametersAreStoredByUpdate() {
+		OffHeapSessionStore store = new OffHeapSessionStore(60);
+		SessionMapEntry session = store.create("localhost");
+		session.map.put("bgcolor", "FFCC00");
+		session.map.put("ime", "Čćžšđ");
+		
+		assertTrue(store.get(session.sid, "localhost").map.isEmpty());
+		store.update(session);
+		assertEquals(Map.of("bgcolor", "FFCC00", "ime", "Čćžšđ"), store.get(session.sid, "localhost").map);
+		
+		session.map.put("long", "x".repeat(1000));
+		store.update(session);
+		assertEquals(session.map, store.get(session.sid, "localhost").map);
+		
+		session.map.clear();
+		store.update(session);
+		assertTrue(store.get(session.sid, "localhost").map.isEmpty());
+	}
+	
+	@Test
+	public void testManySessions() {
+		OffHeapSessionStore store = new OffHeapSessionStore(60);
+		List<SessionMapEntry> sessions = new ArrayList<>();
+		for (int i = 0; i < 50000; i++) {
+			SessionMapEntry session = store.create("localhost");
+			session.map.put("i", Integer.toString(i));
+			store.update(session);
+			sessions.add(session);
+		}
+		
+		assertEquals(50000, store.size());
+		for (int i = 0; i < sessions.size(); i++) {
+			assertEquals(Integer.toString(i), store.get(sessions.get(i).sid, "localhost").map.get("i"));
+		}
+	}
+	
+	@Test
+	public void testExpiredSessionsAreRemoved() throws InterruptedException {
+		OffHeapSessionStore store = new OffHeapSessionStore(1);
+		SessionMapEntry used = store.create("localhost");
+		SessionMapEntry unused = store.create("localhost");
+		
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(300);
+			assertNotNull(store.get(used.sid, "localhost"));
+		}
+		
+		assertEquals(1, store.size());
+		assertNull(store.get(unused.sid, "localhost"));
+	}
+	
+	@Test
+	public void testOnlyUnusedSessionsExpire() throws InterruptedException {
+		OffHeapSessionStore store = new OffHeapSessionStore(1);
+		List<SessionMapEntry> sessions = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			sessions.add(store.create("localhost"));
+		}
+		
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(300);
+			for (int j = 0; j < sessions.size(); j += 2) {
+				assertNotNull(store.get(sessions.get(j).sid, "localhost"));
+			}
+		}
+		
+		assertEquals(500, store.size());
+		store.close();
+	}
+	
+}
@@ -0,0 +1,111 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.Router.Match;
+
+class RouterTest {
+	
+	private Router<String> router;
+	
+	@BeforeEach
+	void setUp() {
+		router = new Router<>();
+		router.addExact("/", "root");
+		router.addExact("/hello", "hello");
+		router.addExact("/users/{id}", "user");
+		router.addExact("/users/me", "me");
+		router.addExact("/users/{id}/posts/{post}", "post");
+		router.addPrefix("/ext/", "ext");
+		router.addPrefix("/private", "private");
+		router.addExact("/private/special", "special");
+		router.setFallback("static");
+	}
+	
+	@Test
+	void testExactRoutes() {
+		assertEquals("root", router.route("/").getHandler());
+		assertEquals("hello", router.route("/hello").getHandler());
+		assertEquals("static", router.route("/hello/").getHandler());
+		assertEquals("static", router.route("/hello2").getHandler());
+		assertEquals("static", router.route("/index.html").getHandler());
+	}
+	
+	@Test
+	void testPathParameters() {
+		Match<String> match = router.route("/users/42");
+		assertEquals("user", match.getHandler());
+		assertEquals(Map.of("id", "42"), match.getParameters());
+		
+		match = router.route("/users/me");
+		assertEquals("me", match.getHandler());
+		assertTrue(match.getParameters().isEmpty());
+		
+		match = router.route("/users/me/posts/7");
+		assertEquals("post", match.getHandler());
+		assertEquals(Map.of("id", "me", "post", "7"), match.getParameters());
+		
+		assertEquals("static", router.route("/users").getHandler());
+		assertEquals("static", router.route("/users/42/posts").getHandler());
+	}
+	
+	@Test
+	void testPrefixRoutes() {
+		Match<String> match = router.route("/ext/HelloWorker");
+		assertEquals("ext", match.getHandler());
+		assertEquals("HelloWorker", match.getRemainder());
+		assertEquals("/ext/HelloWorker", match.getPath());
+		
+		assertEquals("ext", router.route("/ext").getHandler());
+		assertEquals("", router.route("/ext").getRemainder());
+		assertEquals("a/b", router.route("/ext/a/b").getRemainder());
+		
+		assertEquals("private", router.route("/private/pages/home.smscr").getHandler());
+		assertEquals("special", router.route("/private/special").getHandler());
+		assertEquals("private", router.route("/private/special/x").getHandler());
+		assertEquals("static", router.route("/privately").getHandler());
+	}
+	
+	@Test
+	void testPatterns() {
+		assertEquals("/users/{id}", router.route("/users/42").getPattern());
+		assertEquals("/users/{id}/posts/{post}", router.route("/users/me/posts/7").getPattern());
+		assertEquals("/", router.route("/").getPattern());
+		assertEquals("/ext/*", router.route("/ext/HelloWorker").getPattern());
+		assertEquals("/private/*", router.route("/private/pages/home.smscr").getPattern());
+		assertNull(router.route("/scripts/osnovni.smscr").getPattern());
+	}
+	
+	@Test
+	void testFallback() {
+		Match<String> match = router.route("/scripts/osnovni.smscr");
+		assertEquals("static", match.getHandler());
+		assertEquals("/scripts/osnovni.smscr", match.getRemainder());
+		assertEquals("static", router.route("relative").getHandler());
+	}
+	
+	@Test
+	void testDuplicateRoute() {
+		assertThrows(IllegalArgumentException.class, () -> router.addExact("/hello", "other"));
+		assertThrows(IllegalArgumentException.class, () -> router.addPrefix("/ext", "other"));
+		assertThrows(IllegalArgumentException.class, () -> router.addExact("hello", "other"));
+	}
+	
+	@Test
+	void testNormalize() {
+		assertEquals("/private/pages/home.smscr", Router.normalize("/./private/pages/home.smscr"));
+		assertEquals("private", router.route(Router.normalize("/./private/pages/home.smscr")).getHandler());
+		assertEquals("/private/", Router.normalize("/scripts/../private/."));
+		assertEquals("/", Router.normalize("/hello/.."));
+		assertEquals("/hello.txt", Router.normalize("/hello.txt"));
+		assertEquals("/.well-known/x", Router.normalize("/.well-known/x"));
+		assertNull(Router.normalize("/../config/server.properties"));
+		assertNull(Router.normalize("/scripts/../../config"));
+	}
+	
+}
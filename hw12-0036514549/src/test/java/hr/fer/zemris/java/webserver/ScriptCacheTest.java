@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptProgram;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+
+class ScriptCacheTest {
+	
+	@TempDir
+	Path dir;
+	
+	@Test
+	public void testSecondRequestIsHit() throws IOException {
+		Path script = Files.writeString(dir.resolve("a.smscr"), "a{$= \"b\" $}");
+		ScriptCache cache = new ScriptCache(4);
+		
+		DocumentNode first = cache.get(script);
+		DocumentNode second = cache.get(script);
+		
+		assertSame(first, second);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRatio());
+	}
+	
+	@Test
+	public void testModifiedScriptIsParsedAgain() throws IOException {
+		Path script = Files.writeString(dir.resolve("a.smscr"), "a");
+		ScriptCache cache = new ScriptCache(4);
+		
+		DocumentNode first = cache.get(script);
+		Files.writeString(script, "abc");
+		DocumentNode second = cache.get(script);
+		
+		assertNotSame(first, second);
+		assertEquals("abc", second.toString());
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws IOException {
+		Path a = Files.writeString(dir.resolve("a.smscr"), "a");
+		Path b = Files.writeString(dir.resolve("b.smscr"), "b");
+		Path c = Files.writeString(dir.resolve("c.smscr"), "c");
+		ScriptCache cache = new ScriptCache(2);
+		
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+		cache.get(c);
+		assertEquals(2, cache.size());
+		
+		cache.get(a);
+		assertEquals(2, cache.getHits());
+		cache.get(b);
+		assertEquals(2, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+	
+	@Test
+	public void testConcurrentMissesCompileOnce() throws Exception {
+		Path script = Files.writeString(dir.resolve("a.smscr"), "a{$= \"b\" $}");
+		AtomicInteger compiles = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ScriptCache cache = new ScriptCache(4, node -> {
+			compiles.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return ScriptProgram.compile(node);
+		});
+		int threads = 8;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			CountDownLatch started = new CountDownLatch(threads);
+			List<Future<CompiledScript>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(pool.submit(() -> {
+					started.countDown();
+					return cache.getProgram(script);
+				}));
+			}
+			started.await();
+			while (cache.getMisses() == 0) {
+				Thread.sleep(1);
+			}
+			Thread.sleep(50);
+			release.countDown();
+			
+			CompiledScript first = futures.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<CompiledScript> future : futures) {
+				assertSame(first, future.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, compiles.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(threads - 1, cache.getHits());
+	}
+	
+	@Test
+	public void testFailureIsSharedAndNotKept() throws IOException {
+		Path script = Files.writeString(dir.resolve("a.smscr"), "{$END$}");
+		ScriptCache cache = new ScriptCache(4);
+		assertThrows(SmartScriptParserException.class, () -> cache.get(script));
+		
+		Files.writeString(script, "a");
+		assertEquals("a", cache.get(script).toString());
+	}
+	
+	@Test
+	public void testNegativeCapacityThrows() {
+		assertThrows(IllegalArgumentException.class, () -> new ScriptCache(-1));
+	}
+	
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.SessionStore.SessionMapEntry;
+
+class SessionStoreTest {
+	
+	@Test
+	public void testCreateAndGet() {
+		SessionStore store = new SessionStore(60);
+		SessionMapEntry session = store.create("localhost");
+		
+		assertEquals(20, session.sid.length());
+		assertTrue(session.sid.chars().allMatch(c -> c >= 'A' && c <= 'Z'));
+		assertSame(session, store.get(session.sid, "localhost"));
+		assertEquals(1, store.size());
+	}
+	
+	@Test
+	public void testGetWithOtherHostReturnsNull() {
+		SessionStore store = new SessionStore(60);
+		SessionMapEntry session = store.create("localhost");
+		
+		assertNull(store.get(session.sid, "www.localhost.com"));
+		assertNull(store.get("ABCDEFGHIJKLMNOPQRST", "localhost"));
+		assertEquals(1, store.size());
+	}
+	
+	@Test
+	public void testExpiredSessionsAreRemoved() throws InterruptedException {
+		SessionStore store = new SessionStore(1);
+		SessionMapEntry used = store.create("localhost");
+		SessionMapEntry unused = store.create("localhost");
+		
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(300);
+			assertSame(used, store.get(used.sid, "localhost"));
+		}
+		
+		assertEquals(1, store.size());
+		assertNull(store.get(unused.sid, "localhost"));
+	}
+	
+	@Test
+	public void testClosedStoreStopsRemovingSessions() throws InterruptedException {
+		SessionStore store = new SessionStore(1);
+		store.create("localhost");
+		store.close();
+		
+		Thread.sleep(2500);
+		assertEquals(1, store.size());
+	}
+	
+	@Test
+	public void testNonPositiveTimeoutThrows() {
+		assertThrows(IllegalArgumentException.class, () -> new SessionStore(0));
+	}
+	
+}
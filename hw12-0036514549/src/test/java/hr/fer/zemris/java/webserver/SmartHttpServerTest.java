@@ -0,0 +1,242 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SmartHttpServerTest {
+	
+	private static final String HOST = "127.0.0.1";
+	
+	@TempDir
+	Path dir;
+	
+	private SmartHttpServer server;
+	
+	private int port;
+	
+	@AfterEach
+	void stopServer() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {"blocking", "nio"})
+	void testPipelinedRequestsOverKeepAliveConnection(String mode) throws Exception {
+		startServer(mode, 10000);
+		
+		try (Socket socket = new Socket(HOST, port)) {
+			socket.setSoTimeout(5000);
+			String request = "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n";
+			socket.getOutputStream().write((request + request + request).getBytes(StandardCharsets.US_ASCII));
+			
+			InputStream is = new BufferedInputStream(socket.getInputStream());
+			for (int i = 0; i < 3; i++) {
+				Response response = readResponse(is);
+				assertEquals(200, response.status);
+				assertEquals("keep-alive", response.headers.get("connection"));
+				assertEquals("Hello!", response.body);
+			}
+			
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+			assertEquals("Hello!", readResponse(is).body);
+		}
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {"blocking", "nio"})
+	void testRequestIsRejectedWhenServerIsSaturated(String mode) throws Exception {
+		startServer(mode, 1);
+		
+		Socket busy = occupyOnlyPermit();
+		try (Socket socket = new Socket(HOST, port)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write(
+				"GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII)
+			);
+			Response response = readResponse(new BufferedInputStream(socket.getInputStream()));
+			
+			assertEquals(503, response.status);
+			assertEquals("1", response.headers.get("retry-after"));
+			assertEquals("close", response.headers.get("connection"));
+			assertEquals("503 Service Unavailable", response.body);
+		} finally {
+			busy.close();
+		}
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {"blocking", "nio"})
+	void testNextRequestIsRejectedWhenServerIsSaturatedDuringAsyncResponse(String mode) throws Exception {
+		startServer(mode, 1);
+		
+		String requests = "GET /ext/DelayWorker?ms=1000 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n";
+		while (true) {
+			try (Socket socket = new Socket(HOST, port)) {
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write(requests.getBytes(StandardCharsets.US_ASCII));
+				
+				// worker of the delayed request releases the permit while the 
+				// response is pending, so the busy connection takes it over
+				Socket busy = occupyOnlyPermit();
+				try {
+					InputStream is = new BufferedInputStream(socket.getInputStream());
+					Response delayed = readResponse(is);
+					if (delayed.status == 503) {
+						// delayed request was not admitted in the first place
+						continue;
+					}
+					assertEquals(200, delayed.status);
+					assertEquals("Responded after 1000 ms.\n", delayed.body);
+					
+					Response rejected = readResponse(is);
+					assertEquals(503, rejected.status);
+					assertEquals("1", rejected.headers.get("retry-after"));
+					assertEquals("close", rejected.headers.get("connection"));
+					assertEquals("503 Service Unavailable", rejected.body);
+					assertNull(readLine(is));
+					return;
+				} finally {
+					busy.close();
+				}
+			}
+		}
+	}
+	
+	private Socket occupyOnlyPermit() throws IOException, InterruptedException {
+		// response is never read, so its worker blocks once the socket buffers
+		// are full and keeps the only permit; request is repeated until it is
+		// admitted, since the connection that checked whether the server is up
+		// may still hold the permit
+		while (true) {
+			Socket busy = new Socket(HOST, port);
+			busy.setSoTimeout(5000);
+			busy.getOutputStream().write(
+				"GET /large.smscr HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII)
+			);
+			if (readLine(busy.getInputStream()).startsWith("HTTP/1.1 200")) {
+				return busy;
+			}
+			busy.close();
+			Thread.sleep(20);
+		}
+	}
+	
+	private void startServer(String mode, int maxInFlight) throws IOException, InterruptedException {
+		Path documentRoot = Files.createDirectory(dir.resolve("webroot"));
+		Files.writeString(documentRoot.resolve("hello.txt"), "Hello!");
+		Files.writeString(
+			documentRoot.resolve("large.smscr"),
+			"{$FOR i 1 1000000 $}0123456789012345678901234567890123456789{$END$}"
+		);
+		
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(Paths.get("config/server.properties"))) {
+			properties.load(is);
+		}
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		properties.setProperty("server.address", HOST);
+		properties.setProperty("server.port", Integer.toString(port));
+		properties.setProperty("server.mode", mode);
+		properties.setProperty("server.maxInFlight", Integer.toString(maxInFlight));
+		properties.setProperty("server.documentRoot", documentRoot.toString());
+		
+		Path config = dir.resolve("server.properties");
+		try (Writer writer = Files.newBufferedWriter(config)) {
+			properties.store(writer, null);
+		}
+		
+		server = new SmartHttpServer(config.toString());
+		server.start();
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true) {
+			try {
+				new Socket(HOST, port).close();
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw e;
+				}
+				Thread.sleep(20);
+			}
+		}
+	}
+	
+	private static Response readResponse(InputStream is) throws IOException {
+		Response response = new Response();
+		String statusLine = readLine(is);
+		assertNotNull(statusLine, "Connection was closed before the response.");
+		response.status = Integer.parseInt(statusLine.split(" ")[1]);
+		
+		String line;
+		while (!(line = readLine(is)).isEmpty()) {
+			int colon = line.indexOf(':');
+			response.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+		}
+		
+		if ("chunked".equals(response.headers.get("transfer-encoding"))) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			int length;
+			while ((length = Integer.parseInt(readLine(is), 16)) > 0) {
+				body.write(is.readNBytes(length));
+				readLine(is);
+			}
+			readLine(is);
+			response.body = body.toString(StandardCharsets.UTF_8);
+		} else {
+			int length = Integer.parseInt(response.headers.get("content-length"));
+			response.body = new String(is.readNBytes(length), StandardCharsets.UTF_8);
+		}
+		return response;
+	}
+	
+	private static String readLine(InputStream is) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) != '\n') {
+			if (b == -1) {
+				return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString(StandardCharsets.US_ASCII);
+	}
+	
+	private static class Response {
+		
+		int status;
+		
+		Map<String, String> headers = new HashMap<>();
+		
+		String body;
+		
+	}
+	
+}
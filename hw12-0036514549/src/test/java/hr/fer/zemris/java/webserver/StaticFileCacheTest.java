@@ -0,0 +1,128 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import hr.fer.zemris.java.webserver.StaticFileCache.StaticFile;
+
+class StaticFileCacheTest {
+	
+	@TempDir
+	Path dir;
+	
+	@Test
+	public void testSecondRequestIsHit() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "abc");
+		StaticFileCache cache = new StaticFileCache(100, 10);
+		
+		StaticFile first = cache.get(path);
+		StaticFile second = cache.get(path);
+		
+		assertSame(first, second);
+		assertArrayEquals("abc".getBytes(), second.getContent());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void testModifiedFileIsReadAgain() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "abc");
+		StaticFileCache cache = new StaticFileCache(100, 10);
+		
+		StaticFile first = cache.get(path);
+		Files.writeString(path, "abcd");
+		StaticFile second = cache.get(path);
+		
+		assertArrayEquals("abcd".getBytes(), second.getContent());
+		assertNotEquals(first.getETag(), second.getETag());
+		assertEquals(4, cache.getCachedBytes());
+	}
+	
+	@Test
+	public void testLargeFileIsNotCached() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "abcdef");
+		StaticFileCache cache = new StaticFileCache(100, 5);
+		
+		StaticFile file = cache.get(path);
+		
+		assertNull(file.getContent());
+		assertEquals(6, file.getSize());
+		assertEquals(0, cache.getCachedBytes());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws IOException {
+		Path a = Files.writeString(dir.resolve("a.txt"), "aaaa");
+		Path b = Files.writeString(dir.resolve("b.txt"), "bbbb");
+		Path c = Files.writeString(dir.resolve("c.txt"), "cccc");
+		StaticFileCache cache = new StaticFileCache(10, 10);
+		
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+		cache.get(c);
+		assertEquals(8, cache.getCachedBytes());
+		
+		cache.get(a);
+		assertEquals(2, cache.getHits());
+		cache.get(b);
+		assertEquals(2, cache.getHits());
+	}
+	
+	@Test
+	public void testGzippedContent() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "a".repeat(1000));
+		StaticFile file = new StaticFileCache(2000, 2000).get(path);
+		
+		byte[] gzipped = file.getGzippedContent();
+		
+		assertSame(gzipped, file.getGzippedContent());
+		try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+			assertArrayEquals(file.getContent(), is.readAllBytes());
+		}
+		assertNotEquals(file.getETag(), file.getGzippedETag());
+		assertTrue(file.isNotModified(file.getGzippedETag(), null));
+	}
+	
+	@Test
+	public void testIncompressibleContentIsNotGzipped() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "a");
+		
+		assertNull(new StaticFileCache(100, 10).get(path).getGzippedContent());
+	}
+	
+	@Test
+	public void testMissingFileIsNull() {
+		StaticFileCache cache = new StaticFileCache(100, 10);
+		
+		assertNull(cache.get(dir.resolve("none.txt")));
+		assertNull(cache.get(dir));
+	}
+	
+	@Test
+	public void testConditionalRequest() throws IOException {
+		Path path = Files.writeString(dir.resolve("a.txt"), "abc");
+		Files.setLastModifiedTime(path, FileTime.fromMillis(1_000_000_000_000L));
+		StaticFile file = new StaticFileCache(100, 10).get(path);
+		
+		assertEquals("Sun, 09 Sep 2001 01:46:40 GMT", file.getLastModifiedText());
+		assertTrue(file.isNotModified(file.getETag(), null));
+		assertTrue(file.isNotModified("\"x\", W/" + file.getETag(), null));
+		assertFalse(file.isNotModified("\"x\"", file.getLastModifiedText()));
+		assertTrue(file.isNotModified(null, file.getLastModifiedText()));
+		assertFalse(file.isNotModified(null, "Sun, 09 Sep 2001 01:46:39 GMT"));
+		assertFalse(file.isNotModified(null, "yesterday"));
+		assertFalse(file.isNotModified(null, null));
+	}
+	
+}
@@ -0,0 +1,65 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.workers.EchoParams;
+
+class WorkerRegistryTest {
+	
+	private WorkerRegistry registry = new WorkerRegistry(
+		"hr.fer.zemris.java.webserver.workers", getClass().getClassLoader()
+	);
+	
+	@Test
+	public void testStatelessWorkerIsShared() {
+		IWebWorker first = registry.get("EchoParams");
+		
+		assertTrue(first instanceof EchoParams);
+		assertSame(first, registry.get("EchoParams"));
+	}
+	
+	@Test
+	public void testStatefulWorkerIsCreatedForEachRequest() {
+		WorkerRegistry registry = new WorkerRegistry("hr.fer.zemris.java.webserver", getClass().getClassLoader());
+		
+		IWebWorker first = registry.get("WorkerRegistryTest$CountingWorker");
+		
+		assertNotNull(first);
+		assertNotSame(first, registry.get("WorkerRegistryTest$CountingWorker"));
+	}
+	
+	@Test
+	public void testUnknownClassIsMiss() {
+		assertNull(registry.get("NoSuchWorker"));
+		assertNull(registry.get("NoSuchWorker"));
+	}
+	
+	@Test
+	public void testClassThatIsNotWorkerIsMiss() {
+		WorkerRegistry registry = new WorkerRegistry("java.lang", getClass().getClassLoader());
+		
+		assertNull(registry.get("String"));
+	}
+	
+	@Test
+	public void testMalformedNameIsMiss() {
+		assertNull(registry.get(""));
+		assertNull(registry.get("a/b"));
+		assertNull(registry.get("a..b"));
+		assertNull(registry.get("EchoParams."));
+	}
+	
+	public static class CountingWorker implements IWebWorker {
+		
+		private int count;
+		
+		@Override
+		public void processRequest(RequestContext context) {
+			count++;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,162 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.WorkerResponseCache.CachedResponse;
+
+class WorkerResponseCacheTest {
+	
+	private static CachedResponse response(int statusCode, int length) {
+		return new CachedResponse(statusCode, "OK", "text/plain", "UTF-8",
+			Collections.emptyMap(), new byte[length]);
+	}
+	
+	@Test
+	void testHitAndMiss() throws Exception {
+		WorkerResponseCache cache = new WorkerResponseCache(1000);
+		AtomicInteger loads = new AtomicInteger();
+		
+		CachedResponse first = cache.get("a", 60, () -> { loads.incrementAndGet(); return response(200, 10); });
+		CachedResponse second = cache.get("a", 60, () -> { loads.incrementAndGet(); return response(200, 10); });
+		
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(10, cache.getCachedBytes());
+	}
+	
+	@Test
+	void testUnsuccessfulAndExpiredResponsesAreNotKept() throws Exception {
+		WorkerResponseCache cache = new WorkerResponseCache(1000);
+		AtomicInteger loads = new AtomicInteger();
+		
+		cache.get("error", 60, () -> { loads.incrementAndGet(); return response(500, 10); });
+		cache.get("error", 60, () -> { loads.incrementAndGet(); return response(500, 10); });
+		cache.get("expired", 0, () -> { loads.incrementAndGet(); return response(200, 10); });
+		cache.get("expired", 0, () -> { loads.incrementAndGet(); return response(200, 10); });
+		
+		assertEquals(4, loads.get());
+		assertEquals(0, cache.getCachedBytes());
+	}
+	
+	@Test
+	void testCapacity() throws Exception {
+		WorkerResponseCache cache = new WorkerResponseCache(25);
+		cache.get("a", 60, () -> response(200, 10));
+		cache.get("b", 60, () -> response(200, 10));
+		cache.get("a", 60, () -> response(200, 10));
+		cache.get("c", 60, () -> response(200, 10));
+		cache.get("d", 60, () -> response(200, 30));
+		assertEquals(20, cache.getCachedBytes());
+		
+		AtomicInteger loads = new AtomicInteger();
+		cache.get("a", 60, () -> { loads.incrementAndGet(); return response(200, 10); });
+		cache.get("c", 60, () -> { loads.incrementAndGet(); return response(200, 10); });
+		assertEquals(0, loads.get());
+		cache.get("b", 60, () -> { loads.incrementAndGet(); return response(200, 10); });
+		assertEquals(1, loads.get());
+	}
+	
+	@Test
+	void testConcurrentRequestsAreCoalesced() throws Exception {
+		WorkerResponseCache cache = new WorkerResponseCache(1000);
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		int threads = 8;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<CachedResponse>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(pool.submit(() -> cache.get("a", 60, () -> {
+					loads.incrementAndGet();
+					release.await();
+					return response(200, 10);
+				})));
+			}
+			while (cache.getMisses() + cache.getCoalesced() < threads) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+			
+			CachedResponse first = futures.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<CachedResponse> future : futures) {
+				assertSame(first, future.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(threads - 1, cache.getCoalesced());
+	}
+	
+	@Test
+	void testFailureIsSharedAndNotKept() throws Exception {
+		WorkerResponseCache cache = new WorkerResponseCache(1000);
+		assertThrows(IllegalStateException.class, () -> cache.get("a", 60, () -> {
+			throw new IllegalStateException();
+		}));
+		assertEquals(200, cache.get("a", 60, () -> response(200, 1)).getStatusCode());
+	}
+	
+	@Test
+	void testKey() {
+		ICacheableWorker worker = new ICacheableWorker() {
+			@Override
+			public void processRequest(RequestContext context) {
+			}
+			
+			@Override
+			public List<String> getCacheKeyParameters() {
+				return List.of("a", "b");
+			}
+		};
+		
+		String key = WorkerResponseCache.key("/x", worker, Map.of("a", "1", "b", "2", "c", "3"));
+		assertEquals(key, WorkerResponseCache.key("/x", worker, Map.of("a", "1", "b", "2")));
+		assertNotEquals(key, WorkerResponseCache.key("/x", worker, Map.of("a", "12")));
+		assertNotEquals(key, WorkerResponseCache.key("/y", worker, Map.of("a", "1", "b", "2")));
+		assertNotEquals(
+			WorkerResponseCache.key("/x", worker, Map.of("a", "")),
+			WorkerResponseCache.key("/x", worker, Map.of())
+		);
+	}
+	
+	@Test
+	void testCreateCollectsResponseWithoutHeader() throws Exception {
+		CachedResponse response = CachedResponse.create(context -> {
+			context.setMimeType("text/plain");
+			context.setHeader("X-Test", "yes");
+			context.write("hello");
+		}, null, null, null, null, null, null);
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		response.writeTo(context);
+		String text = os.toString(StandardCharsets.UTF_8);
+		
+		assertEquals("hello", new String(response.getContent(), StandardCharsets.UTF_8));
+		assertTrue(text.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(text.contains("Content-Type: text/plain; charset=UTF-8\r\n"));
+		assertTrue(text.contains("Content-Length: 5\r\n"));
+		assertTrue(text.contains("X-Test: yes\r\n"));
+		assertTrue(text.endsWith("\r\n\r\nhello"));
+	}
+	
+}